@@ -0,0 +1,86 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.jmh;
+
+import com.google.demo.analytics.executor.BigQueryExecutor;
+import com.google.demo.analytics.executor.BigQueryJobPoller;
+import com.google.demo.analytics.executor.JDBCExecutor;
+import com.google.demo.analytics.model.BigQueryUnitResult;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.simulation.LatencyDistribution;
+import com.google.demo.analytics.simulation.SimulatedBigQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time the executors spend around a query that costs nothing on the engine side. This is the
+ * floor of every latency the benchmark reports for that engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecutorBenchmark {
+
+    @Param({"0", "1000"})
+    private int rows;
+
+    @Param({"false", "true"})
+    private boolean drain;
+
+    private JDBCExecutor jdbcExecutor;
+    private BigQueryJobPoller poller;
+    private BigQueryExecutor bigQueryExecutor;
+
+    @Setup
+    public void setUp() {
+        QueryUnit queryUnit = new QueryUnit("1", "jmh", "jmh", "SELECT 1", 1);
+
+        NoOpConnectionProvider connectionProvider = new NoOpConnectionProvider(rows, 4);
+        jdbcExecutor = new JDBCExecutor(queryUnit, connectionProvider, drain, 0);
+
+        LatencyDistribution instant = LatencyDistribution.fromSpec("fixed:0");
+        poller = new BigQueryJobPoller(new SimulatedBigQuery(instant, instant, 0).getBigQuery(), 0, 0, 1);
+        bigQueryExecutor = new BigQueryExecutor(queryUnit, poller, true, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        poller.close();
+    }
+
+    @Benchmark
+    public QueryUnitResult jdbc() {
+        return jdbcExecutor.executeOnce();
+    }
+
+    /**
+     * Includes the hand-offs between the caller, the RPC threads and the polling thread.
+     */
+    @Benchmark
+    public BigQueryUnitResult bigQuery() {
+        return bigQueryExecutor.executeAsync().join();
+    }
+}
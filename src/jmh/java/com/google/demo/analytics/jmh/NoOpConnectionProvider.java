@@ -0,0 +1,46 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.jmh;
+
+import com.google.demo.analytics.executor.ConnectionProvider;
+
+import java.sql.Connection;
+
+/**
+ * Hands out the same {@link NoOpJdbc} connection to every caller.
+ */
+public class NoOpConnectionProvider implements ConnectionProvider {
+
+    private final Connection connection;
+
+    public NoOpConnectionProvider(int rows, int columns) {
+        this.connection = NoOpJdbc.connection(rows, columns);
+    }
+
+    @Override
+    public Connection acquire() {
+        return connection;
+    }
+
+    @Override
+    public void release(Connection connection) {}
+
+    @Override
+    public void warmUp() {}
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,129 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.jmh;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * In-memory JDBC objects that answer every query straight away with {@code rows} rows of
+ * {@code columns} BIGINT columns, so that benchmarks only measure the code of the driver
+ * around the JDBC calls.
+ */
+public class NoOpJdbc {
+
+    private static final Long VALUE = 42L;
+
+    public static Connection connection(int rows, int columns) {
+        ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (method, args) -> {
+            switch(method.getName()) {
+                case "getColumnCount":
+                    return columns;
+                case "getColumnType":
+                    return Types.BIGINT;
+                default:
+                    return defaultValue(method);
+            }
+        });
+
+        Connection[] connection = new Connection[1];
+        InvocationHandler statement = (self, method, args) -> {
+            switch(method.getName()) {
+                case "executeQuery":
+                    return resultSet(rows, metaData);
+                case "getConnection":
+                    return connection[0];
+                default:
+                    return defaultValue(method);
+            }
+        };
+
+        connection[0] = proxy(Connection.class, (method, args) -> {
+            switch(method.getName()) {
+                case "createStatement":
+                    return Proxy.newProxyInstance(
+                            NoOpJdbc.class.getClassLoader(), new Class<?>[] {Statement.class}, statement);
+                case "prepareStatement":
+                    return Proxy.newProxyInstance(
+                            NoOpJdbc.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, statement);
+                case "isValid":
+                    return true;
+                default:
+                    return defaultValue(method);
+            }
+        });
+        return connection[0];
+    }
+
+    private static ResultSet resultSet(int rows, ResultSetMetaData metaData) {
+        int[] row = new int[1];
+        return proxy(ResultSet.class, (method, args) -> {
+            switch(method.getName()) {
+                case "next":
+                    return ++row[0] <= rows;
+                case "getMetaData":
+                    return metaData;
+                case "getObject":
+                    return VALUE;
+                case "getLong":
+                    return VALUE;
+                case "getString":
+                    return VALUE.toString();
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(
+                NoOpJdbc.class.getClassLoader(),
+                new Class<?>[] {type},
+                (self, method, args) -> handler.invoke(method, args));
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if(!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if(type == boolean.class) {
+            return false;
+        } else if(type == long.class) {
+            return 0L;
+        } else if(type == double.class) {
+            return 0d;
+        } else if(type == float.class) {
+            return 0f;
+        } else if(type == short.class) {
+            return (short) 0;
+        } else if(type == byte.class) {
+            return (byte) 0;
+        }
+        return 0;
+    }
+}
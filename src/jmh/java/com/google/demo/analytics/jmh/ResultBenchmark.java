@@ -0,0 +1,59 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.jmh;
+
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of timing a query and recording its result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResultBenchmark {
+
+    private final QueryUnit queryUnit = new QueryUnit("1", "jmh", "jmh", "SELECT 1", 1);
+
+    @Benchmark
+    public StopWatch stopWatch() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.connected();
+        stopWatch.mark(StopWatch.Phase.SUBMIT);
+        stopWatch.mark(StopWatch.Phase.FIRST_ROW);
+        stopWatch.mark(StopWatch.Phase.COMPLETE);
+        return stopWatch;
+    }
+
+    @Benchmark
+    public QueryUnitResult result() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.connected();
+        stopWatch.mark(StopWatch.Phase.COMPLETE);
+        QueryUnitResult result = QueryUnitResult.createSuccess(queryUnit, stopWatch);
+        result.setFetchStatistics(1000, 8000);
+        return result;
+    }
+}
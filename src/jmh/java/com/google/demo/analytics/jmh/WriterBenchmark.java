@@ -0,0 +1,135 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.jmh;
+
+import com.google.demo.analytics.write.AsyncWriter;
+import com.google.demo.analytics.write.DefaultWriter;
+import com.google.demo.analytics.write.HDFSWriter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing one result line with each writer, to local files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriterBenchmark {
+
+    private static final List<String> VALUES = Arrays.asList(
+            "1", "queries/tpch.csv", "", "SUCCESS", "1508322000000", "1508322000123",
+            "123.456", "0.512", "122.944", "-1", "-1", "1000", "8000", "3f2a9c0d1e4b5a67:1000", "");
+
+    private static final int ASYNC_BATCH = 100_000;
+
+    private File directory;
+    private DefaultWriter defaultWriter;
+    private HDFSWriter hdfsWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jmh-writer").toFile();
+
+        defaultWriter = new DefaultWriter("jmh-writer.csv");
+        FileSystem local = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+        hdfsWriter = new HDFSWriter(local, new Path(directory.getPath(), "hdfs.csv"), 0, 0, 1000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        defaultWriter.close();
+        hdfsWriter.close();
+
+        new File(DefaultWriter.class.getClassLoader().getResource("").getPath(), "jmh-writer.csv").delete();
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void defaultWriter() throws IOException {
+        defaultWriter.write(Collections.singletonList(String.join(",", VALUES)));
+    }
+
+    @Benchmark
+    public void hdfsWriter() throws IOException {
+        hdfsWriter.write(Collections.singletonList(String.join(",", VALUES)));
+    }
+
+    /**
+     * Only the hand-off to the writer thread is on the caller's path. Every iteration submits a
+     * batch of {@link #ASYNC_BATCH} lines to a queue that holds all of them, so the score is the
+     * time of a whole batch and never includes waiting for the writer to catch up. The queue is
+     * drained between iterations.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(batchSize = ASYNC_BATCH)
+    @Measurement(batchSize = ASYNC_BATCH)
+    public void asyncWriter(AsyncState state) throws IOException {
+        state.writer.submit(VALUES);
+    }
+
+    @State(Scope.Thread)
+    public static class AsyncState {
+
+        private File directory;
+        private AsyncWriter<List<String>> writer;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("jmh-async-writer").toFile();
+            FileSystem local = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+            writer = new AsyncWriter<>(
+                    new HDFSWriter(local, new Path(directory.getPath(), "async.csv"), 0, 0, 1000),
+                    values -> String.join(",", values),
+                    ASYNC_BATCH + 1,
+                    1000,
+                    1000);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            writer.close();
+            for(File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
@@ -17,71 +17,284 @@
 package com.google.demo.analytics;
 
 import com.google.demo.analytics.benchmark.*;
+import com.google.demo.analytics.checkpoint.Checkpoint;
+import com.google.demo.analytics.distributed.Coordinator;
+import com.google.demo.analytics.distributed.Worker;
+import com.google.demo.analytics.metrics.MetricsRegistry;
+import com.google.demo.analytics.metrics.MetricsServer;
+import com.google.demo.analytics.model.QueryFileReader;
 import com.google.demo.analytics.model.QueryPackage;
-import com.google.demo.analytics.model.QueryUnit;
-import org.apache.commons.io.FileUtils;
+import com.google.demo.analytics.stats.ChecksumRecorder;
+import com.google.demo.analytics.stats.ChecksumReport;
+import com.google.demo.analytics.stats.ComparisonReport;
+import com.google.demo.analytics.stats.SummaryRecorder;
+import com.google.demo.analytics.util.ThreadPools;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.LineIterator;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
     private Logger logger = LogManager.getLogger();
 
     private static final String TEXT_EXTENSION = ".txt";
+    private static final String RESUME = "--resume";
 
-    // TODO: enable other benchmarks when we have the setup ready
-
-    private List<QueryPackage> bigQueryPackages = new ArrayList<>();
-    private List<QueryPackage> hiveQueryPackages = new ArrayList<>();
-    private List<QueryPackage> impalaQueryPackages = new ArrayList<>();
-    private List<QueryPackage> exasolQueryPackages = new ArrayList<>();
-    private List<QueryPackage> prestoQueryPackages = new ArrayList<>();
+    private EngineRegistry engines = new EngineRegistry();
+    private Map<String, List<QueryPackage>> enginePackages = new LinkedHashMap<>();
 
     private Map<String, List<String>> platformToKeys = new HashMap<>();
 
+    private Properties props = new Properties();
+
+    private MetricsRegistry metrics;
+    private MetricsServer metricsServer;
+    private Checkpoint checkpoint;
+    private Coordinator coordinator;
+
     public static void main(String[] args) {
         Main main = new Main();
 
-        main.start();
+        List<String> arguments = Arrays.asList(args);
+        int worker = arguments.indexOf(Coordinator.WORKER);
+        if(worker >= 0) {
+            main.startWorker(
+                    arguments.get(worker + 1),
+                    Integer.parseInt(arguments.get(worker + 2)),
+                    Integer.parseInt(arguments.get(worker + 3)));
+            return;
+        }
+
+        main.start(arguments.contains(RESUME));
         main.cleanup();
     }
 
-    private void start() {
+    /**
+     * @param resume whether to skip the executions journaled by a previous, interrupted run
+     */
+    private void start(boolean resume) {
         try {
             logger.log(Level.INFO, "Starting analytics");
 
+            props.load(Main.class.getClassLoader().getResourceAsStream("env.properties"));
             parseQueriesInput();
 
-            List<Benchmark> benchmarks = new ArrayList<>();
-            benchmarks.add(new BigQueryBenchmark(platformToKeys.get(BigQueryBenchmark.ENGINE_NAME), bigQueryPackages));
-            benchmarks.add(new HiveBenchmark(platformToKeys.get(HiveBenchmark.ENGINE_NAME), hiveQueryPackages));
-            benchmarks.add(new ImpalaBenchmark(platformToKeys.get(ImpalaBenchmark.ENGINE_NAME), impalaQueryPackages));
-            benchmarks.add(new ExasolBenchmark(platformToKeys.get(ExasolBenchmark.ENGINE_NAME), exasolQueryPackages));
-            benchmarks.add(new PrestoBenchmark(platformToKeys.get(PrestoBenchmark.ENGINE_NAME), prestoQueryPackages));
+            List<Benchmark> benchmarks = createBenchmarks();
+            List<Benchmark> connected;
+            if(startCoordinator()) {
+                if(resume) {
+                    throw new IllegalArgumentException(RESUME + " is not supported with distributed workers");
+                }
+                connected = new ArrayList<>();
+                for(Benchmark benchmark : benchmarks) {
+                    if(coordinator.getEngines().contains(benchmark.getEngineName())) {
+                        benchmark.setCoordinator(coordinator);
+                        connected.add(benchmark);
+                    } else {
+                        logger.log(Level.ERROR, String.format(
+                                "Not every worker could connect to %s, skipping it", benchmark.getEngineName()));
+                    }
+                }
+            } else {
+                connected = checkConnections(benchmarks);
+            }
+            startMetrics(connected);
+            startCheckpoint(connected, resume);
+            try {
+                runBenchmarks(connected);
+            } finally {
+                stopCheckpoint();
+                stopMetrics();
+                stopCoordinator();
+            }
+            writeComparison(connected);
+            writeChecksums(connected);
+            System.exit(0);
+        } catch(Throwable throwable) {
+            logger.log(Level.ERROR, throwable);
+            throwable.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs as worker {@code index} out of {@code count} of a distributed benchmark, for the
+     * engines this process can connect to, until the coordinator at {@code address} stops it.
+     */
+    private void startWorker(String address, int index, int count) {
+        try {
+            logger.log(Level.INFO, String.format("Starting analytics worker %d of %d", index, count));
 
-            runBenchmarks(checkConnections(benchmarks));
+            props.load(Main.class.getClassLoader().getResourceAsStream("env.properties"));
+            parseQueriesInput();
+
+            List<Benchmark> connected = checkConnections(createBenchmarks());
+            for(Benchmark benchmark : connected) {
+                benchmark.setWorker(index, count);
+            }
+            int separator = address.lastIndexOf(':');
+            String token = System.getenv(Coordinator.TOKEN);
+            new Worker(index, connected).run(
+                    address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1)),
+                    token != null ? token : props.getProperty("distributed.token"));
             System.exit(0);
         } catch(Throwable throwable) {
             logger.log(Level.ERROR, throwable);
             throwable.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private List<Benchmark> createBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        for(String engine : engines.getEngineNames()) {
+            List<QueryPackage> queryPackages = enginePackages.get(engine);
+            if(queryPackages == null) {
+                logger.log(Level.INFO, String.format("No queries to run for %s", engine));
+                continue;
+            }
+            benchmarks.add(engines.create(engine, platformToKeys.get(engine), queryPackages));
+        }
+        return benchmarks;
+    }
+
+    /**
+     * Splits the benchmarks across {@code distributed.workers} local driver processes, or one
+     * process on each of the comma separated {@code distributed.hosts}, started with the
+     * {@code distributed.launcher} command prefix (default {@code ssh {host}}) and the same
+     * class path as this process. Workers connect back on {@code distributed.port} (default any
+     * free port) within {@code distributed.connect.timeout.seconds} (default 120), and get ready
+     * for every run within as long, with the JVM options of {@code distributed.worker.jvm.options}.
+     * Workers on hosts authenticate with the secret {@code distributed.token}, which local workers
+     * are given by the coordinator when it is not set. Runs start on all the workers
+     * {@code distributed.start.delay.ms} (default 1000) after they are all ready, their wall
+     * clocks are assumed to be synchronized.
+     *
+     * @return whether the benchmarks run distributed
+     */
+    private boolean startCoordinator() throws IOException {
+        String hosts = props.getProperty("distributed.hosts", "").trim();
+        int workers = Integer.parseInt(props.getProperty("distributed.workers", "0"));
+        if(hosts.isEmpty() && workers <= 0) {
+            return false;
+        }
+
+        coordinator = new Coordinator(
+                hosts.isEmpty() ? Collections.emptyList() : Arrays.asList(hosts.split("\\s*,\\s*")),
+                props.getProperty("distributed.launcher", "ssh {host}"),
+                workers,
+                props.getProperty("distributed.worker.jvm.options"),
+                Integer.parseInt(props.getProperty("distributed.port", "0")),
+                props.getProperty("distributed.token"),
+                Long.parseLong(props.getProperty("distributed.connect.timeout.seconds", "120")),
+                Long.parseLong(props.getProperty("distributed.start.delay.ms", "1000")));
+        return true;
+    }
+
+    private void stopCoordinator() {
+        if(coordinator != null) {
+            coordinator.close();
+            coordinator = null;
+        }
+    }
+
+    /**
+     * Publishes live metrics of the benchmarks over JMX ({@code metrics.jmx}, default true) and
+     * over HTTP for Prometheus when {@code metrics.http.port} is set, on {@code metrics.http.host}
+     * (default localhost). Rates and percentiles cover the last {@code metrics.window.intervals}
+     * (default 12) intervals of {@code metrics.interval.ms} (default 5000).
+     */
+    private void startMetrics(List<Benchmark> benchmarks) throws IOException {
+        metrics = new MetricsRegistry(
+                Long.parseLong(props.getProperty("metrics.interval.ms", "5000")),
+                Integer.parseInt(props.getProperty("metrics.window.intervals", "12")),
+                Boolean.parseBoolean(props.getProperty("metrics.jmx", "true")));
+        for(Benchmark benchmark : benchmarks) {
+            benchmark.setMetrics(metrics);
+        }
+
+        String port = props.getProperty("metrics.http.port");
+        if(port != null) {
+            metricsServer = new MetricsServer(
+                    metrics,
+                    props.getProperty("metrics.http.host", "localhost"),
+                    Integer.parseInt(port));
+        }
+    }
+
+    private void stopMetrics() {
+        if(metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
+        }
+        if(metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+    }
+
+    /**
+     * Journals the executions to {@code checkpoint.file} (default {@value Checkpoint#DEFAULT_FILE},
+     * in the directory of the query files) unless {@code checkpoint.enabled} is false. The journal
+     * is synced to disk every {@code checkpoint.sync.rows} executions (default 1000) or
+     * {@code checkpoint.sync.interval.ms} (default 1000). With {@code --resume} the executions
+     * already journaled are skipped, otherwise the journal is started over.
+     */
+    private void startCheckpoint(List<Benchmark> benchmarks, boolean resume) throws IOException {
+        if(!Boolean.parseBoolean(props.getProperty("checkpoint.enabled", "true"))) {
+            if(resume) {
+                throw new IllegalArgumentException(RESUME + " requires checkpoint.enabled");
+            }
+            return;
+        }
+
+        Path resources = Paths.get(Main.class.getClassLoader().getResource("").getPath());
+        checkpoint = new Checkpoint(
+                resources.resolve(props.getProperty("checkpoint.file", Checkpoint.DEFAULT_FILE)),
+                resume,
+                Integer.parseInt(props.getProperty("checkpoint.sync.rows", "1000")),
+                Long.parseLong(props.getProperty("checkpoint.sync.interval.ms", "1000")));
+        for(Benchmark benchmark : benchmarks) {
+            benchmark.setCheckpoint(checkpoint);
+        }
+    }
+
+    private void stopCheckpoint() throws IOException {
+        if(checkpoint != null) {
+            checkpoint.close();
+            checkpoint = null;
         }
     }
 
     private List<Benchmark> checkConnections(List<Benchmark> benchmarks) throws Exception {
+        if(Boolean.parseBoolean(props.getProperty("connection.check.parallel"))) {
+            return checkConnectionsInParallel(benchmarks);
+        }
+
         List<Benchmark> results = new ArrayList<>();
         for(Benchmark benchmark : benchmarks) {
             try {
@@ -98,12 +311,143 @@ public class Main {
         return results;
     }
 
-    private void runBenchmarks(List<Benchmark> benchmarks) throws IOException, URISyntaxException {
+    /**
+     * Checks every connection at the same time. Engines that do not answer within
+     * {@code connection.check.timeout.seconds} are skipped, the threads of the hanging
+     * checks are daemons so they do not keep the JVM alive.
+     */
+    private List<Benchmark> checkConnectionsInParallel(List<Benchmark> benchmarks) throws InterruptedException {
+        long timeout = Long.parseLong(props.getProperty("connection.check.timeout.seconds", "60"));
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.max(1, benchmarks.size()),
+                ThreadPools.daemonThreads("connection-check"));
+
+        List<Callable<Benchmark>> checks = new ArrayList<>();
+        for(Benchmark benchmark : benchmarks) {
+            checks.add(() -> {
+                benchmark.checkConnection();
+                return benchmark;
+            });
+        }
+
+        List<Benchmark> results = new ArrayList<>();
+        try {
+            List<Future<Benchmark>> futures = executorService.invokeAll(checks, timeout, TimeUnit.SECONDS);
+            for(int i = 0; i < futures.size(); i++) {
+                Benchmark benchmark = benchmarks.get(i);
+                try {
+                    results.add(futures.get(i).get());
+                    logger.log(Level.INFO, String.format("Checking connection for %s - OK", benchmark.getEngineName()));
+                } catch(CancellationException e) {
+                    logger.log(Level.ERROR, String.format(
+                            "Checking connection for %s - ERROR - no answer after %d seconds",
+                            benchmark.getEngineName(),
+                            timeout));
+                } catch(ExecutionException e) {
+                    logger.log(Level.ERROR, String.format(
+                            "Checking connection for %s - ERROR - %s",
+                            benchmark.getEngineName(),
+                            e.getCause().getMessage()));
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        return results;
+    }
+
+    private void runBenchmarks(List<Benchmark> benchmarks) throws IOException, URISyntaxException, InterruptedException {
+        if(Boolean.parseBoolean(props.getProperty("engines.parallel"))) {
+            runBenchmarksInParallel(benchmarks);
+            return;
+        }
+
         for(Benchmark benchmark : benchmarks) {
             benchmark.runQueries();
         }
     }
 
+    /**
+     * Runs every engine at the same time, each benchmark keeps its own executor pool. A failing
+     * engine is logged and does not stop the others.
+     */
+    private void runBenchmarksInParallel(List<Benchmark> benchmarks) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.max(1, benchmarks.size()),
+                ThreadPools.daemonThreads("engine"));
+
+        List<Callable<Void>> runs = new ArrayList<>();
+        for(Benchmark benchmark : benchmarks) {
+            runs.add(() -> {
+                benchmark.runQueries();
+                return null;
+            });
+        }
+
+        try {
+            List<Future<Void>> futures = executorService.invokeAll(runs);
+            for(int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch(ExecutionException e) {
+                    logger.log(Level.ERROR, String.format(
+                            "Running %s benchmark - ERROR - %s",
+                            benchmarks.get(i).getEngineName(),
+                            e.getCause().getMessage()), e.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+
+    /**
+     * Writes the pivot of the summaries of every run of every engine that ran, with speedups
+     * over the {@code comparison.baseline} run, e.g. {@code bigquery-c8-prepared}, or over the
+     * first run of the {@code comparison.baseline} engine. The first run by default.
+     */
+    private void writeComparison(List<Benchmark> benchmarks) throws IOException {
+        List<SummaryRecorder> summaries = new ArrayList<>();
+        for(Benchmark benchmark : benchmarks) {
+            for(Object run : benchmark.getRunSummaries()) {
+                SummaryRecorder summary = (SummaryRecorder) run;
+                if(summary.getTotal().getExecutions() > 0) {
+                    summaries.add(summary);
+                }
+            }
+        }
+        if(summaries.isEmpty()) {
+            return;
+        }
+
+        String timestamp = new SimpleDateFormat("-YYYY-MM-dd_hh-mm-ss").format(new Date());
+        ComparisonReport report = new ComparisonReport(summaries, props.getProperty("comparison.baseline"));
+        report.write(benchmarks.get(0).createWriter("comparison" + timestamp + ".csv"), Benchmark.DELIMITER);
+    }
+
+    /**
+     * Cross-checks the result checksums of every engine that computed them.
+     */
+    private void writeChecksums(List<Benchmark> benchmarks) throws IOException {
+        List<ChecksumRecorder> checksums = new ArrayList<>();
+        for(Benchmark benchmark : benchmarks) {
+            if(!benchmark.getChecksums().getKeys().isEmpty()) {
+                checksums.add(benchmark.getChecksums());
+            }
+        }
+        if(checksums.isEmpty()) {
+            return;
+        }
+
+        String timestamp = new SimpleDateFormat("-YYYY-MM-dd_hh-mm-ss").format(new Date());
+        int mismatches = new ChecksumReport(checksums).write(
+                benchmarks.get(0).createWriter("checksums" + timestamp + ".csv"),
+                Benchmark.DELIMITER);
+        logger.log(mismatches == 0 ? Level.INFO : Level.WARN, String.format(
+                "Result checksums: %d queries do not match", mismatches));
+    }
+
     private void parseQueriesInput() throws IOException {
         logger.log(Level.INFO, "Parsing input queries");
         String path = Main.class.getClassLoader().getResource("").getPath();
@@ -112,94 +456,38 @@ public class Main {
 
         Files.list(resources)
                 .filter(Files::isRegularFile)
+                .filter(file -> file.getFileName().toString().endsWith(TEXT_EXTENSION))
                 .forEach(file -> {
-                    if(file.getFileName().toString().startsWith(BigQueryBenchmark.ENGINE_NAME)
-                            && file.getFileName().toString().endsWith(TEXT_EXTENSION)) {
-                        bigQueryPackages.add(getQueryPackage(file, BigQueryBenchmark.ENGINE_NAME));
-                    } else if(file.getFileName().toString().startsWith(HiveBenchmark.ENGINE_NAME)
-                            && file.getFileName().toString().endsWith(TEXT_EXTENSION)) {
-                        hiveQueryPackages.add(getQueryPackage(file, HiveBenchmark.ENGINE_NAME));
-                    } else if(file.getFileName().toString().startsWith(ImpalaBenchmark.ENGINE_NAME)
-                            && file.getFileName().toString().endsWith(TEXT_EXTENSION)) {
-                        impalaQueryPackages.add(getQueryPackage(file, ImpalaBenchmark.ENGINE_NAME));
-                    } else if(file.getFileName().toString().startsWith(ExasolBenchmark.ENGINE_NAME)
-                            && file.getFileName().toString().endsWith(TEXT_EXTENSION)) {
-                        exasolQueryPackages.add(getQueryPackage(file, ExasolBenchmark.ENGINE_NAME));
-                    } else if(file.getFileName().toString().startsWith(PrestoBenchmark.ENGINE_NAME)
-                            && file.getFileName().toString().endsWith(TEXT_EXTENSION)) {
-                        prestoQueryPackages.add(getQueryPackage(file, PrestoBenchmark.ENGINE_NAME));
+                    String engine = engines.getEngine(file.getFileName().toString());
+                    if(engine != null) {
+                        enginePackages.computeIfAbsent(engine, key -> new ArrayList<>())
+                                .add(getQueryPackage(file, engine));
                     }
                 });
     }
 
     private QueryPackage getQueryPackage(Path file, String prefix) {
         logger.log(Level.INFO, String.format("Parsing file %s", file.getFileName()));
-        LineIterator it = null;
         try {
-            it = FileUtils.lineIterator(
-                    new File(file.toUri()),
-                    "UTF-8"
-            );
-
-            List<String> keys = new ArrayList<>();
-            List<QueryUnit> queryUnits = new ArrayList<>();
-
             String baseName = FilenameUtils.getBaseName(file.getFileName().toString());
-            String noPrefix = baseName.substring(prefix.length() + 1);
-            String description = noPrefix.substring(0, noPrefix.length());
+            String description = baseName.substring(prefix.length() + 1);
 
-            while(it.hasNext()) {
-                String line = it.next();
-
-                //Skip comments
-                if(!line.startsWith("#")) {
-                    String[] columns = line.split("\\|");
-
-                    if(columns.length < 3) {
-                        continue;
-                    }
-
-                    // Headers line
-                    if("id".equals(columns[0])) {
-                        if(platformToKeys.containsKey(prefix)) {
-                            continue;
-                        }
-
-                        for(int i = 3; i < columns.length; i++) {
-                            keys.add(columns[i]);
-                        }
-
-                        platformToKeys.put(prefix, keys);
-                        continue;
-                    }
-
-                    String id = columns[0];
-                    String query = columns[1];
-                    int count = isNumeric(columns[2]) ? Integer.valueOf(columns[2]) : 1;
-
-                    List<String> values = new ArrayList<>();
-                    for(int i = 3; i < columns.length; i++) {
-                        values.add(columns[i]);
-                    }
-
-                    queryUnits.add(new QueryUnit(id, prefix, description, query, count, values));
+            // Headers line, the query units themselves are streamed when the benchmark runs
+            if(!platformToKeys.containsKey(prefix)) {
+                List<String> keys = QueryFileReader.readHeader(file);
+                if(keys != null) {
+                    platformToKeys.put(prefix, keys);
                 }
             }
 
-            return new QueryPackage(prefix, description, queryUnits);
+            return new QueryPackage(prefix, description, file);
         } catch (Throwable e) {
             logger.log(Level.ERROR, String.format("Error parsing file %s", file));
             throw new RuntimeException(e);
-        } finally {
-            LineIterator.closeQuietly(it);
         }
     }
 
     private void cleanup() {
         logger.log(Level.INFO, "Finished analytics");
     }
-
-    private boolean isNumeric(String s) {
-        return s.matches("[-+]?\\d*\\.?\\d+");
-    }
 }
@@ -0,0 +1,198 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import com.google.demo.analytics.util.ThreadPools;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Closed loop scheduler that simulates {@code concurrency} users without a thread per user.
+ * Every user runs the executions of a query unit back to back, like a thread of
+ * {@link ClosedLoopScheduler}, but completions are handled by a small, fixed pool of carrier
+ * threads. Executors backed by an asynchronous API (BigQuery, simulated) hold no thread while
+ * their query runs. Blocking executors (JDBC) run on virtual threads when the runtime supports
+ * them (Java 21+). Before that, a JDBC query still holds a platform thread while it runs, from a
+ * pool of at most {@code blockingThreads}. With fewer blocking threads than users, JDBC
+ * executions wait in line for a thread, and that wait is not part of their latency.
+ *
+ * <p>Results are handed to a single handler thread, so the carriers never block on the output
+ * or the checkpoint. The time between the completion of an execution and the moment a carrier
+ * thread picks it up is recorded as the scheduling lag of the driver, see
+ * {@link #getSchedulingLag()}.
+ */
+public class AsyncScheduler<T extends QueryUnitResult> implements Scheduler<T> {
+
+    private Logger logger = LogManager.getLogger();
+
+    private int concurrency;
+    private int carrierThreads;
+    private int blockingThreads;
+
+    private Histogram schedulingLag = new ConcurrentHistogram(3);
+
+    /**
+     * @param blockingThreads the maximum number of platform threads running blocking executions,
+     *                        when the runtime has no virtual threads
+     */
+    public AsyncScheduler(int concurrency, int carrierThreads, int blockingThreads) {
+        this.concurrency = concurrency;
+        this.carrierThreads = carrierThreads;
+        this.blockingThreads = blockingThreads;
+    }
+
+    @Override
+    public void run(Iterator<Executor<T>> executors, ResultHandler<T> handler)
+            throws InterruptedException, ExecutionException {
+        ExecutorService carriers = Executors.newFixedThreadPool(carrierThreads, ThreadPools.daemonThreads("carrier"));
+        ExecutorService blocking = ThreadPools.newBlockingExecutor("blocking", blockingThreads);
+        ExecutorService handlers = Executors.newSingleThreadExecutor(ThreadPools.daemonThreads("result-handler"));
+        logger.log(Level.INFO, String.format(
+                "Running %d users on %d carrier threads, blocking executions on %s",
+                concurrency,
+                carrierThreads,
+                ThreadPools.supportsVirtualThreads()
+                        ? "virtual threads"
+                        : String.format("at most %d platform threads", blockingThreads)));
+
+        Run run = new Run(executors, handler, carriers, blocking, handlers, new CountDownLatch(concurrency));
+        try {
+            for(int i = 0; i < concurrency; i++) {
+                User user = new User();
+                long requested = System.nanoTime();
+                carriers.execute(() -> run.next(user, requested));
+            }
+            run.done.await();
+        } finally {
+            carriers.shutdown();
+            blocking.shutdown();
+            // Every result is handled before the run returns
+            handlers.shutdown();
+            handlers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        if(run.failure.get() != null) {
+            throw new ExecutionException(run.failure.get());
+        }
+
+        logger.log(Level.INFO, String.format(
+                "Driver scheduling lag: p50 %s ms, p99 %s ms, max %s ms",
+                StopWatch.toMillis(schedulingLag.getValueAtPercentile(50)),
+                StopWatch.toMillis(schedulingLag.getValueAtPercentile(99)),
+                StopWatch.toMillis(schedulingLag.getMaxValue())));
+    }
+
+    @Override
+    public Histogram getSchedulingLag() {
+        return schedulingLag;
+    }
+
+    private class User {
+        private Executor<T> executor;
+        private int measured;
+    }
+
+    private class Run {
+
+        private final Iterator<Executor<T>> pending;
+        private final ResultHandler<T> handler;
+        private final ExecutorService carriers;
+        private final ExecutorService blocking;
+        private final ExecutorService handlers;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Run(Iterator<Executor<T>> pending,
+            ResultHandler<T> handler,
+            ExecutorService carriers,
+            ExecutorService blocking,
+            ExecutorService handlers,
+            CountDownLatch done) {
+            this.pending = pending;
+            this.handler = handler;
+            this.carriers = carriers;
+            this.blocking = blocking;
+            this.handlers = handlers;
+            this.done = done;
+        }
+
+        /**
+         * Starts the next execution of a user, on a carrier thread.
+         */
+        void next(User user, long requested) {
+            schedulingLag.recordValue(Math.max(System.nanoTime() - requested, 0));
+
+            if(user.executor == null || user.measured >= user.executor.getQueryUnit().getCount()) {
+                user.executor = failure.get() == null ? poll() : null;
+                user.measured = 0;
+                if(user.executor == null) {
+                    done.countDown();
+                    return;
+                }
+            }
+
+            user.executor.executeAsync(blocking).whenComplete((result, e) -> {
+                long completed = System.nanoTime();
+                carriers.execute(() -> complete(user, result, e, completed));
+            });
+        }
+
+        private Executor<T> poll() {
+            synchronized (pending) {
+                return pending.hasNext() ? pending.next() : null;
+            }
+        }
+
+        private void complete(User user, T result, Throwable e, long completed) {
+            if(e != null) {
+                failure.compareAndSet(null, e);
+                user.executor = null;
+            } else {
+                handlers.execute(() -> handle(result));
+                if(!result.isWarmup()) {
+                    user.measured++;
+                }
+            }
+            next(user, completed);
+        }
+
+        /**
+         * Hands a result to the handler, on the handler thread. A failing handler stops the
+         * users once their current execution completes.
+         */
+        private void handle(T result) {
+            try {
+                handler.handle(result);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+}
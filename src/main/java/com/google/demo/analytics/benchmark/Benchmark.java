@@ -16,28 +16,65 @@
 
 package com.google.demo.analytics.benchmark;
 
+import com.google.common.collect.Iterators;
+import com.google.demo.analytics.checkpoint.Checkpoint;
+import com.google.demo.analytics.distributed.Coordinator;
+import com.google.demo.analytics.executor.ErrorClassifier;
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.executor.MeteredExecutor;
+import com.google.demo.analytics.executor.ProfilingExecutor;
+import com.google.demo.analytics.executor.QueryWatchdog;
+import com.google.demo.analytics.executor.RetryingExecutor;
+import com.google.demo.analytics.executor.WarmupExecutor;
+import com.google.demo.analytics.metrics.MetricsRegistry;
 import com.google.demo.analytics.model.QueryPackage;
 import com.google.demo.analytics.model.QueryUnit;
 import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.stats.ChecksumRecorder;
+import com.google.demo.analytics.stats.DriverOverhead;
+import com.google.demo.analytics.stats.LatencyRecorder;
+import com.google.demo.analytics.stats.RunStatistics;
+import com.google.demo.analytics.stats.Summary;
+import com.google.demo.analytics.stats.SummaryRecorder;
+import com.google.demo.analytics.template.ParameterGenerator;
+import com.google.demo.analytics.template.QueryTemplate;
+import com.google.demo.analytics.util.ShuffleIterator;
+import com.google.demo.analytics.util.StopWatch;
+import com.google.demo.analytics.util.ThreadPools;
+import com.google.demo.analytics.write.AsyncWriter;
 import com.google.demo.analytics.write.DefaultWriter;
 import com.google.demo.analytics.write.HDFSWriter;
 import com.google.demo.analytics.write.Writer;
-import edu.emory.mathcs.backport.java.util.Collections;
+import org.HdrHistogram.Histogram;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 public abstract class Benchmark<T extends QueryUnitResult> {
 
@@ -45,77 +82,744 @@ public abstract class Benchmark<T extends QueryUnitResult> {
 
     public static final String DELIMITER = "|";
 
+    public static final String LOAD_MODE_CLOSED = "closed";
+    public static final String LOAD_MODE_OPEN = "open";
+    public static final String LOAD_MODE_ASYNC = "async";
+
+    public static final String WARMUP_MODE_NONE = "none";
+    public static final String WARMUP_MODE_FIXED = "fixed";
+    public static final String WARMUP_MODE_AUTO = "auto";
+
+    public static final String OUTPUT_SINK_LOCAL = "local";
+    public static final String OUTPUT_SINK_HDFS = "hdfs";
+
+    public static final String QUERY_MODE_PREPARED = "prepared";
+    public static final String QUERY_MODE_LITERAL = "literal";
+    public static final String QUERY_MODE_COMPARE = "compare";
+
     private int threads = 1;
+    private int outputQueueCapacity = 10000;
+    private int outputFlushRows = 1000;
+    private long outputFlushIntervalMs = 1000;
+    private int shuffleWindow = 10000;
+    private String outputSink = OUTPUT_SINK_LOCAL;
     private String hdfsHost;
     private String hdfsPath;
+    private long hdfsRollBytes = 128L * 1024 * 1024;
+    private long hdfsRollIntervalMs = 0;
+    private long hdfsHflushIntervalMs = 1000;
     private Properties props;
 
     private List<String> keys;
     private List<QueryPackage> queryPackages;
 
+    private SimpleDateFormat timeFormat = new SimpleDateFormat("YYYY-MM-dd_hh-mm-ss-SSS");
+    private LatencyRecorder latencies;
+    private SummaryRecorder summary;
+    private List<SummaryRecorder> runSummaries = new CopyOnWriteArrayList<>();
+    private ChecksumRecorder checksums;
+    private MetricsRegistry metrics;
+    private Checkpoint checkpoint;
+    private QueryWatchdog watchdog;
+    private ErrorClassifier errorClassifier;
+    private ScheduledThreadPoolExecutor retryTimer;
+    private Coordinator coordinator;
+    private int worker = 0;
+    private int workers = 1;
+    private boolean warmedUp;
+
+    private volatile String queryMode = QUERY_MODE_PREPARED;
+    private Map<List<String>, QueryTemplate> templates = new ConcurrentHashMap<>();
+
     public Benchmark(List<String> keys, List<QueryPackage> queryPackages) {
         this.keys = keys;
         this.queryPackages = queryPackages;
+        this.latencies = new LatencyRecorder(getEngineName());
+        this.summary = new SummaryRecorder(getEngineName());
+        this.checksums = new ChecksumRecorder(getEngineName());
         parseInput();
     }
 
-    protected abstract Callable<List<T>> getExecutor(QueryUnit queryUnit, Properties props);
-    protected abstract void writeToOutput(List<T> results, Writer writer) throws IOException;
+    protected abstract Executor<T> getExecutor(QueryUnit queryUnit, Properties props);
+    protected abstract List<String> getHeaders();
+    protected abstract List<String> getValues(T result);
     public abstract String getEngineName();
     protected abstract QueryUnit getCheckConnectionQuery(Properties props);
 
+    /**
+     * Called before the timed phase of {@link #runQueries()} so engines can pay one-off costs
+     * (driver loading, connection handshakes) outside of the measurements.
+     */
+    protected void warmUp(Properties props) throws Exception {}
+
+    /**
+     * Called once all the queries of {@link #runQueries()} have finished.
+     */
+    protected void tearDown() {}
+
     public void runQueries() throws IOException, URISyntaxException {
         if(queryPackages.isEmpty()) {
             logger.log(Level.INFO, String.format("Not queries to run for %s", getEngineName()));
             return;
         }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        if(coordinator == null) {
+            try {
+                warmUp(props);
+            } catch (Exception e) {
+                throw new RuntimeException(String.format("Error warming up %s", getEngineName()), e);
+            }
+        }
 
-        List<Callable<List<T>>> callables = new ArrayList<>();
+        String timestamp = new SimpleDateFormat("-YYYY-MM-dd_hh-mm-ss").format(new Date()).toString();
 
-        logger.log(Level.INFO, String.format("Running %s benchmark", getEngineName()));
+        try {
+            String mode = getEngineProperty("query.mode", QUERY_MODE_PREPARED);
+            if(QUERY_MODE_COMPARE.equals(mode)) {
+                Writer compare = createWriter(getEngineName() + timestamp + "-compare.csv");
+                writeStatisticsHeaders(compare, "mode");
+                for(String queryMode : Arrays.asList(QUERY_MODE_PREPARED, QUERY_MODE_LITERAL)) {
+                    if(isCompleted(queryMode)) {
+                        continue;
+                    }
+                    logger.log(Level.INFO, String.format("Running %s with %s queries", getEngineName(), queryMode));
+                    this.queryMode = queryMode;
+                    writeStatistics(compare, queryMode, run(timestamp, queryMode, getScheduler(queryMode, 0)));
+                    compare.flush();
+                }
+                compare.close();
+            } else if(QUERY_MODE_PREPARED.equals(mode) || QUERY_MODE_LITERAL.equals(mode)) {
+                this.queryMode = mode;
+                runLevels(timestamp);
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown query mode %s for %s", mode, getEngineName()));
+            }
+        } finally {
+            tearDown();
+            closeWatchdog();
+            closeRetryTimer();
+        }
 
-        for(QueryPackage queryPackage : queryPackages) {
-            for(QueryUnit queryUnit : queryPackage.getQueryUnits()) {
-                callables.add(getExecutor(queryUnit, props));
+        for(String key : checksums.getInconsistentKeys()) {
+            logger.log(Level.WARN, String.format(
+                    "%s returned different results across executions of %s: %s",
+                    getEngineName(),
+                    key,
+                    checksums.getChecksums(key)));
+        }
+
+        logger.log(Level.INFO, String.format("Finished %s benchmark", getEngineName()));
+    }
+
+    /**
+     * Runs the levels of a sweep. Every worker of a distributed run runs at least one thread, so
+     * levels below the number of workers run with one thread per worker and are labeled so.
+     */
+    private void runLevels(String timestamp) throws IOException {
+        Set<Integer> levels = new LinkedHashSet<>();
+        for(int level : getSweepLevels()) {
+            if(coordinator != null && level < coordinator.getWorkers()) {
+                logger.log(Level.WARN, String.format(
+                        "Running level %d of %s with %d threads, one per worker",
+                        level,
+                        getEngineName(),
+                        coordinator.getWorkers()));
+                level = coordinator.getWorkers();
+            }
+            levels.add(level);
+        }
+        if(levels.isEmpty()) {
+            if(!isCompleted("")) {
+                run(timestamp, "", getScheduler("", 0));
             }
+            return;
         }
 
-        //Shuffle the QueryUnits
-        Collections.shuffle(callables);
+        Writer sweep = createWriter(getEngineName() + timestamp + "-sweep.csv");
+        writeStatisticsHeaders(sweep, "concurrency");
+        for(int level : levels) {
+            if(isCompleted("c" + level)) {
+                continue;
+            }
+            logger.log(Level.INFO, String.format("Running %s with %d threads", getEngineName(), level));
+            writeStatistics(sweep, String.valueOf(level), run(timestamp, "c" + level, getScheduler("c" + level, level)));
+            sweep.flush();
+        }
+        sweep.close();
+    }
+
+    /**
+     * @param label the concurrency level or query mode of a run of a sweep or a comparison, or
+     *              an empty string for a single run
+     */
+    private RunStatistics run(String timestamp, String label, Scheduler<T> scheduler) throws IOException {
+        String suffix = label.isEmpty() ? timestamp : timestamp + "-" + label;
+        String fileName = getEngineName() + suffix + ".csv";
+
+        Writer writer = createWriter(fileName);
+        writer.writeHeader(String.join(DELIMITER, getOutputHeaders()));
+        AsyncWriter<T> output = new AsyncWriter<>(
+                writer, this::formatOutput, outputQueueCapacity, outputFlushRows, outputFlushIntervalMs);
+
+        // The workers of a distributed run read the query files themselves
+        Iterator<Executor<T>> executors = coordinator != null
+                ? Collections.emptyIterator()
+                : new ShuffleIterator<>(getExecutors(label), shuffleWindow, getShuffleRandom(label));
+
+        logger.log(Level.INFO, String.format("Running %s benchmark", getEngineName()));
 
-        List<T> results = new ArrayList<>();
+        LatencyRecorder runLatencies = new LatencyRecorder(getEngineName());
+        LatencyRecorder warmupLatencies = new LatencyRecorder(getEngineName());
+        SummaryRecorder runSummary = new SummaryRecorder(getEngineName(), getRunName(label));
+        DriverOverhead driverOverhead = new DriverOverhead(
+                Double.parseDouble(getEngineProperty("driver.overhead.warn.fraction", "0.1")));
+        RunStatistics statistics = new RunStatistics(runSummary.getTotal());
         try {
-            executorService.invokeAll(callables)
-                    .stream()
-                    .map(future -> {
-                        try {
-                            return future.get();
-                        }
-                        catch (Exception e) {
-                            throw new IllegalStateException(e);
-                        }
-                    })
-                    .forEach(i -> results.addAll(i));
+            scheduler.prepare();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        statistics.start();
+        try {
+            scheduler.run(executors, result -> {
+                if(result.isWarmup()) {
+                    warmupLatencies.record(result);
+                } else {
+                    runLatencies.record(result);
+                }
+                runSummary.record(result);
+                checksums.record(result);
+                driverOverhead.record(result);
+                output.submit(result);
+                if(checkpoint != null) {
+                    checkpoint.record(getEngineName(), label, result);
+                }
+            });
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            statistics.stop();
+            output.close();
+        }
 
-        String timestamp = new SimpleDateFormat("-YYYY-MM-dd_hh-mm-ss").format(new Date()).toString();
-        String fileName = getEngineName() + timestamp + ".csv";
+        latencies.merge(runLatencies);
+        summary.merge(runSummary);
+        runSummaries.add(runSummary);
+        writeSummary(runSummary, scheduler, createWriter(getEngineName() + suffix + "-summary.csv"));
+        writeLatencies(
+                runLatencies,
+                scheduler.getSchedulingLag(),
+                driverOverhead.getHistogram(),
+                createWriter(getEngineName() + suffix + "-latency.csv"));
+        if(!warmupLatencies.getQueryIds().isEmpty()) {
+            writeLatencies(
+                    warmupLatencies,
+                    null,
+                    null,
+                    createWriter(getEngineName() + suffix + "-warmup-latency.csv"));
+        }
+        warnDriverBound(label, driverOverhead);
+        return statistics;
+    }
 
-        writeToOutput(results, new DefaultWriter(fileName));
-//            writeToOutput(queryPackage, results, new HDFSWriter(hdfsHost, hdfsPath + fileName));
+    /**
+     * Returns the name of a run, its concurrency level if any and its query mode, e.g.
+     * {@code c8-prepared}.
+     */
+    private String getRunName(String label) {
+        if(label.isEmpty() || label.equals(queryMode)) {
+            return queryMode;
+        }
+        return label + "-" + queryMode;
+    }
 
-        executorService.shutdown();
+    /**
+     * Warns about the executions of a run whose latency was mostly spent in the driver, above
+     * the {@code driver.overhead.warn.fraction} of their latency (default 0.1). Their latency is
+     * likely to move with the load of the driver machine rather than with the engine.
+     */
+    private void warnDriverBound(String label, DriverOverhead driverOverhead) {
+        Map<String, Long> driverBound = driverOverhead.getDriverBound();
+        if(driverBound.isEmpty()) {
+            return;
+        }
+        long total = driverBound.values().stream().mapToLong(Long::longValue).sum();
+        logger.log(Level.WARN, String.format(
+                "%d of %d executions of the %s%s run spent more than %.1f%% of their latency in the driver (CPU or GC), up to %.1f%%, consider more driver processes or fewer threads. Driver-bound executions per query: %s",
+                total,
+                driverOverhead.getExecutions(),
+                getEngineName(),
+                label.isEmpty() ? "" : " " + label,
+                driverOverhead.getMaxFraction() * 100,
+                driverOverhead.getMaxObserved() * 100,
+                driverBound));
+    }
 
-        logger.log(Level.INFO, String.format("Finished %s benchmark", getEngineName()));
+    /**
+     * Returns the executors of every query unit of the packages, created as the query units
+     * are read. When resuming, the executions already in the checkpoint are left out, and on
+     * the worker of a distributed run only its share of the executions is kept.
+     */
+    private Iterator<Executor<T>> getExecutors(String label) {
+        return Iterators.concat(Iterators.transform(
+                queryPackages.iterator(),
+                queryPackage -> Iterators.transform(
+                        Iterators.filter(
+                                Iterators.transform(
+                                        share(queryPackage.getQueryUnits().iterator()),
+                                        unit -> resume(unit, label)),
+                                Objects::nonNull),
+                        queryUnit -> withMetrics(
+                                withWarmup(
+                                        withRetries(withProfiling(getExecutor(queryUnit, props), queryPackage), queryPackage),
+                                        queryPackage),
+                                queryPackage))));
+    }
+
+    /**
+     * Returns the share of the executions of every query unit that this worker runs, or null for
+     * the query units it has no execution of. The executions are dealt round robin across the
+     * workers, starting from a different worker for every query unit, so that query units of a
+     * single execution are spread too.
+     */
+    private Iterator<QueryUnit> share(Iterator<QueryUnit> queryUnits) {
+        if(workers == 1) {
+            return queryUnits;
+        }
+        int[] ordinal = {0};
+        return Iterators.transform(queryUnits, queryUnit -> {
+            int first = ordinal[0]++ % workers;
+            int count = queryUnit.getCount() / workers
+                    + (Math.floorMod(worker - first, workers) < queryUnit.getCount() % workers ? 1 : 0);
+            if(count == 0) {
+                return null;
+            } else if(count == queryUnit.getCount()) {
+                return queryUnit;
+            }
+            return new QueryUnit(
+                    queryUnit.getId(),
+                    queryUnit.getPlatform(),
+                    queryUnit.getDescription(),
+                    queryUnit.getQuery(),
+                    count,
+                    queryUnit.getValues());
+        });
+    }
+
+    /**
+     * Returns the query unit with the executions that remain to run, or null if the checkpoint
+     * already has all of them.
+     */
+    private QueryUnit resume(QueryUnit queryUnit, String label) {
+        if(queryUnit == null || checkpoint == null || !checkpoint.isResumed()) {
+            return queryUnit;
+        }
+        int skipped = checkpoint.skip(
+                getEngineName(), label, queryUnit.getDescription(), queryUnit.getId(), queryUnit.getCount());
+        if(skipped == 0) {
+            return queryUnit;
+        } else if(skipped == queryUnit.getCount()) {
+            return null;
+        }
+        return new QueryUnit(
+                queryUnit.getId(),
+                queryUnit.getPlatform(),
+                queryUnit.getDescription(),
+                queryUnit.getQuery(),
+                queryUnit.getCount() - skipped,
+                queryUnit.getValues());
+    }
+
+    /**
+     * Returns whether the checkpoint being resumed has every execution of a run, in which case
+     * the run is skipped altogether. Reads the query files once more to count the executions.
+     */
+    private boolean isCompleted(String label) {
+        if(checkpoint == null || !checkpoint.isResumed()) {
+            return false;
+        }
+        Map<List<String>, Integer> counts = new HashMap<>();
+        for(QueryPackage queryPackage : queryPackages) {
+            for(QueryUnit queryUnit : queryPackage.getQueryUnits()) {
+                counts.merge(Arrays.asList(queryPackage.getDescription(), queryUnit.getId()), queryUnit.getCount(), Integer::sum);
+            }
+        }
+        for(Map.Entry<List<String>, Integer> count : counts.entrySet()) {
+            String description = count.getKey().get(0);
+            String id = count.getKey().get(1);
+            if(checkpoint.getCompleted(getEngineName(), label, description, id) < count.getValue()) {
+                return false;
+            }
+        }
+        logger.log(Level.INFO, String.format(
+                "Skipping the %s%s run, already completed", getEngineName(), label.isEmpty() ? "" : " " + label));
+        return true;
+    }
+
+    /**
+     * Reports the executions of a query unit to the live metrics of the engine and of its
+     * package, if live metrics are enabled.
+     */
+    protected Executor<T> withMetrics(Executor<T> executor, QueryPackage queryPackage) {
+        if(metrics == null) {
+            return executor;
+        }
+        return new MeteredExecutor<>(
+                executor,
+                metrics.getEngineMetrics(getEngineName()),
+                metrics.getPackageMetrics(getEngineName(), queryPackage.getDescription()));
+    }
+
+    /**
+     * Records the CPU time and allocations of the driver and the GC overlapping every attempt of
+     * the executions of a query unit, unless {@code driver.profile} is false for its package.
+     */
+    protected Executor<T> withProfiling(Executor<T> executor, QueryPackage queryPackage) {
+        if(!Boolean.parseBoolean(getPackageProperty(queryPackage, "driver.profile", "true"))) {
+            return executor;
+        }
+        return new ProfilingExecutor<>(executor);
+    }
+
+    /**
+     * Retries the executions of a query unit that fail with a transient error, see
+     * {@link #getErrorClassifier()}, up to {@code retry.max.attempts} attempts (default 1, no
+     * retry). Retries back off randomly up to {@code retry.backoff.initial.ms} (default 100),
+     * doubled after every attempt up to {@code retry.backoff.max.ms} (default 10000). Every
+     * property is read per package like the warmup properties.
+     */
+    protected Executor<T> withRetries(Executor<T> executor, QueryPackage queryPackage) {
+        int maxAttempts = Integer.parseInt(getPackageProperty(queryPackage, "retry.max.attempts", "1"));
+        if(maxAttempts <= 1) {
+            return executor;
+        }
+        return new RetryingExecutor<>(
+                executor,
+                getErrorClassifier(),
+                maxAttempts,
+                Long.parseLong(getPackageProperty(queryPackage, "retry.backoff.initial.ms", "100")),
+                Long.parseLong(getPackageProperty(queryPackage, "retry.backoff.max.ms", "10000")),
+                getRetryTimer());
+    }
+
+    /**
+     * Returns the classifier of the errors to retry. Errors are transient when the driver says
+     * so or when their message matches the {@code retry.transient.errors} pattern, see
+     * {@link ErrorClassifier#DEFAULT_TRANSIENT_ERRORS}.
+     */
+    protected synchronized ErrorClassifier getErrorClassifier() {
+        if(errorClassifier == null) {
+            errorClassifier = new ErrorClassifier(
+                    getEngineProperty("retry.transient.errors", ErrorClassifier.DEFAULT_TRANSIENT_ERRORS));
+        }
+        return errorClassifier;
+    }
+
+    private synchronized ScheduledExecutorService getRetryTimer() {
+        if(retryTimer == null) {
+            retryTimer = new ScheduledThreadPoolExecutor(1, ThreadPools.daemonThreads("retry"));
+        }
+        return retryTimer;
+    }
+
+    private synchronized void closeRetryTimer() {
+        if(retryTimer != null) {
+            retryTimer.shutdownNow();
+            retryTimer = null;
+        }
+    }
+
+    /**
+     * Wraps the executor of a query unit according to the warmup properties of its package.
+     * {@code warmup.mode} is {@code none} (default), {@code fixed} to tag the first
+     * {@code warmup.iterations} executions, or {@code auto} to tag executions until the
+     * coefficient of variation of the last {@code warmup.window} latencies is below
+     * {@code warmup.cv.threshold}, for at most {@code warmup.max.iterations} executions.
+     */
+    protected Executor<T> withWarmup(Executor<T> executor, QueryPackage queryPackage) {
+        String mode = getPackageProperty(queryPackage, "warmup.mode", WARMUP_MODE_NONE);
+        if(WARMUP_MODE_NONE.equals(mode)) {
+            return executor;
+        } else if(WARMUP_MODE_FIXED.equals(mode)) {
+            return WarmupExecutor.fixed(
+                    executor,
+                    Integer.parseInt(getPackageProperty(queryPackage, "warmup.iterations", "1")));
+        } else if(WARMUP_MODE_AUTO.equals(mode)) {
+            return WarmupExecutor.steadyState(
+                    executor,
+                    Double.parseDouble(getPackageProperty(queryPackage, "warmup.cv.threshold", "0.1")),
+                    Integer.parseInt(getPackageProperty(queryPackage, "warmup.window", "5")),
+                    Integer.parseInt(getPackageProperty(queryPackage, "warmup.max.iterations", "50")));
+        }
+        throw new IllegalArgumentException(String.format(
+                "Unknown warmup mode %s for %s %s", mode, getEngineName(), queryPackage.getDescription()));
+    }
+
+    /**
+     * Returns the concurrency levels of the {@code concurrent.threads.sweep} property, e.g.
+     * {@code 1,2,4,8,16}, or an empty list to run once with {@code concurrent.threads}.
+     */
+    protected List<Integer> getSweepLevels() {
+        List<Integer> levels = new ArrayList<>();
+        String sweep = getEngineProperty("concurrent.threads.sweep", null);
+        if(sweep != null) {
+            for(String level : sweep.split(",")) {
+                if(!level.trim().isEmpty()) {
+                    levels.add(Integer.parseInt(level.trim()));
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the highest number of threads any run of this benchmark will use.
+     */
+    protected int getMaxConcurrency() {
+        int max = LOAD_MODE_ASYNC.equals(getEngineProperty("load.mode", LOAD_MODE_CLOSED))
+                ? Integer.parseInt(getEngineProperty("load.concurrency", String.valueOf(threads)))
+                : threads;
+        for(int level : getSweepLevels()) {
+            max = Math.max(max, level);
+        }
+        return share(max);
+    }
+
+    /**
+     * Returns the share of a number of threads that this worker runs. Every worker runs at least
+     * one thread, so a run with fewer threads than workers runs with one thread per worker.
+     */
+    private int share(int threads) {
+        return Math.max(1, threads / workers + (worker < threads % workers ? 1 : 0));
+    }
+
+    /**
+     * Returns the scheduler selected by the {@code load.mode} property: {@code closed} (default)
+     * runs the query units on {@code concurrent.threads} threads, {@code open} fires executions
+     * at {@code load.rate} per second with {@code load.arrival} {@code constant} or {@code poisson}
+     * inter-arrival times, and at most {@code load.max.inflight} executions in flight, {@code async}
+     * simulates {@code load.concurrency} users on {@code load.carrier.threads} threads, blocking
+     * executions running on virtual threads or at most {@code load.blocking.threads} (default
+     * {@code load.concurrency}) platform threads. Every
+     * property can be overridden per engine with the {@code <engine>.} prefix. Query units are
+     * shuffled within windows of {@code load.shuffle.window} (default 10000) units, see
+     * {@link #getShuffleRandom(String)}.
+     *
+     * <p>The workers of a distributed run split the threads, the rate and the executions in
+     * flight between them, and so the concurrency levels of a sweep.
+     *
+     * @param label the concurrency level or query mode of a run of a sweep or a comparison, or
+     *              an empty string for a single run
+     * @param level the concurrency level of a run of a sweep, or 0 to use the load properties
+     */
+    protected Scheduler<T> getScheduler(String label, int level) {
+        if(coordinator != null) {
+            return new DistributedScheduler<>(coordinator, getEngineName(), label, queryMode, level);
+        } else if(level > 0) {
+            return new ClosedLoopScheduler<>(share(level));
+        }
+
+        String mode = getEngineProperty("load.mode", LOAD_MODE_CLOSED);
+        if(LOAD_MODE_CLOSED.equals(mode)) {
+            return new ClosedLoopScheduler<>(share(threads));
+        } else if(LOAD_MODE_OPEN.equals(mode)) {
+            String rate = getEngineProperty("load.rate", null);
+            if(rate == null) {
+                throw new IllegalArgumentException(String.format("load.rate is required in open loop mode for %s", getEngineName()));
+            }
+            OpenLoopScheduler.Arrival arrival = OpenLoopScheduler.Arrival.valueOf(
+                    getEngineProperty("load.arrival", "constant").toUpperCase());
+            int maxInFlight = share(Integer.parseInt(getEngineProperty("load.max.inflight", "1000")));
+            return new OpenLoopScheduler<>(
+                    Double.parseDouble(rate) / workers, arrival, maxInFlight, shuffleWindow, getShuffleRandom(label));
+        } else if(LOAD_MODE_ASYNC.equals(mode)) {
+            int concurrency = share(Integer.parseInt(getEngineProperty("load.concurrency", String.valueOf(threads))));
+            int carrierThreads = Integer.parseInt(getEngineProperty(
+                    "load.carrier.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            int blockingThreads = share(Integer.parseInt(getEngineProperty(
+                    "load.blocking.threads",
+                    getEngineProperty("load.concurrency", String.valueOf(threads)))));
+            return new AsyncScheduler<>(concurrency, carrierThreads, blockingThreads);
+        }
+        throw new IllegalArgumentException(String.format("Unknown load mode %s for %s", mode, getEngineName()));
+    }
+
+    /**
+     * Returns the generator the query units of a run are shuffled with: seeded by the checkpoint,
+     * so that a resumed run shuffles its executions the same way, or null for an unseeded one
+     * without a checkpoint.
+     */
+    private Random getShuffleRandom(String label) {
+        return checkpoint != null ? new Random(Objects.hash(checkpoint.getSeed(), label)) : null;
+    }
+
+    /**
+     * Returns the template of a query unit whose query has {@code ${name}} placeholders, or null
+     * if its query is a literal. The values of a placeholder are generated as specified by the
+     * {@code template.<id>.<name>} property, falling back to {@code template.<name>}, see
+     * {@link ParameterGenerator#fromSpec(String, Path, long)}. Relative files are read from the
+     * directory of the query files. Random values are drawn from a sequence seeded by
+     * {@code template.seed} (default 0), the query id and the placeholder, so that every engine
+     * binds the same values and their result checksums can be compared per set of values.
+     * Workers of a distributed run draw from different sequences.
+     */
+    protected QueryTemplate getTemplate(QueryUnit queryUnit) {
+        List<String> names = QueryTemplate.getPlaceholders(queryUnit.getQuery());
+        if(names.isEmpty()) {
+            return null;
+        }
+
+        // Query units of a package may share an id with different queries
+        List<String> key = Arrays.asList(queryUnit.getDescription(), queryUnit.getId(), queryUnit.getQuery());
+        return templates.computeIfAbsent(key, k -> {
+            Path resources = Paths.get(Benchmark.class.getClassLoader().getResource("").getPath());
+            long seed = Long.parseLong(getEngineProperty("template.seed", "0"));
+            Map<String, ParameterGenerator> generators = new HashMap<>();
+            for(String name : names) {
+                String spec = getEngineProperty(
+                        "template." + queryUnit.getId() + "." + name,
+                        getEngineProperty("template." + name, null));
+                if(spec == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "No values for parameter %s of query %s of %s", name, queryUnit.getId(), getEngineName()));
+                }
+                try {
+                    generators.put(name, ParameterGenerator.fromSpec(
+                            spec, resources, Objects.hash(seed, worker, queryUnit.getId(), name)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return new QueryTemplate(queryUnit.getQuery(), generators);
+        });
+    }
+
+    /**
+     * Returns whether query templates of the current run execute as prepared statements (or
+     * with query parameters) rather than with their values inlined. Set by {@code query.mode}:
+     * {@code prepared} (default), {@code literal}, or {@code compare} to run the workload once
+     * in each mode and write the statistics of both runs side by side.
+     */
+    protected boolean isPrepared() {
+        return QUERY_MODE_PREPARED.equals(queryMode);
+    }
+
+    /**
+     * Returns the significant digits numbers are rounded to in the result checksums, or 0 if
+     * {@code result.checksum} is not set to true. Set {@code result.checksum.digits} (default 12)
+     * low enough for engines to agree on floating point aggregates.
+     */
+    protected int getChecksumDigits() {
+        if(!Boolean.parseBoolean(getEngineProperty("result.checksum", "false"))) {
+            return 0;
+        }
+        return Integer.parseInt(getEngineProperty("result.checksum.digits", "12"));
+    }
+
+    /**
+     * Returns the timeout of a query unit in ms, {@code query.timeout.ms.<id>} falling back to
+     * {@code query.timeout.ms}, both read like {@link #getPackageProperty(QueryPackage, String, String)}.
+     * Queries that run longer are cancelled and recorded with a TIMEOUT status. 0, the default,
+     * lets queries run forever.
+     */
+    protected long getQueryTimeoutMs(QueryUnit queryUnit) {
+        String timeout = getPackageProperty(queryUnit.getDescription(), "query.timeout.ms." + queryUnit.getId(), null);
+        if(timeout == null) {
+            timeout = getPackageProperty(queryUnit.getDescription(), "query.timeout.ms", "0");
+        }
+        return Long.parseLong(timeout);
+    }
+
+    /**
+     * Returns the watchdog that enforces the query timeouts of the current run.
+     */
+    protected synchronized QueryWatchdog getWatchdog() {
+        if(watchdog == null) {
+            watchdog = new QueryWatchdog();
+        }
+        return watchdog;
+    }
+
+    private synchronized void closeWatchdog() {
+        if(watchdog != null) {
+            watchdog.close();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Returns the value of {@code <engine>.<key>}, falling back to {@code <key>} and then to the default.
+     */
+    protected String getEngineProperty(String key, String defaultValue) {
+        return props.getProperty(getEngineName() + "." + key, props.getProperty(key, defaultValue));
+    }
+
+    /**
+     * Returns the value of {@code <engine>.<package description>.<key>}, falling back to
+     * {@link #getEngineProperty(String, String)}.
+     */
+    protected String getPackageProperty(QueryPackage queryPackage, String key, String defaultValue) {
+        return getPackageProperty(queryPackage.getDescription(), key, defaultValue);
+    }
+
+    private String getPackageProperty(String description, String key, String defaultValue) {
+        String value = props.getProperty(getEngineName() + "." + description + "." + key);
+        return value != null ? value : getEngineProperty(key, defaultValue);
+    }
+
+    /**
+     * Runs the benchmark on the workers of a coordinator, rather than locally.
+     */
+    public void setCoordinator(Coordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Makes this benchmark run the share of worker {@code index} out of {@code count} of every run.
+     */
+    public void setWorker(int index, int count) {
+        this.worker = index;
+        this.workers = count;
+    }
+
+    /**
+     * Warms the engine up before the first run of a worker.
+     */
+    public synchronized void prepareWorker() throws Exception {
+        if(!warmedUp) {
+            warmUp(props);
+            warmedUp = true;
+        }
+    }
+
+    /**
+     * Runs the share of this worker of a run of a distributed benchmark.
+     *
+     * @param level the total concurrency of a run of a sweep, or 0 to use the load properties
+     * @return the scheduling lag of the run, or null if the scheduler does not measure it
+     */
+    public Histogram runWorker(String label, String queryMode, int level, Scheduler.ResultHandler<QueryUnitResult> handler)
+            throws IOException, InterruptedException, ExecutionException {
+        this.queryMode = queryMode;
+        Scheduler<T> scheduler = getScheduler(label, level);
+        scheduler.prepare();
+        scheduler.run(new ShuffleIterator<>(getExecutors(label), shuffleWindow, getShuffleRandom(label)), handler::handle);
+        return scheduler.getSchedulingLag();
+    }
+
+    /**
+     * Releases the engine once a worker is stopped.
+     */
+    public void finishWorker() {
+        tearDown();
+        closeWatchdog();
+        closeRetryTimer();
     }
 
     public void checkConnection() throws Exception {
         for (T result : getExecutor(getCheckConnectionQuery(props), props).call()) {
-            if (QueryUnitResult.Status.FAIL.equals(result.getStatus())) {
+            if (!QueryUnitResult.Status.SUCCESS.equals(result.getStatus())) {
                 throw new RuntimeException(
                         String.format(
                                 "Error checking the connection for %s. Error: %s",
@@ -125,6 +829,199 @@ public abstract class Benchmark<T extends QueryUnitResult> {
         }
     }
 
+    /**
+     * Returns a writer for an output file, in the directory of the query files when
+     * {@code output.sink} is {@code local} (default), or in {@code hdfs.output.directory} on
+     * {@code hdfs.host} when it is {@code hdfs}. HDFS files roll every {@code hdfs.roll.bytes}
+     * (default 128 MB) or {@code hdfs.roll.interval.ms} (default never) and are hflushed at most
+     * every {@code hdfs.hflush.interval.ms} (default 1000).
+     */
+    public Writer createWriter(String fileName) throws IOException {
+        if(OUTPUT_SINK_LOCAL.equals(outputSink)) {
+            return new DefaultWriter(fileName);
+        } else if(OUTPUT_SINK_HDFS.equals(outputSink)) {
+            try {
+                return new HDFSWriter(
+                        hdfsHost,
+                        new org.apache.hadoop.fs.Path(hdfsPath, fileName).toString(),
+                        hdfsRollBytes,
+                        hdfsRollIntervalMs,
+                        hdfsHflushIntervalMs);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(String.format("Invalid hdfs.host %s", hdfsHost), e);
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown output sink %s", outputSink));
+    }
+
+    private List<String> getOutputHeaders() {
+        List<String> headers = new ArrayList<>(getHeaders());
+        if(getKeys() != null) {
+            headers.addAll(getKeys());
+        }
+        return headers;
+    }
+
+    private String formatOutput(T result) {
+        List<String> values = new ArrayList<>(getValues(result));
+        values.addAll(result.getQueryUnit().getValues());
+        return String.join(DELIMITER, values);
+    }
+
+    private void writeStatisticsHeaders(Writer writer, String run) throws IOException {
+        writer.writeHeader(String.join(DELIMITER, Arrays.asList(
+                "engine",
+                run,
+                "executions",
+                "failures",
+                "error_rate",
+                "elapsed_s",
+                "throughput_qps",
+                "mean_ms",
+                "p50_ms",
+                "p90_ms",
+                "p99_ms",
+                "p99.9_ms",
+                "max_ms")));
+    }
+
+    private void writeStatistics(Writer writer, String run, RunStatistics statistics) throws IOException {
+        Histogram histogram = statistics.getLatencies();
+        writer.write(Arrays.asList(String.join(DELIMITER, Arrays.asList(
+                getEngineName(),
+                run,
+                String.valueOf(statistics.getExecutions()),
+                String.valueOf(statistics.getFailures()),
+                String.format("%.4f", statistics.getErrorRate()),
+                String.format("%.3f", statistics.getElapsed() / 1_000_000_000.0),
+                String.format("%.3f", statistics.getThroughput()),
+                StopWatch.toMillis((long) histogram.getMean()),
+                StopWatch.toMillis(histogram.getValueAtPercentile(50)),
+                StopWatch.toMillis(histogram.getValueAtPercentile(90)),
+                StopWatch.toMillis(histogram.getValueAtPercentile(99)),
+                StopWatch.toMillis(histogram.getValueAtPercentile(99.9)),
+                StopWatch.toMillis(histogram.getMaxValue())))));
+    }
+
+    /**
+     * Writes the summary of a run per query id, per package and for the whole run. The run row
+     * also has the target and achieved start rates of schedulers that target a rate.
+     */
+    private void writeSummary(SummaryRecorder recorder, Scheduler<T> scheduler, Writer writer) throws IOException {
+        writer.writeHeader(String.join(DELIMITER, Arrays.asList(
+                "engine",
+                "level",
+                "key",
+                "executions",
+                "failures",
+                "error_rate",
+                "throughput_qps",
+                "min_ms",
+                "mean_ms",
+                "p50_ms",
+                "p90_ms",
+                "p95_ms",
+                "p99_ms",
+                "max_ms",
+                "stddev_ms",
+                "target_qps",
+                "achieved_qps")));
+
+        for(String id : recorder.getQueryIds()) {
+            writeSummary(writer, "query", id, recorder.getQuery(id), "", "");
+        }
+        for(String description : recorder.getPackages()) {
+            writeSummary(writer, "package", description, recorder.getPackage(description), "", "");
+        }
+        boolean rated = scheduler.getTargetRate() > 0;
+        writeSummary(
+                writer,
+                "run",
+                LatencyRecorder.ALL,
+                recorder.getTotal(),
+                rated ? String.format("%.3f", scheduler.getTargetRate()) : "",
+                rated ? String.format("%.3f", scheduler.getAchievedRate()) : "");
+
+        writer.close();
+    }
+
+    private void writeSummary(Writer writer, String level, String key, Summary summary, String targetRate, String achievedRate)
+            throws IOException {
+        Histogram histogram = summary.getLatencies();
+        boolean empty = histogram.getTotalCount() == 0;
+        writer.write(Arrays.asList(String.join(DELIMITER, Arrays.asList(
+                getEngineName(),
+                level,
+                key,
+                String.valueOf(summary.getExecutions()),
+                String.valueOf(summary.getFailures()),
+                String.format("%.4f", summary.getErrorRate()),
+                String.format("%.3f", summary.getThroughput()),
+                empty ? "" : StopWatch.toMillis(histogram.getMinValue()),
+                empty ? "" : StopWatch.toMillis((long) histogram.getMean()),
+                empty ? "" : StopWatch.toMillis(histogram.getValueAtPercentile(50)),
+                empty ? "" : StopWatch.toMillis(histogram.getValueAtPercentile(90)),
+                empty ? "" : StopWatch.toMillis(histogram.getValueAtPercentile(95)),
+                empty ? "" : StopWatch.toMillis(histogram.getValueAtPercentile(99)),
+                empty ? "" : StopWatch.toMillis(histogram.getMaxValue()),
+                empty ? "" : StopWatch.toMillis((long) histogram.getStdDeviation()),
+                targetRate,
+                achievedRate))));
+    }
+
+    private void writeLatencies(LatencyRecorder recorder, Histogram schedulingLag, Histogram driverOverhead, Writer writer)
+            throws IOException {
+        writer.writeHeader(String.join(DELIMITER, Arrays.asList(
+                "engine",
+                "id",
+                "phase",
+                "count",
+                "min_ms",
+                "mean_ms",
+                "p50_ms",
+                "p90_ms",
+                "p99_ms",
+                "p99.9_ms",
+                "max_ms")));
+
+        List<String> ids = new ArrayList<>(recorder.getQueryIds());
+        ids.add(LatencyRecorder.ALL);
+        for(String id : ids) {
+            for(StopWatch.Phase phase : StopWatch.Phase.values()) {
+                writeLatency(writer, id, phase.toString(), recorder.getHistogram(id, phase));
+            }
+            writeLatency(writer, id, "COMPLETE_FROM_INTENDED_START", recorder.getHistogramFromIntendedStart(id));
+            writeLatency(writer, id, "COMPLETE_WITH_RETRIES", recorder.getHistogramWithRetries(id));
+        }
+        if(schedulingLag != null) {
+            writeLatency(writer, "DRIVER", "SCHEDULING_LAG", schedulingLag);
+        }
+        if(driverOverhead != null) {
+            writeLatency(writer, "DRIVER", "CLIENT_OVERHEAD", driverOverhead);
+        }
+
+        writer.close();
+    }
+
+    private void writeLatency(Writer writer, String id, String phase, Histogram histogram) throws IOException {
+        if(histogram.getTotalCount() == 0) {
+            return;
+        }
+
+        writer.write(Arrays.asList(String.join(DELIMITER, Arrays.asList(
+                getEngineName(),
+                id,
+                phase,
+                String.valueOf(histogram.getTotalCount()),
+                StopWatch.toMillis(histogram.getMinValue()),
+                StopWatch.toMillis((long) histogram.getMean()),
+                StopWatch.toMillis(histogram.getValueAtPercentile(50)),
+                StopWatch.toMillis(histogram.getValueAtPercentile(90)),
+                StopWatch.toMillis(histogram.getValueAtPercentile(99)),
+                StopWatch.toMillis(histogram.getValueAtPercentile(99.9)),
+                StopWatch.toMillis(histogram.getMaxValue())))));
+    }
+
     private void parseInput() {
         props = new Properties();
         try {
@@ -135,13 +1032,119 @@ public abstract class Benchmark<T extends QueryUnitResult> {
                 this.threads = Integer.parseInt(threads);
             }
 
+            String outputQueueCapacity = props.getProperty("output.queue.capacity");
+            if(outputQueueCapacity != null) {
+                this.outputQueueCapacity = Integer.parseInt(outputQueueCapacity);
+            }
+
+            String outputFlushRows = props.getProperty("output.flush.rows");
+            if(outputFlushRows != null) {
+                this.outputFlushRows = Integer.parseInt(outputFlushRows);
+            }
+
+            String outputFlushIntervalMs = props.getProperty("output.flush.interval.ms");
+            if(outputFlushIntervalMs != null) {
+                this.outputFlushIntervalMs = Long.parseLong(outputFlushIntervalMs);
+            }
+
+            String shuffleWindow = props.getProperty("load.shuffle.window");
+            if(shuffleWindow != null) {
+                this.shuffleWindow = Integer.parseInt(shuffleWindow);
+            }
+
+            outputSink = props.getProperty("output.sink", OUTPUT_SINK_LOCAL);
             hdfsHost = props.getProperty("hdfs.host");
             hdfsPath = props.getProperty("hdfs.output.directory");
+
+            String hdfsRollBytes = props.getProperty("hdfs.roll.bytes");
+            if(hdfsRollBytes != null) {
+                this.hdfsRollBytes = Long.parseLong(hdfsRollBytes);
+            }
+
+            String hdfsRollIntervalMs = props.getProperty("hdfs.roll.interval.ms");
+            if(hdfsRollIntervalMs != null) {
+                this.hdfsRollIntervalMs = Long.parseLong(hdfsRollIntervalMs);
+            }
+
+            String hdfsHflushIntervalMs = props.getProperty("hdfs.hflush.interval.ms");
+            if(hdfsHflushIntervalMs != null) {
+                this.hdfsHflushIntervalMs = Long.parseLong(hdfsHflushIntervalMs);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Formats the latencies of every attempt of a retried execution, separated by semicolons,
+     * or an empty string if it was not retried.
+     */
+    protected String formatAttempts(QueryUnitResult result) {
+        if(result.getPreviousAttempts().isEmpty()) {
+            return "";
+        }
+        List<String> durations = new ArrayList<>();
+        for(QueryUnitResult attempt : result.getPreviousAttempts()) {
+            durations.add(StopWatch.toMillis(attempt.getDuration()));
+        }
+        durations.add(StopWatch.toMillis(result.getDuration()));
+        return String.join(";", durations);
+    }
+
+    /**
+     * Formats a wall clock time (in ms) for the output, or an empty string if it was not set.
+     */
+    protected String formatTime(long millis) {
+        return millis == StopWatch.NOT_SET ? "" : timeFormat.format(new Date(millis));
+    }
+
+    /**
+     * Returns the latency histograms recorded by this benchmark so far.
+     */
+    public LatencyRecorder getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Sets the registry live metrics are reported to while the benchmark runs.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the checkpoint executions are journaled to, and resumed from.
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Returns the result checksums recorded by this benchmark so far.
+     */
+    public ChecksumRecorder getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * Returns the summary of all the runs of this benchmark so far.
+     */
+    public SummaryRecorder getSummary() {
+        return summary;
+    }
+
+    /**
+     * Returns the summary of every run of this benchmark so far, e.g. of every level of a sweep
+     * or of every query mode of a comparison.
+     */
+    public List<SummaryRecorder> getRunSummaries() {
+        return runSummaries;
+    }
+
+    protected int getThreads() {
+        return threads;
+    }
+
     protected List<String> getKeys() {
         return keys;
     }
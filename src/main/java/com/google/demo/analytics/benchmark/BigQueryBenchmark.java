@@ -16,43 +16,114 @@
 
 package com.google.demo.analytics.benchmark;
 
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.demo.analytics.executor.BigQueryErrorClassifier;
 import com.google.demo.analytics.executor.BigQueryExecutor;
+import com.google.demo.analytics.executor.ErrorClassifier;
+import com.google.demo.analytics.executor.BigQueryJobPoller;
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.model.BigQueryStatistics;
 import com.google.demo.analytics.model.BigQueryUnitResult;
 import com.google.demo.analytics.model.QueryPackage;
 import com.google.demo.analytics.model.QueryUnit;
-import com.google.demo.analytics.write.Writer;
+import com.google.demo.analytics.util.StopWatch;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.Callable;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.StandardOpenOption.APPEND;
-import static java.nio.file.StandardOpenOption.CREATE;
 
 public class BigQueryBenchmark extends Benchmark<BigQueryUnitResult> {
 
     public final static String ENGINE_NAME = "bq";
 
+    private BigQueryJobPoller poller;
+    private ErrorClassifier errorClassifier;
+
     public BigQueryBenchmark(List<String> keys, List<QueryPackage> queryPackages) {
         super(keys, queryPackages);
     }
 
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new BigQueryBenchmark(keys, queryPackages);
+        }
+    }
+
     @Override
-    protected Callable<List<BigQueryUnitResult>> getExecutor(QueryUnit queryUnit, Properties props) {
+    protected Executor<BigQueryUnitResult> getExecutor(QueryUnit queryUnit, Properties props) {
         String useStopwatch = props.getProperty("bq.stopwatch");
         String useQueryCache = props.getProperty("bq.query.cache");
-        String projectId = props.getProperty("bq.projectId");
         return new BigQueryExecutor(
                 queryUnit,
+                getPoller(props),
                 Boolean.parseBoolean(useStopwatch),
                 Boolean.parseBoolean(useQueryCache),
-                projectId);
+                getTemplate(queryUnit),
+                isPrepared(),
+                getChecksumDigits(),
+                getQueryTimeoutMs(queryUnit),
+                getWatchdog());
+    }
+
+    @Override
+    protected void warmUp(Properties props) {
+        getPoller(props);
+    }
+
+    @Override
+    protected synchronized void tearDown() {
+        if(poller != null) {
+            poller.close();
+            poller = null;
+        }
+    }
+
+    /**
+     * Returns the poller shared by all the executors of the run, along with its BigQuery client.
+     * Jobs are first polled after {@code bq.poll.initial.ms} (default 10), backing off up to
+     * {@code bq.poll.max.ms} (default 1000), using {@code bq.poll.threads} (default 4) threads.
+     * Polls that fail with a transient error are retried, a job fails after
+     * {@code bq.poll.max.errors} (default 5) of them in a row.
+     */
+    protected synchronized BigQueryJobPoller getPoller(Properties props) {
+        if(poller == null) {
+            poller = new BigQueryJobPoller(
+                    createBigQuery(props),
+                    Long.parseLong(props.getProperty("bq.poll.initial.ms", "10")),
+                    Long.parseLong(props.getProperty("bq.poll.max.ms", "1000")),
+                    Integer.parseInt(props.getProperty("bq.poll.threads", "4")),
+                    getErrorClassifier(),
+                    Integer.parseInt(props.getProperty("bq.poll.max.errors", "5")));
+        }
+        return poller;
+    }
+
+    /**
+     * Returns the client of the project {@code bq.projectId}.
+     */
+    protected BigQuery createBigQuery(Properties props) {
+        String projectId = props.getProperty("bq.projectId");
+        BigQueryOptions options = BigQueryOptions.newBuilder().setProjectId(projectId).build();
+        return new BigQueryOptions.DefaultBigqueryFactory().create(options);
+    }
+
+    @Override
+    protected synchronized ErrorClassifier getErrorClassifier() {
+        if(errorClassifier == null) {
+            errorClassifier = new BigQueryErrorClassifier(
+                    getEngineProperty("retry.transient.errors", ErrorClassifier.DEFAULT_TRANSIENT_ERRORS));
+        }
+        return errorClassifier;
     }
 
     @Override
@@ -71,46 +142,112 @@ public class BigQueryBenchmark extends Benchmark<BigQueryUnitResult> {
     }
 
     @Override
-    protected void writeToOutput(List<BigQueryUnitResult> results, Writer writer)
-            throws IOException {
-        List<String> baseHeaders = new ArrayList<>(Arrays.asList(
+    protected List<String> getHeaders() {
+        return Arrays.asList(
                 "id",
                 "platform",
                 "description",
                 "query",
+                "parameters",
                 "job_id",
                 "status",
+                "warmup",
                 "start_time",
                 "end_time",
                 "duration_ms",
+                "schedule_delay_ms",
+                "submit_ms",
+                "queued_ms",
+                "execution_ms",
+                "bytes_processed",
+                "bytes_billed",
+                "mb_processed_per_sec",
+                "cache_hit",
+                "billing_tier",
+                "stages",
+                "wait_ratio_avg",
+                "read_ratio_avg",
+                "compute_ratio_avg",
+                "write_ratio_avg",
+                "wait_ratio_max",
+                "read_ratio_max",
+                "compute_ratio_max",
+                "write_ratio_max",
+                "rows",
+                "checksum",
+                "attempts",
+                "attempt_durations_ms",
+                "duration_with_retries_ms",
+                "driver_cpu_ms",
+                "driver_allocated_bytes",
+                "driver_gc_overlap_ms",
                 "error_messages"
+        );
+    }
+
+    @Override
+    protected List<String> getValues(BigQueryUnitResult result) {
+        List<String> values = new ArrayList<>(Arrays.asList(
+                result.getQueryUnit().getId(),
+                getEngineName(),
+                result.getQueryUnit().getDescription(),
+                result.getQueryUnit().getQuery(),
+                result.getParameters() == null ? "" : result.getParameters(),
+                result.getJobId(),
+                result.getStatus().toString(),
+                String.valueOf(result.isWarmup()),
+                formatTime(result.getStart()),
+                formatTime(result.getEnd()),
+                StopWatch.toMillis(result.getDuration()),
+                StopWatch.toMillis(result.getScheduleDelay()),
+                StopWatch.toMillis(result.getPhase(StopWatch.Phase.SUBMIT)),
+                StopWatch.toMillis(result.getPhase(StopWatch.Phase.QUEUED))
         ));
+        values.addAll(getStatisticsValues(result.getStatistics()));
+        values.add(result.getRowCount() < 0 ? "" : String.valueOf(result.getRowCount()));
+        values.add(result.getChecksum() == null ? "" : result.getChecksum());
+        values.add(String.valueOf(result.getAttempts()));
+        values.add(formatAttempts(result));
+        values.add(StopWatch.toMillis(result.getDurationWithRetries()));
+        values.add(StopWatch.toMillis(result.getDriverCpuNanos()));
+        values.add(result.getDriverAllocatedBytes() < 0 ? "" : String.valueOf(result.getDriverAllocatedBytes()));
+        values.add(StopWatch.toMillis(result.getDriverGcNanos()));
+        values.add(result.getErrorMessage() == null ? "" : result.getErrorMessage());
+        return values;
+    }
 
-        baseHeaders.addAll(getKeys());
-        String headers = String.join(DELIMITER, baseHeaders);
-
-        writer.write(Arrays.asList(headers));
-
-        for(BigQueryUnitResult result : results) {
-            List<String> baseValues = new ArrayList<>(Arrays.asList(
-                    result.getQueryUnit().getId(),
-                    getEngineName(),
-                    result.getQueryUnit().getDescription(),
-                    result.getQueryUnit().getQuery(),
-                    result.getJobId(),
-                    result.getStatus().toString(),
-                    result.getStart(),
-                    result.getEnd(),
-                    result.getDuration(),
-                    result.getErrorMessage() == null ? "" : result.getErrorMessage()
-            ));
-
-            baseValues.addAll(result.getQueryUnit().getValues());
-            String values = String.join(DELIMITER, baseValues);
-
-            writer.write(Arrays.asList(values));
+    private static List<String> getStatisticsValues(BigQueryStatistics statistics) {
+        if(statistics == null) {
+            return Collections.nCopies(15, "");
         }
 
-        writer.close();
+        String mbPerSecond = "";
+        if(statistics.getTotalBytesProcessed() != null && statistics.getExecutionMs() > 0) {
+            mbPerSecond = String.format("%.3f",
+                    statistics.getTotalBytesProcessed() / (1024.0 * 1024.0) / (statistics.getExecutionMs() / 1000.0));
+        }
+
+        boolean hasStages = statistics.getStages() > 0;
+        return Arrays.asList(
+                statistics.getExecutionMs() < 0 ? "" : String.valueOf(statistics.getExecutionMs()),
+                toString(statistics.getTotalBytesProcessed()),
+                toString(statistics.getTotalBytesBilled()),
+                mbPerSecond,
+                toString(statistics.getCacheHit()),
+                toString(statistics.getBillingTier()),
+                String.valueOf(statistics.getStages()),
+                hasStages ? String.format("%.4f", statistics.getWaitRatioAvg()) : "",
+                hasStages ? String.format("%.4f", statistics.getReadRatioAvg()) : "",
+                hasStages ? String.format("%.4f", statistics.getComputeRatioAvg()) : "",
+                hasStages ? String.format("%.4f", statistics.getWriteRatioAvg()) : "",
+                hasStages ? String.format("%.4f", statistics.getWaitRatioMax()) : "",
+                hasStages ? String.format("%.4f", statistics.getReadRatioMax()) : "",
+                hasStages ? String.format("%.4f", statistics.getComputeRatioMax()) : "",
+                hasStages ? String.format("%.4f", statistics.getWriteRatioMax()) : ""
+        );
+    }
+
+    private static String toString(Object value) {
+        return value == null ? "" : value.toString();
     }
 }
@@ -0,0 +1,80 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.model.QueryUnitResult;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the query units on a fixed pool of threads, each thread taking the next query unit
+ * and running all its executions back to back. A slower engine therefore receives less load. Warmup
+ * executions come on top of the count of the query unit.
+ */
+public class ClosedLoopScheduler<T extends QueryUnitResult> implements Scheduler<T> {
+
+    private int threads;
+
+    public ClosedLoopScheduler(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public void run(Iterator<Executor<T>> executors, ResultHandler<T> handler)
+            throws InterruptedException, ExecutionException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        List<Callable<Void>> callables = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            callables.add(() -> {
+                Executor<T> executor;
+                while((executor = next(executors)) != null) {
+                    int measured = 0;
+                    while(measured < executor.getQueryUnit().getCount()) {
+                        T result = executor.executeOnce();
+                        handler.handle(result);
+                        if(!result.isWarmup()) {
+                            measured++;
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        try {
+            for(Future<Void> future : executorService.invokeAll(callables)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private Executor<T> next(Iterator<Executor<T>> executors) {
+        synchronized (executors) {
+            return executors.hasNext() ? executors.next() : null;
+        }
+    }
+}
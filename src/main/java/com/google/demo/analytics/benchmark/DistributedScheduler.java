@@ -0,0 +1,85 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.distributed.Coordinator;
+import com.google.demo.analytics.distributed.RemoteRun;
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.model.QueryUnitResult;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs the executions on the workers of a {@link Coordinator} rather than locally, each worker
+ * scheduling its share of the query units with its share of the load. The results of all the
+ * workers are handed to the handler on the calling thread, the local executors are not used.
+ */
+public class DistributedScheduler<T extends QueryUnitResult> implements Scheduler<T> {
+
+    private Coordinator coordinator;
+    private String engine;
+    private String label;
+    private String queryMode;
+    private int level;
+    private RemoteRun run;
+
+    /**
+     * @param level the total concurrency of a run of a sweep, or 0 to use the load properties
+     */
+    public DistributedScheduler(Coordinator coordinator, String engine, String label, String queryMode, int level) {
+        this.coordinator = coordinator;
+        this.engine = engine;
+        this.label = label;
+        this.queryMode = queryMode;
+        this.level = level;
+    }
+
+    /**
+     * Waits for every worker to be ready, then for the time they all start at.
+     */
+    @Override
+    public void prepare() throws IOException, InterruptedException {
+        run = coordinator.start(engine, label, queryMode, level);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run(Iterator<Executor<T>> executors, ResultHandler<T> handler)
+            throws InterruptedException, ExecutionException {
+        List<String> errors;
+        try {
+            errors = run.collect(result -> handler.handle((T) result));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        } finally {
+            coordinator.finish(run);
+        }
+        if(!errors.isEmpty()) {
+            throw new ExecutionException(new IllegalStateException(String.join(", ", errors)));
+        }
+    }
+
+    @Override
+    public Histogram getSchedulingLag() {
+        return run == null ? null : run.getSchedulingLag();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.ConnectionProvider;
+import com.google.demo.analytics.model.QueryPackage;
+import com.google.demo.analytics.model.QueryUnit;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the queries on an H2 database embedded in the benchmark, in memory unless
+ * {@code embedded.connection.url} says otherwise, to test the whole pipeline without a cluster.
+ * The SQL script {@code embedded.init.script}, relative to the query files, is run once before
+ * the first queries to create and load the tables.
+ */
+public class EmbeddedBenchmark extends JDBCBenchmark {
+
+    private Logger logger = LogManager.getLogger();
+
+    public final static String ENGINE_NAME = "embedded";
+    private static final String driverName = "org.h2.Driver";
+    private static final String DEFAULT_CONNECTION_URL = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1";
+
+    private boolean initialized = false;
+
+    public EmbeddedBenchmark(List<String> keys, List<QueryPackage> queryPackages) {
+        super(keys, queryPackages);
+    }
+
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new EmbeddedBenchmark(keys, queryPackages);
+        }
+    }
+
+    @Override
+    protected String getDriverName() {
+        return driverName;
+    }
+
+    @Override
+    public String getEngineName() {
+        return ENGINE_NAME;
+    }
+
+    @Override
+    protected String getConnectionUrl(Properties props) {
+        String connectionUrl = super.getConnectionUrl(props);
+        return connectionUrl != null ? connectionUrl : DEFAULT_CONNECTION_URL;
+    }
+
+    @Override
+    protected void warmUp(Properties props) throws Exception {
+        super.warmUp(props);
+
+        String script = props.getProperty("embedded.init.script");
+        if(script == null || initialized) {
+            return;
+        }
+
+        Path resources = Paths.get(EmbeddedBenchmark.class.getClassLoader().getResource("").getPath());
+        Path file = resources.resolve(script);
+        logger.log(Level.INFO, String.format("Initializing the embedded database with %s", file));
+
+        ConnectionProvider connectionProvider = getConnectionProvider(props);
+        Connection cnct = connectionProvider.acquire();
+        try (Statement stmt = cnct.createStatement()) {
+            stmt.execute(String.format("RUNSCRIPT FROM '%s'", file.toString().replace("'", "''")));
+        } finally {
+            connectionProvider.release(cnct);
+        }
+        initialized = true;
+    }
+
+    @Override
+    protected QueryUnit getCheckConnectionQuery(Properties props) {
+        return new QueryUnit(
+                "check",
+                getEngineName(),
+                "check-connection",
+                props.getProperty("embedded.connection.check", "SELECT 1"),
+                1);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.model.QueryPackage;
+
+import java.util.List;
+
+/**
+ * Creates the benchmark of an engine. Factories are discovered with {@link java.util.ServiceLoader},
+ * listed in {@code META-INF/services/com.google.demo.analytics.benchmark.EngineFactory}, so an
+ * engine can be added by putting a jar on the classpath. Factories must be cheap to load: the
+ * benchmark, and the client libraries it uses, are only loaded when an engine has queries to run.
+ */
+public interface EngineFactory {
+
+    /**
+     * Returns the name of the engine, which is the prefix of its query files and of its properties.
+     */
+    String getEngineName();
+
+    Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages);
+}
@@ -0,0 +1,80 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.model.QueryPackage;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The engines available on the classpath, in the order their factories were discovered.
+ */
+public class EngineRegistry {
+
+    private Logger logger = LogManager.getLogger();
+
+    private final Map<String, EngineFactory> factories = new LinkedHashMap<>();
+
+    public EngineRegistry() {
+        this(ServiceLoader.load(EngineFactory.class));
+    }
+
+    public EngineRegistry(Iterable<EngineFactory> factories) {
+        for(EngineFactory factory : factories) {
+            EngineFactory previous = this.factories.putIfAbsent(factory.getEngineName(), factory);
+            if(previous != null) {
+                logger.log(Level.WARN, String.format(
+                        "Engine %s is provided by both %s and %s, using the former",
+                        factory.getEngineName(),
+                        previous.getClass().getName(),
+                        factory.getClass().getName()));
+            }
+        }
+    }
+
+    public List<String> getEngineNames() {
+        return new ArrayList<>(factories.keySet());
+    }
+
+    /**
+     * Returns the engine of a query file, the longest engine name the file name starts with,
+     * or null if it belongs to no engine.
+     */
+    public String getEngine(String fileName) {
+        String engine = null;
+        for(String name : factories.keySet()) {
+            if(fileName.startsWith(name) && (engine == null || name.length() > engine.length())) {
+                engine = name;
+            }
+        }
+        return engine;
+    }
+
+    public Benchmark<?> create(String engine, List<String> keys, List<QueryPackage> queryPackages) {
+        EngineFactory factory = factories.get(engine);
+        if(factory == null) {
+            throw new IllegalArgumentException(String.format("Unknown engine %s", engine));
+        }
+        return factory.create(keys, queryPackages);
+    }
+}
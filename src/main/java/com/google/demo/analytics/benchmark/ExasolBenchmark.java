@@ -15,14 +15,9 @@
 */
 package com.google.demo.analytics.benchmark;
 
-import com.google.demo.analytics.executor.JDBCExecutor;
 import com.google.demo.analytics.model.QueryPackage;
-import com.google.demo.analytics.model.QueryUnit;
-import com.google.demo.analytics.model.QueryUnitResult;
 
 import java.util.List;
-import java.util.Properties;
-import java.util.concurrent.Callable;
 
 public class ExasolBenchmark extends JDBCBenchmark {
 
@@ -33,26 +28,26 @@ public class ExasolBenchmark extends JDBCBenchmark {
         super(keys, queryPackages);
     }
 
-    @Override
-    protected Callable<List<QueryUnitResult>> getExecutor(QueryUnit queryUnit, Properties props) {
-        String user = props.getProperty("exasol.user");
-        String password = props.getProperty("exasol.password") == null ? "" : props.getProperty("exasol.password");
-        String connectionUrl = props.getProperty("exasol.connection.url");
-        return new JDBCExecutor(queryUnit, user, password, connectionUrl, driverName);
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new ExasolBenchmark(keys, queryPackages);
+        }
     }
 
     @Override
-    public String getEngineName() {
-        return ENGINE_NAME;
+    protected String getDriverName() {
+        return driverName;
     }
 
     @Override
-    protected QueryUnit getCheckConnectionQuery(Properties props) {
-        return new QueryUnit(
-                "check",
-                getEngineName(),
-                "check-connection",
-                props.getProperty("exasol.connection.check"),
-                1);
+    public String getEngineName() {
+        return ENGINE_NAME;
     }
 }
@@ -16,16 +16,9 @@
 
 package com.google.demo.analytics.benchmark;
 
-import com.google.demo.analytics.executor.JDBCExecutor;
 import com.google.demo.analytics.model.QueryPackage;
-import com.google.demo.analytics.model.QueryUnit;
-import com.google.demo.analytics.model.QueryUnitResult;
-import com.google.demo.analytics.write.Writer;
 
-import java.io.IOException;
 import java.util.List;
-import java.util.Properties;
-import java.util.concurrent.Callable;
 
 public class HiveBenchmark extends JDBCBenchmark {
 
@@ -36,26 +29,26 @@ public class HiveBenchmark extends JDBCBenchmark {
         super(keys, queryPackages);
     }
 
-    @Override
-    protected Callable<List<QueryUnitResult>> getExecutor(QueryUnit queryUnit, Properties props) {
-        String user = props.getProperty("hive.user");
-        String password = props.getProperty("hive.password") == null ? "" : props.getProperty("hive.password");
-        String connectionUrl = props.getProperty("hive.connection.url");
-        return new JDBCExecutor(queryUnit, user, password, connectionUrl, driverName);
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new HiveBenchmark(keys, queryPackages);
+        }
     }
 
     @Override
-    public String getEngineName() {
-        return ENGINE_NAME;
+    protected String getDriverName() {
+        return driverName;
     }
 
     @Override
-    protected QueryUnit getCheckConnectionQuery(Properties props) {
-        return new QueryUnit(
-                "check",
-                getEngineName(),
-                "check-connection",
-                props.getProperty("hive.connection.check"),
-                1);
+    public String getEngineName() {
+        return ENGINE_NAME;
     }
 }
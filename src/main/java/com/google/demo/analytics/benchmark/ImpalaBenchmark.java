@@ -16,14 +16,9 @@
 
 package com.google.demo.analytics.benchmark;
 
-import com.google.demo.analytics.executor.JDBCExecutor;
 import com.google.demo.analytics.model.QueryPackage;
-import com.google.demo.analytics.model.QueryUnit;
-import com.google.demo.analytics.model.QueryUnitResult;
 
 import java.util.List;
-import java.util.Properties;
-import java.util.concurrent.Callable;
 
 public class ImpalaBenchmark extends JDBCBenchmark {
 
@@ -34,12 +29,22 @@ public class ImpalaBenchmark extends JDBCBenchmark {
         super(keys, queryPackages);
     }
 
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new ImpalaBenchmark(keys, queryPackages);
+        }
+    }
+
     @Override
-    protected Callable<List<QueryUnitResult>> getExecutor(QueryUnit queryUnit, Properties props) {
-        String user = props.getProperty("impala.user");
-        String password = props.getProperty("impala.password") == null ? "" : props.getProperty("impala.password");
-        String connectionUrl = props.getProperty("impala.connection.url");
-        return new JDBCExecutor(queryUnit, user, password, connectionUrl, driverName);
+    protected String getDriverName() {
+        return driverName;
     }
 
     @Override
@@ -47,13 +52,4 @@ public class ImpalaBenchmark extends JDBCBenchmark {
         return ENGINE_NAME;
     }
 
-    @Override
-    protected QueryUnit getCheckConnectionQuery(Properties props) {
-        return new QueryUnit(
-                "check",
-                getEngineName(),
-                "check-connection",
-                props.getProperty("impala.connection.check"),
-                1);
-    }
 }
\ No newline at end of file
@@ -16,68 +16,192 @@
 
 package com.google.demo.analytics.benchmark;
 
-import com.google.demo.analytics.model.BigQueryUnitResult;
+import com.google.demo.analytics.executor.ConnectionProvider;
+import com.google.demo.analytics.executor.DriverConnectionProvider;
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.executor.JDBCConnectionPool;
+import com.google.demo.analytics.executor.JDBCExecutor;
 import com.google.demo.analytics.model.QueryPackage;
 import com.google.demo.analytics.model.QueryUnit;
 import com.google.demo.analytics.model.QueryUnitResult;
-import com.google.demo.analytics.write.Writer;
+import com.google.demo.analytics.util.StopWatch;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.StandardOpenOption.APPEND;
-import static java.nio.file.StandardOpenOption.CREATE;
+import java.util.Properties;
 
 public abstract class JDBCBenchmark extends Benchmark<QueryUnitResult> {
 
+    private Logger logger = LogManager.getLogger();
+
+    public static final String CONNECTION_MODE_FRESH = "fresh";
+    public static final String CONNECTION_MODE_POOLED = "pooled";
+
+    private ConnectionProvider connectionProvider;
+
     public JDBCBenchmark(List<String> keys, List<QueryPackage> queryPackages) {
         super(keys, queryPackages);
     }
 
+    protected abstract String getDriverName();
+
+    @Override
+    protected Executor<QueryUnitResult> getExecutor(QueryUnit queryUnit, Properties props) {
+        String prefix = getEngineName();
+        boolean drain = Boolean.parseBoolean(props.getProperty(prefix + ".fetch.drain"));
+        String fetchSize = props.getProperty(prefix + ".fetch.size");
+        return new JDBCExecutor(
+                queryUnit,
+                getConnectionProvider(props),
+                drain,
+                fetchSize != null ? Integer.parseInt(fetchSize) : 0,
+                getTemplate(queryUnit),
+                isPrepared(),
+                getChecksumDigits(),
+                getQueryTimeoutMs(queryUnit),
+                getWatchdog());
+    }
+
     @Override
-    protected void writeToOutput(List<QueryUnitResult> results, Writer writer)
-            throws IOException {
-        List<String> baseHeaders = new ArrayList<>(Arrays.asList(
+    protected void warmUp(Properties props) throws Exception {
+        getConnectionProvider(props).warmUp();
+    }
+
+    @Override
+    protected synchronized void tearDown() {
+        if(connectionProvider != null) {
+            connectionProvider.close();
+            connectionProvider = null;
+        }
+    }
+
+    /**
+     * Returns the connection provider shared by all the executors of this engine. The
+     * {@code <engine>.connection.mode} property selects between a fresh connection per query
+     * (default) and a pool of {@code <engine>.connection.pool.size} connections, as many as the
+     * benchmark threads by default. Pooled connections a query failed on are only reused if they
+     * pass {@link java.sql.Connection#isValid(int)} within
+     * {@code <engine>.connection.validation.timeout.seconds} (default 5).
+     */
+    protected synchronized ConnectionProvider getConnectionProvider(Properties props) {
+        if(connectionProvider != null) {
+            return connectionProvider;
+        }
+
+        String prefix = getEngineName();
+        String user = props.getProperty(prefix + ".user");
+        String password = props.getProperty(prefix + ".password") == null ? "" : props.getProperty(prefix + ".password");
+        DriverConnectionProvider factory =
+                new DriverConnectionProvider(user, password, getConnectionUrl(props), getDriverName());
+
+        String mode = props.getProperty(prefix + ".connection.mode", CONNECTION_MODE_FRESH);
+        if(CONNECTION_MODE_POOLED.equals(mode)) {
+            String poolSize = props.getProperty(prefix + ".connection.pool.size");
+            int size = poolSize != null ? Integer.parseInt(poolSize) : getMaxConcurrency();
+            logger.log(Level.INFO, String.format("Using a pool of %d connections for %s", size, prefix));
+            int validationTimeout = Integer.parseInt(
+                    props.getProperty(prefix + ".connection.validation.timeout.seconds", "5"));
+            connectionProvider = new JDBCConnectionPool(factory, size, validationTimeout);
+        } else if(CONNECTION_MODE_FRESH.equals(mode)) {
+            connectionProvider = factory;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown connection mode %s for %s", mode, prefix));
+        }
+        return connectionProvider;
+    }
+
+    /**
+     * Runs the query of {@code <engine>.connection.check} to check the connection.
+     */
+    @Override
+    protected QueryUnit getCheckConnectionQuery(Properties props) {
+        return new QueryUnit(
+                "check",
+                getEngineName(),
+                "check-connection",
+                props.getProperty(getEngineName() + ".connection.check"),
+                1);
+    }
+
+    /**
+     * Returns the JDBC URL of the engine, set by {@code <engine>.connection.url}.
+     */
+    protected String getConnectionUrl(Properties props) {
+        return props.getProperty(getEngineName() + ".connection.url");
+    }
+
+    @Override
+    protected List<String> getHeaders() {
+        return Arrays.asList(
                 "id",
                 "platform",
                 "description",
                 "query",
+                "parameters",
                 "status",
+                "warmup",
                 "start_time",
                 "end_time",
                 "duration_ms",
+                "schedule_delay_ms",
+                "connect_ms",
+                "submit_ms",
+                "first_row_ms",
+                "rows",
+                "bytes",
+                "rows_per_sec",
+                "mb_per_sec",
+                "checksum",
+                "attempts",
+                "attempt_durations_ms",
+                "duration_with_retries_ms",
+                "driver_cpu_ms",
+                "driver_allocated_bytes",
+                "driver_gc_overlap_ms",
                 "error_messages"
-        ));
-
-        baseHeaders.addAll(getKeys());
-        String headers = String.join(DELIMITER, baseHeaders);
-
-        writer.write(Arrays.asList(headers));
-
-        for(QueryUnitResult result : results) {
-            List<String> baseValues = new ArrayList<>(Arrays.asList(
-                    result.getQueryUnit().getId(),
-                    getEngineName(),
-                    result.getQueryUnit().getDescription(),
-                    result.getQueryUnit().getQuery(),
-                    result.getStatus().toString(),
-                    result.getStart(),
-                    result.getEnd(),
-                    result.getDuration(),
-                    result.getErrorMessage() == null ? "" : result.getErrorMessage()
-            ));
-
-            baseValues.addAll(result.getQueryUnit().getValues());
-            String values = String.join(DELIMITER, baseValues);
-
-            writer.write(Arrays.asList(values));
-        }
+        );
+    }
 
-        writer.close();
+    @Override
+    protected List<String> getValues(QueryUnitResult result) {
+        return Arrays.asList(
+                result.getQueryUnit().getId(),
+                getEngineName(),
+                result.getQueryUnit().getDescription(),
+                result.getQueryUnit().getQuery(),
+                result.getParameters() == null ? "" : result.getParameters(),
+                result.getStatus().toString(),
+                String.valueOf(result.isWarmup()),
+                formatTime(result.getStart()),
+                formatTime(result.getEnd()),
+                StopWatch.toMillis(result.getDuration()),
+                StopWatch.toMillis(result.getScheduleDelay()),
+                StopWatch.toMillis(result.getPhase(StopWatch.Phase.CONNECT)),
+                StopWatch.toMillis(result.getPhase(StopWatch.Phase.SUBMIT)),
+                StopWatch.toMillis(result.getPhase(StopWatch.Phase.FIRST_ROW)),
+                result.getRowCount() < 0 ? "" : String.valueOf(result.getRowCount()),
+                result.getByteCount() < 0 ? "" : String.valueOf(result.getByteCount()),
+                perSecond(result, result.getRowCount(), 1),
+                perSecond(result, result.getByteCount(), 1024 * 1024),
+                result.getChecksum() == null ? "" : result.getChecksum(),
+                String.valueOf(result.getAttempts()),
+                formatAttempts(result),
+                StopWatch.toMillis(result.getDurationWithRetries()),
+                StopWatch.toMillis(result.getDriverCpuNanos()),
+                result.getDriverAllocatedBytes() < 0 ? "" : String.valueOf(result.getDriverAllocatedBytes()),
+                StopWatch.toMillis(result.getDriverGcNanos()),
+                result.getErrorMessage() == null ? "" : result.getErrorMessage()
+        );
+    }
+
+    private static String perSecond(QueryUnitResult result, long count, double unit) {
+        long duration = result.getDuration();
+        if(count < 0 || duration <= 0) {
+            return "";
+        }
+        return String.format("%.3f", count / unit / (duration / 1_000_000_000.0));
     }
 }
@@ -0,0 +1,226 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.ShuffleIterator;
+import com.google.demo.analytics.util.ThreadPools;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fires executions at a target rate regardless of how fast the engine answers. Every
+ * execution is tagged with the time it was meant to start, so the latency reported from
+ * that time includes any queueing delay on the driver (coordinated omission correction).
+ * Each query unit runs count measured executions, warmup executions come on top of them as
+ * with the other schedulers.
+ * Executions are interleaved at random within a window of {@code shuffleWindow} executions.
+ *
+ * <p>Blocking executors run on virtual threads when the runtime supports them, on a cached
+ * thread pool otherwise. Executors backed by an asynchronous API (BigQuery) keep their
+ * executions in flight without holding a thread.
+ */
+public class OpenLoopScheduler<T extends QueryUnitResult> implements Scheduler<T> {
+
+    private Logger logger = LogManager.getLogger();
+
+    public enum Arrival {
+        CONSTANT,
+        POISSON
+    }
+
+    private double rate;
+    private Arrival arrival;
+    private int maxInFlight;
+    private int shuffleWindow;
+    private Random shuffleRandom;
+
+    private double achievedRate;
+
+    /**
+     * @param rate target number of executions per second
+     * @param arrival distribution of the time between two executions
+     * @param maxInFlight maximum number of executions running at the same time
+     * @param shuffleWindow number of upcoming executions the next one is picked from at random
+     * @param shuffleRandom the generator the executions are picked with, or null for an unseeded one
+     */
+    public OpenLoopScheduler(double rate, Arrival arrival, int maxInFlight, int shuffleWindow, Random shuffleRandom) {
+        if(rate <= 0) {
+            throw new IllegalArgumentException("Open loop rate must be positive");
+        }
+        this.rate = rate;
+        this.arrival = arrival;
+        this.maxInFlight = maxInFlight;
+        this.shuffleWindow = shuffleWindow;
+        this.shuffleRandom = shuffleRandom;
+    }
+
+    @Override
+    public void run(Iterator<Executor<T>> executors, ResultHandler<T> handler)
+            throws InterruptedException, ExecutionException {
+        Repeater<T> repeater = new Repeater<>(executors);
+        Iterator<Executor<T>> executions = new ShuffleIterator<>(repeater, shuffleWindow, shuffleRandom);
+        long submitted = 0;
+
+        ExecutorService workers = ThreadPools.newBlockingExecutor("open-loop");
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        long intended = start;
+        try {
+            while(executions.hasNext()) {
+                Executor<T> executor = executions.next();
+                if(failure.get() != null) {
+                    break;
+                }
+
+                long wait;
+                while((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                inFlight.acquire();
+
+                long intendedStart = intended;
+                int warmupStarted = executor.getWarmupStarted();
+                CompletableFuture<T> execution = executor.executeAsync(workers);
+                if(executor.getWarmupStarted() > warmupStarted) {
+                    // Executions are only tagged as warmup when they start, this one does not count
+                    repeater.repeat(executor);
+                }
+                execution.whenComplete((result, e) -> {
+                    try {
+                        if(e != null) {
+                            failure.compareAndSet(null, e);
+                            return;
+                        }
+                        result.setIntendedStart(intendedStart);
+                        handler.handle(result);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+
+                submitted++;
+                intended += nextInterval();
+            }
+
+            long elapsed = System.nanoTime() - start;
+            achievedRate = elapsed > 0 ? submitted / (elapsed / 1_000_000_000.0) : 0;
+
+            // Every permit is back once the last execution completed
+            inFlight.acquire(maxInFlight);
+        } finally {
+            workers.shutdown();
+        }
+
+        if(failure.get() != null) {
+            throw new ExecutionException(failure.get());
+        }
+
+        logger.log(Level.INFO, String.format(
+                "Open loop: %d executions, target %.3f/s, achieved %.3f/s",
+                submitted,
+                rate,
+                achievedRate));
+    }
+
+    @Override
+    public double getTargetRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the number of executions started per second during the last run, until the last
+     * one was started. Below the target rate, the driver could not keep up or the executions in
+     * flight reached their limit.
+     */
+    @Override
+    public double getAchievedRate() {
+        return achievedRate;
+    }
+
+    /**
+     * Returns every executor as many times as the count of its query unit, plus once for every
+     * warmup execution it started.
+     */
+    private static class Repeater<T extends QueryUnitResult> implements Iterator<Executor<T>> {
+
+        private final Iterator<Executor<T>> executors;
+        private final Deque<Executor<T>> repeats = new ArrayDeque<>();
+        private Executor<T> current;
+        private int remaining;
+
+        Repeater(Iterator<Executor<T>> executors) {
+            this.executors = executors;
+        }
+
+        /**
+         * Returns {@code executor} once more, in place of one of its executions that did not count.
+         */
+        void repeat(Executor<T> executor) {
+            repeats.addLast(executor);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(!repeats.isEmpty()) {
+                return true;
+            }
+            while(remaining == 0 && executors.hasNext()) {
+                current = executors.next();
+                remaining = current.getQueryUnit().getCount();
+            }
+            return remaining > 0;
+        }
+
+        @Override
+        public Executor<T> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            } else if(!repeats.isEmpty()) {
+                return repeats.removeFirst();
+            }
+            remaining--;
+            return current;
+        }
+    }
+
+    private long nextInterval() {
+        double mean = 1_000_000_000.0 / rate;
+        if(Arrival.POISSON.equals(arrival)) {
+            return (long) (-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * mean);
+        }
+        return (long) mean;
+    }
+}
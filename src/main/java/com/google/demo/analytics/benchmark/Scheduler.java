@@ -0,0 +1,67 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.model.QueryUnitResult;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Decides when the executions of the query units of a benchmark run and hands every
+ * result to a {@link ResultHandler} as soon as it is available. Executors are pulled from
+ * the iterator as they are needed, so the workload is never materialized up front.
+ */
+public interface Scheduler<T extends QueryUnitResult> {
+
+    interface ResultHandler<T> {
+        void handle(T result) throws IOException;
+    }
+
+    /**
+     * Called before the timed phase of a run, for the scheduler to get ready to start executions.
+     */
+    default void prepare() throws IOException, InterruptedException {}
+
+    void run(Iterator<Executor<T>> executors, ResultHandler<T> handler) throws InterruptedException, ExecutionException;
+
+    /**
+     * Returns how late (in ns) the driver itself was in starting executions during the last
+     * run, or null if the scheduler does not measure it.
+     */
+    default Histogram getSchedulingLag() {
+        return null;
+    }
+
+    /**
+     * Returns the number of executions per second the last run was meant to start, or 0 if the
+     * scheduler does not target a rate.
+     */
+    default double getTargetRate() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of executions per second the last run actually started, or 0 if the
+     * scheduler does not target a rate.
+     */
+    default double getAchievedRate() {
+        return 0;
+    }
+}
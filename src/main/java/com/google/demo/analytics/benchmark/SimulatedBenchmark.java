@@ -0,0 +1,177 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.ErrorClassifier;
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.executor.SimulatedExecutor;
+import com.google.demo.analytics.model.QueryPackage;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.simulation.LatencyDistribution;
+import com.google.demo.analytics.simulation.SimulatedEngine;
+import com.google.demo.analytics.util.StopWatch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the queries on a {@link SimulatedEngine} to test the driver and find its maximum
+ * throughput without a cluster. Latencies follow {@code simulated.latency.<id>}, falling back
+ * to {@code simulated.latency} (default {@code fixed:1}), see
+ * {@link LatencyDistribution#fromSpec(String)}. A {@code simulated.failure.rate} fraction of the
+ * executions fail (default 0). Asynchronous executions complete from
+ * {@code simulated.timer.threads} threads (default 2).
+ */
+public class SimulatedBenchmark extends Benchmark<QueryUnitResult> {
+
+    public final static String ENGINE_NAME = "simulated";
+
+    private SimulatedEngine engine;
+    private ErrorClassifier errorClassifier;
+    private Map<String, LatencyDistribution> latencies = new ConcurrentHashMap<>();
+
+    public SimulatedBenchmark(List<String> keys, List<QueryPackage> queryPackages) {
+        super(keys, queryPackages);
+    }
+
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new SimulatedBenchmark(keys, queryPackages);
+        }
+    }
+
+    @Override
+    protected Executor<QueryUnitResult> getExecutor(QueryUnit queryUnit, Properties props) {
+        String spec = getEngineProperty("latency." + queryUnit.getId(), getEngineProperty("latency", "fixed:1"));
+        return new SimulatedExecutor(
+                queryUnit,
+                getEngine(),
+                latencies.computeIfAbsent(spec, LatencyDistribution::fromSpec),
+                Double.parseDouble(getEngineProperty("failure.rate", "0")),
+                getTemplate(queryUnit),
+                getQueryTimeoutMs(queryUnit));
+    }
+
+    /**
+     * There is nothing to connect to, and the check must not hit a simulated failure.
+     */
+    @Override
+    public void checkConnection() {
+        getEngine();
+    }
+
+    @Override
+    protected void warmUp(Properties props) {
+        getEngine();
+    }
+
+    @Override
+    protected synchronized void tearDown() {
+        if(engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+
+    protected synchronized SimulatedEngine getEngine() {
+        if(engine == null) {
+            engine = new SimulatedEngine(Integer.parseInt(getEngineProperty("timer.threads", "2")));
+        }
+        return engine;
+    }
+
+    /**
+     * Simulated failures are transient, unless {@code simulated.retry.transient.errors} says otherwise.
+     */
+    @Override
+    protected synchronized ErrorClassifier getErrorClassifier() {
+        if(errorClassifier == null) {
+            errorClassifier = new ErrorClassifier(
+                    getEngineProperty("retry.transient.errors", Pattern.quote(SimulatedExecutor.FAILURE_MESSAGE)));
+        }
+        return errorClassifier;
+    }
+
+    @Override
+    public String getEngineName() {
+        return ENGINE_NAME;
+    }
+
+    @Override
+    protected QueryUnit getCheckConnectionQuery(Properties props) {
+        return new QueryUnit("check", ENGINE_NAME, "check-connection", "SELECT 1", 1);
+    }
+
+    @Override
+    protected List<String> getHeaders() {
+        return Arrays.asList(
+                "id",
+                "platform",
+                "description",
+                "query",
+                "parameters",
+                "status",
+                "warmup",
+                "start_time",
+                "end_time",
+                "duration_ms",
+                "schedule_delay_ms",
+                "attempts",
+                "attempt_durations_ms",
+                "duration_with_retries_ms",
+                "driver_cpu_ms",
+                "driver_allocated_bytes",
+                "driver_gc_overlap_ms",
+                "error_messages"
+        );
+    }
+
+    @Override
+    protected List<String> getValues(QueryUnitResult result) {
+        return Arrays.asList(
+                result.getQueryUnit().getId(),
+                getEngineName(),
+                result.getQueryUnit().getDescription(),
+                result.getQueryUnit().getQuery(),
+                result.getParameters() == null ? "" : result.getParameters(),
+                result.getStatus().toString(),
+                String.valueOf(result.isWarmup()),
+                formatTime(result.getStart()),
+                formatTime(result.getEnd()),
+                StopWatch.toMillis(result.getDuration()),
+                StopWatch.toMillis(result.getScheduleDelay()),
+                String.valueOf(result.getAttempts()),
+                formatAttempts(result),
+                StopWatch.toMillis(result.getDurationWithRetries()),
+                StopWatch.toMillis(result.getDriverCpuNanos()),
+                result.getDriverAllocatedBytes() < 0 ? "" : String.valueOf(result.getDriverAllocatedBytes()),
+                StopWatch.toMillis(result.getDriverGcNanos()),
+                result.getErrorMessage() == null ? "" : result.getErrorMessage()
+        );
+    }
+}
@@ -0,0 +1,87 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.demo.analytics.model.QueryPackage;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.simulation.LatencyDistribution;
+import com.google.demo.analytics.simulation.SimulatedBigQuery;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the BigQuery executor and job poller against a {@link SimulatedBigQuery}, to load test
+ * the asynchronous job tracking without a project. Jobs take {@code simulated-bq.latency}
+ * (default {@code fixed:1}), API calls {@code simulated-bq.rpc.latency} (default
+ * {@code fixed:0}), see {@link LatencyDistribution#fromSpec(String)}, and a
+ * {@code simulated-bq.failure.rate} fraction of the jobs fail (default 0). Jobs are polled as set
+ * by the {@code bq.poll} properties. Latencies cannot be set per query, jobs only carry their
+ * SQL, and results are not simulated so {@code result.checksum} is ignored.
+ */
+public class SimulatedBigQueryBenchmark extends BigQueryBenchmark {
+
+    public final static String ENGINE_NAME = "simulated-bq";
+
+    public SimulatedBigQueryBenchmark(List<String> keys, List<QueryPackage> queryPackages) {
+        super(keys, queryPackages);
+    }
+
+    public static class Factory implements EngineFactory {
+
+        @Override
+        public String getEngineName() {
+            return ENGINE_NAME;
+        }
+
+        @Override
+        public Benchmark<?> create(List<String> keys, List<QueryPackage> queryPackages) {
+            return new SimulatedBigQueryBenchmark(keys, queryPackages);
+        }
+    }
+
+    @Override
+    protected BigQuery createBigQuery(Properties props) {
+        return new SimulatedBigQuery(
+                LatencyDistribution.fromSpec(getEngineProperty("latency", "fixed:1")),
+                LatencyDistribution.fromSpec(getEngineProperty("rpc.latency", "fixed:0")),
+                Double.parseDouble(getEngineProperty("failure.rate", "0")))
+                .getBigQuery();
+    }
+
+    /**
+     * There is nothing to connect to, and the check must not hit a simulated failure.
+     */
+    @Override
+    public void checkConnection() {
+    }
+
+    @Override
+    protected int getChecksumDigits() {
+        return 0;
+    }
+
+    @Override
+    public String getEngineName() {
+        return ENGINE_NAME;
+    }
+
+    @Override
+    protected QueryUnit getCheckConnectionQuery(Properties props) {
+        return new QueryUnit("check", ENGINE_NAME, "check-connection", "SELECT 1", 1);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.checkpoint;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.write.AsyncWriter;
+import com.google.demo.analytics.write.SyncWriter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Journals every measured execution as it completes, so that an interrupted benchmark can be
+ * resumed where it stopped. The journal is an append-only file with one line per execution:
+ * {@code engine|run|package|id|iteration|status}, the run being the concurrency level or query
+ * mode of the runs of a sweep or a comparison, and empty otherwise. Executions of every status
+ * are journaled, but only the successful ones count as completed: the executions that failed or
+ * timed out, e.g. during an outage of the engine, are run again on resume.
+ *
+ * <p>The journal starts with a {@code seed|value} line, the seed the query units are shuffled
+ * with, so that a resumed run shuffles the executions that remain the same way.
+ *
+ * <p>Lines are synced to disk in batches, at least every {@code syncIntervalMs}, the executions
+ * of the last batch before a crash are run again on resume.
+ */
+public class Checkpoint {
+
+    private Logger logger = LogManager.getLogger();
+
+    public static final String DEFAULT_FILE = "checkpoint.journal";
+    public static final String DELIMITER = "|";
+    private static final String SEED = "seed";
+
+    private final boolean resumed;
+    private final Map<String, Integer> completed = new HashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> skipped = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> iterations = new ConcurrentHashMap<>();
+    private final AsyncWriter<String> journal;
+    private Long seed;
+
+    /**
+     * @param resume whether to skip the executions already in the journal, otherwise the
+     *               journal is started over
+     */
+    public Checkpoint(Path file, boolean resume, int syncRows, long syncIntervalMs) throws IOException {
+        this.resumed = resume;
+        if(resume && Files.exists(file)) {
+            read(file);
+            logger.log(Level.INFO, String.format(
+                    "Resuming from %s, %d executions already completed",
+                    file,
+                    completed.values().stream().mapToInt(Integer::intValue).sum()));
+        } else if(Files.deleteIfExists(file)) {
+            logger.log(Level.INFO, String.format("Starting over checkpoint journal %s", file));
+        }
+        journal = new AsyncWriter<>(new SyncWriter(file), Function.identity(), 10000, syncRows, syncIntervalMs);
+        if(seed == null) {
+            // The journal is new, or the seed was lost with the last batch before a crash
+            seed = ThreadLocalRandom.current().nextLong();
+            journal.submit(String.join(DELIMITER, SEED, String.valueOf(seed)));
+        }
+    }
+
+    private void read(Path file) throws IOException {
+        try(BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] fields = line.split("\\|", -1);
+                if(fields.length == 2 && SEED.equals(fields[0])) {
+                    seed = Long.parseLong(fields[1]);
+                    continue;
+                } else if(fields.length != 6) {
+                    // The last line may have been cut short by a crash
+                    logger.log(Level.WARN, String.format("Skipping invalid checkpoint line: %s", line));
+                    continue;
+                }
+                String key = getKey(fields[0], fields[1], fields[2], fields[3]);
+                // Iterations keep counting from the last journaled one, whatever its status
+                iterations.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+                if(QueryUnitResult.Status.SUCCESS.toString().equals(fields[5])) {
+                    completed.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Returns the seed of the shuffles of the journaled benchmark.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of successful executions of a query id that the journal already holds.
+     */
+    public int getCompleted(String engine, String run, String description, String id) {
+        return completed.getOrDefault(getKey(engine, run, description, id), 0);
+    }
+
+    /**
+     * Takes up to {@code count} executions of a query id off those already completed, for the
+     * query units that share an id to skip them only once.
+     *
+     * @return the number of executions to skip, out of {@code count}
+     */
+    public int skip(String engine, String run, String description, String id, int count) {
+        String key = getKey(engine, run, description, id);
+        int total = completed.getOrDefault(key, 0);
+        if(total == 0) {
+            return 0;
+        }
+
+        AtomicInteger taken = skipped.computeIfAbsent(key, k -> new AtomicInteger());
+        while(true) {
+            int current = taken.get();
+            int skip = Math.min(count, total - current);
+            if(skip <= 0) {
+                return 0;
+            } else if(taken.compareAndSet(current, current + skip)) {
+                return skip;
+            }
+        }
+    }
+
+    /**
+     * Journals a finished execution, whatever its status. Warmup executions are not journaled,
+     * they come on top of the count of their query unit with every scheduler, so a resumed query
+     * unit warms up again before the executions that remain.
+     */
+    public void record(String engine, String run, QueryUnitResult result) throws IOException {
+        if(result.isWarmup()) {
+            return;
+        }
+        String description = result.getQueryUnit().getDescription();
+        String id = result.getQueryUnit().getId();
+        int iteration = iterations
+                .computeIfAbsent(getKey(engine, run, description, id), key -> new AtomicInteger())
+                .incrementAndGet();
+        journal.submit(String.join(DELIMITER,
+                engine,
+                run,
+                description,
+                id,
+                String.valueOf(iteration),
+                result.getStatus().toString()));
+    }
+
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private static String getKey(String engine, String run, String description, String id) {
+        return String.join(DELIMITER, engine, run, description, id);
+    }
+}
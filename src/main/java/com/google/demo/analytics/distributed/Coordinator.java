@@ -0,0 +1,398 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.distributed;
+
+import com.google.demo.analytics.util.ThreadPools;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the workers of a distributed benchmark. Every worker is a driver process, started
+ * locally or through {@code launcher} on a remote host, that connects back to the coordinator
+ * and runs its share of the query units and of the load. The runs start on all the workers at
+ * the same wall clock time, and the results they stream back are moved onto the monotonic clock
+ * of the coordinator so that they can be merged as if a single driver had run them.
+ *
+ * <p>Local workers connect over the loopback interface only. A worker is only accepted with the
+ * token of the coordinator, and the messages of the workers are restricted to the classes of the
+ * {@link Protocol}.
+ */
+public class Coordinator implements AutoCloseable {
+
+    private Logger logger = LogManager.getLogger();
+
+    public static final String WORKER = "--worker";
+    /** The environment variable local workers are given the token of the coordinator in. */
+    public static final String TOKEN = "ANALYTICS_DISTRIBUTED_TOKEN";
+
+    private final ServerSocket server;
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Connection> connections = new ArrayList<>();
+    private final Set<String> engines = new LinkedHashSet<>();
+    private final Map<Integer, RemoteRun> runs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRun = new AtomicInteger();
+    private final ThreadFactory readers = ThreadPools.daemonThreads("coordinator");
+    private final String token;
+    private final long connectTimeoutSeconds;
+    private final long startDelayMs;
+
+    /**
+     * Starts the workers and waits for all of them to connect.
+     *
+     * @param hosts the hosts to start a worker on with {@code launcher}, or an empty list to start
+     *              {@code localWorkers} local processes
+     * @param launcher the command prefix that runs a command on a host, e.g. {@code ssh {host}}
+     * @param jvmOptions the options of the worker JVMs, space separated
+     * @param port the port workers connect to, 0 for any free port
+     * @param token the token workers must connect with, or null to generate one for local workers
+     * @param connectTimeoutSeconds how long (in s) the workers have to connect, and to get ready
+     *                              for a run
+     * @param startDelayMs how long (in ms) after the workers are ready the runs start, enough
+     *                     for the start message to reach them
+     */
+    public Coordinator(List<String> hosts,
+                       String launcher,
+                       int localWorkers,
+                       String jvmOptions,
+                       int port,
+                       String token,
+                       long connectTimeoutSeconds,
+                       long startDelayMs) throws IOException {
+        this(hosts.isEmpty(), port, token, connectTimeoutSeconds, startDelayMs);
+        try {
+            List<List<String>> commands = new ArrayList<>();
+            int count = hosts.isEmpty() ? localWorkers : hosts.size();
+            String address = hosts.isEmpty()
+                    ? InetAddress.getLoopbackAddress().getHostAddress()
+                    : InetAddress.getLocalHost().getHostName();
+            for(int i = 0; i < count; i++) {
+                List<String> command = new ArrayList<>();
+                if(!hosts.isEmpty()) {
+                    for(String part : launcher.trim().split("\\s+")) {
+                        command.add(part.replace("{host}", hosts.get(i)));
+                    }
+                }
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                if(jvmOptions != null && !jvmOptions.trim().isEmpty()) {
+                    command.addAll(Arrays.asList(jvmOptions.trim().split("\\s+")));
+                }
+                command.addAll(Arrays.asList(
+                        "-cp",
+                        System.getProperty("java.class.path"),
+                        "com.google.demo.analytics.Main",
+                        WORKER,
+                        address + ":" + server.getLocalPort(),
+                        String.valueOf(i),
+                        String.valueOf(count)));
+                commands.add(command);
+            }
+
+            for(List<String> command : commands) {
+                logger.log(Level.INFO, String.format("Starting worker: %s", String.join(" ", command)));
+                ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+                if(hosts.isEmpty()) {
+                    builder.environment().put(TOKEN, token);
+                }
+                processes.add(builder.start());
+            }
+            accept(count);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Listens for workers started by the caller, which then waits for them with
+     * {@link #accept(int)}.
+     *
+     * @param local whether the workers run on this host, and so connect over the loopback interface
+     */
+    Coordinator(boolean local, int port, String token, long connectTimeoutSeconds, long startDelayMs) throws IOException {
+        if(token == null || token.isEmpty()) {
+            if(!local) {
+                throw new IllegalArgumentException("Workers on other hosts need a token shared with the coordinator");
+            }
+            byte[] bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+            token = Base64.getEncoder().encodeToString(bytes);
+        }
+        this.token = token;
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.startDelayMs = startDelayMs;
+        this.server = new ServerSocket(port, 50, local ? InetAddress.getLoopbackAddress() : null);
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Waits for {@code count} workers to connect.
+     */
+    void accept(int count) throws IOException {
+        Connection[] accepted = new Connection[count];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(connectTimeoutSeconds);
+        int i = 0;
+        while(i < count) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if(remaining <= 0) {
+                throw new IOException(String.format("Only %d of %d workers connected after %d seconds", i, count, connectTimeoutSeconds));
+            }
+            int timeout = (int) Math.min(remaining, Integer.MAX_VALUE);
+            server.setSoTimeout(timeout);
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                throw new IOException(String.format("Only %d of %d workers connected after %d seconds", i, count, connectTimeoutSeconds), e);
+            }
+
+            Connection connection;
+            Protocol.Hello hello;
+            try {
+                // The first message must come in time too
+                socket.setSoTimeout(timeout);
+                connection = new Connection(socket);
+                hello = (Protocol.Hello) connection.read();
+                socket.setSoTimeout(0);
+            } catch (IOException | ClassCastException e) {
+                logger.log(Level.WARN, String.format("Rejected a connection from %s that is not a worker", socket.getRemoteSocketAddress()), e);
+                socket.close();
+                continue;
+            }
+
+            connection.worker = hello.getWorker();
+            connection.clockOffsetNanos = hello.getClockOffsetNanos();
+            if(hello.getToken() == null
+                    || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), hello.getToken().getBytes(StandardCharsets.UTF_8))) {
+                logger.log(Level.WARN, String.format("Rejected worker %d from %s, wrong token", connection.worker, socket.getRemoteSocketAddress()));
+                connection.close();
+                continue;
+            }
+            if(connection.worker < 0 || connection.worker >= count || accepted[connection.worker] != null) {
+                throw new IOException(String.format("Unexpected worker %d", connection.worker));
+            }
+            accepted[connection.worker] = connection;
+            logger.log(Level.INFO, String.format(
+                    "Worker %d connected from %s with engines %s, clock offset %d ms",
+                    connection.worker,
+                    socket.getRemoteSocketAddress(),
+                    hello.getEngines(),
+                    TimeUnit.NANOSECONDS.toMillis(connection.clockOffsetNanos)));
+
+            if(i == 0) {
+                engines.addAll(hello.getEngines());
+            } else {
+                engines.retainAll(hello.getEngines());
+            }
+            i++;
+        }
+
+        connections.addAll(Arrays.asList(accepted));
+        for(Connection connection : connections) {
+            readers.newThread(() -> read(connection)).start();
+        }
+    }
+
+    /**
+     * Returns the engines every worker could connect to.
+     */
+    public Set<String> getEngines() {
+        return engines;
+    }
+
+    public int getWorkers() {
+        return connections.size();
+    }
+
+    /**
+     * Starts a run on every worker, and returns once they all reached the start time.
+     *
+     * @param level the total concurrency of a run of a sweep, or 0 to use the load properties
+     */
+    public RemoteRun start(String engine, String label, String queryMode, int level) throws IOException, InterruptedException {
+        RemoteRun run = new RemoteRun(nextRun.incrementAndGet(), connections.size());
+        runs.put(run.getId(), run);
+        for(Connection connection : connections) {
+            connection.write(new Protocol.Run(run.getId(), engine, label, queryMode, level));
+        }
+        if(!run.awaitReady(connectTimeoutSeconds, TimeUnit.SECONDS)) {
+            finish(run);
+            throw new IOException(String.format("Not every worker was ready after %d seconds", connectTimeoutSeconds));
+        }
+
+        long startAtMillis = System.currentTimeMillis() + startDelayMs;
+        for(Connection connection : connections) {
+            connection.write(new Protocol.Go(run.getId(), startAtMillis));
+        }
+        long wait = startAtMillis - System.currentTimeMillis();
+        if(wait > 0) {
+            TimeUnit.MILLISECONDS.sleep(wait);
+        }
+        return run;
+    }
+
+    private void read(Connection connection) {
+        try {
+            while(true) {
+                Object message = connection.read();
+                if(message instanceof Protocol.Ready) {
+                    RemoteRun run = runs.get(((Protocol.Ready) message).getRun());
+                    if(run != null) {
+                        run.ready(connection.worker);
+                    }
+                } else if(message instanceof Protocol.Result) {
+                    Protocol.Result result = (Protocol.Result) message;
+                    result.getResult().shiftNanos(connection.clockOffsetNanos);
+                    RemoteRun run = runs.get(result.getRun());
+                    if(run != null) {
+                        run.offer(connection.worker, message);
+                    }
+                } else if(message instanceof Protocol.Done) {
+                    RemoteRun run = runs.get(((Protocol.Done) message).getRun());
+                    if(run != null) {
+                        run.offer(connection.worker, message);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            disconnected(connection, null);
+        } catch (IOException e) {
+            disconnected(connection, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void disconnected(Connection connection, IOException e) {
+        if(connection.closing) {
+            return;
+        }
+        logger.log(Level.ERROR, String.format("Worker %d disconnected", connection.worker), e);
+        for(RemoteRun run : runs.values()) {
+            run.disconnected(connection.worker);
+        }
+    }
+
+    /**
+     * Forgets a run once it has been collected.
+     */
+    public void finish(RemoteRun run) {
+        runs.remove(run.getId());
+        run.finish();
+    }
+
+    /**
+     * Stops the workers and waits for them to exit.
+     */
+    @Override
+    public void close() {
+        for(Connection connection : connections) {
+            connection.closing = true;
+            try {
+                connection.write(new Protocol.Stop());
+            } catch (IOException e) {
+                logger.log(Level.WARN, String.format("Error stopping worker %d", connection.worker), e);
+            }
+        }
+        for(Process process : processes) {
+            try {
+                if(!process.waitFor(60, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+        for(Connection connection : connections) {
+            connection.close();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.log(Level.WARN, "Error closing the coordinator socket", e);
+        }
+    }
+
+    private static class Connection {
+
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+        private int worker;
+        private long clockOffsetNanos;
+        private volatile boolean closing;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.out.flush();
+            this.in = new ProtocolInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        Object read() throws IOException {
+            try {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        synchronized void write(Serializable message) throws IOException {
+            out.writeObject(message);
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+}
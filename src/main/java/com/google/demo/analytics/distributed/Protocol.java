@@ -0,0 +1,221 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.distributed;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import org.HdrHistogram.Histogram;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The messages exchanged by the coordinator and the workers of a distributed benchmark, as
+ * serialized objects over one connection per worker. A worker says {@link Hello} once it is
+ * connected to its engines, with the token the coordinator shares with its workers, then for
+ * every run:
+ * <ol>
+ *     <li>the coordinator sends {@link Run}, the worker answers {@link Ready} once its engine
+ *     is warmed up</li>
+ *     <li>once every worker is ready the coordinator sends {@link Go} with the wall clock time
+ *     at which all of them start</li>
+ *     <li>the worker streams a {@link Result} per execution, then {@link Done}</li>
+ * </ol>
+ * The coordinator ends with {@link Stop}.
+ */
+public final class Protocol {
+
+    private Protocol() {}
+
+    public static class Hello implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int worker;
+        private final List<String> engines;
+        private final String token;
+        private final long wallMillis;
+        private final long nanos;
+
+        /**
+         * @param engines the engines the worker could connect to
+         * @param token the token the coordinator was started with
+         */
+        public Hello(int worker, List<String> engines, String token) {
+            this.worker = worker;
+            this.engines = engines;
+            this.token = token;
+            this.wallMillis = System.currentTimeMillis();
+            this.nanos = System.nanoTime();
+        }
+
+        public int getWorker() {
+            return worker;
+        }
+
+        public List<String> getEngines() {
+            return engines;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * Returns the offset (in ns) from the monotonic clock of the worker to the local one,
+         * assuming both wall clocks are synchronized.
+         */
+        public long getClockOffsetNanos() {
+            long localNanos = System.nanoTime();
+            long localWallMillis = System.currentTimeMillis();
+            return (localNanos - nanos) - (localWallMillis - wallMillis) * 1_000_000L;
+        }
+    }
+
+    public static class Run implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int run;
+        private final String engine;
+        private final String label;
+        private final String queryMode;
+        private final int level;
+
+        /**
+         * @param level the total concurrency of a run of a sweep, or 0 to use the load properties
+         */
+        public Run(int run, String engine, String label, String queryMode, int level) {
+            this.run = run;
+            this.engine = engine;
+            this.label = label;
+            this.queryMode = queryMode;
+            this.level = level;
+        }
+
+        public int getRun() {
+            return run;
+        }
+
+        public String getEngine() {
+            return engine;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getQueryMode() {
+            return queryMode;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    public static class Ready implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int run;
+
+        public Ready(int run) {
+            this.run = run;
+        }
+
+        public int getRun() {
+            return run;
+        }
+    }
+
+    public static class Go implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int run;
+        private final long startAtMillis;
+
+        public Go(int run, long startAtMillis) {
+            this.run = run;
+            this.startAtMillis = startAtMillis;
+        }
+
+        public int getRun() {
+            return run;
+        }
+
+        public long getStartAtMillis() {
+            return startAtMillis;
+        }
+    }
+
+    public static class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int run;
+        private final QueryUnitResult result;
+
+        public Result(int run, QueryUnitResult result) {
+            this.run = run;
+            this.result = result;
+        }
+
+        public int getRun() {
+            return run;
+        }
+
+        public QueryUnitResult getResult() {
+            return result;
+        }
+    }
+
+    public static class Done implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int run;
+        private final Histogram schedulingLag;
+        private final String error;
+
+        /**
+         * @param schedulingLag the scheduling lag of the worker, or null if its scheduler does not measure it
+         * @param error the error the run failed with, or null if it completed
+         */
+        public Done(int run, Histogram schedulingLag, String error) {
+            this.run = run;
+            this.schedulingLag = schedulingLag;
+            this.error = error;
+        }
+
+        public int getRun() {
+            return run;
+        }
+
+        public Histogram getSchedulingLag() {
+            return schedulingLag;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    public static class Stop implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
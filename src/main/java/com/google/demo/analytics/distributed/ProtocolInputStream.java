@@ -0,0 +1,91 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.distributed;
+
+import com.google.demo.analytics.model.BigQueryStatistics;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the {@link Protocol} messages of a connection, refusing any class a message does not
+ * consist of, so that whoever reaches the port cannot have arbitrary classes deserialized.
+ */
+class ProtocolInputStream extends ObjectInputStream {
+
+    private static final Set<String> ALLOWED = new HashSet<>(Arrays.asList(
+            QueryUnit.class.getName(),
+            BigQueryStatistics.class.getName(),
+            "org.HdrHistogram.Histogram",
+            "org.HdrHistogram.AbstractHistogram",
+            "org.HdrHistogram.AbstractHistogramBase",
+            "org.HdrHistogram.EncodableHistogram",
+            "java.lang.Boolean",
+            "java.lang.Double",
+            "java.lang.Enum",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Number",
+            "java.lang.String",
+            "java.util.ArrayList",
+            "java.util.Collections$EmptyList",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList",
+            "java.util.Collections$UnmodifiableCollection"));
+
+    ProtocolInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        String name = desc.getName();
+        while(name.startsWith("[")) {
+            name = name.substring(1);
+        }
+        if(name.length() == 1) {
+            // An array of primitives
+            return super.resolveClass(desc);
+        } else if(name.startsWith("L") && name.endsWith(";")) {
+            name = name.substring(1, name.length() - 1);
+        }
+
+        if(ALLOWED.contains(name) || name.startsWith(Protocol.class.getName() + "$")) {
+            return super.resolveClass(desc);
+        }
+        if(name.startsWith(QueryUnitResult.class.getPackage().getName() + ".")) {
+            // Results of any engine, and their nested types; resolving does not initialize the class
+            Class<?> type = super.resolveClass(desc);
+            Class<?> component = type;
+            while(component.isArray()) {
+                component = component.getComponentType();
+            }
+            Class<?> outer = component.getEnclosingClass() != null ? component.getEnclosingClass() : component;
+            if(QueryUnitResult.class.isAssignableFrom(outer)) {
+                return type;
+            }
+        }
+        throw new InvalidClassException(desc.getName(), "Not part of the distributed benchmark protocol");
+    }
+}
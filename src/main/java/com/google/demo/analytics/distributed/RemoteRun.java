@@ -0,0 +1,142 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.distributed;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A run of a distributed benchmark, as seen by the coordinator. The messages of the workers
+ * are queued as they arrive and taken by the thread that collects the run, so results are
+ * handled on a single thread. When that thread falls behind, the queue fills up and the
+ * workers are slowed down rather than the coordinator running out of memory.
+ */
+public class RemoteRun {
+
+    public interface ResultHandler {
+        void handle(QueryUnitResult result) throws Exception;
+    }
+
+    private static final Object DISCONNECTED = new Object();
+
+    private final int id;
+    private final int workers;
+    private final boolean[] ready;
+    private final CountDownLatch allReady;
+    private final BlockingQueue<Object> messages = new ArrayBlockingQueue<>(10000);
+    private final Histogram schedulingLag = new Histogram(3);
+    private final List<String> errors = new ArrayList<>();
+    private boolean measured;
+    private volatile boolean finished;
+
+    RemoteRun(int id, int workers) {
+        this.id = id;
+        this.workers = workers;
+        this.ready = new boolean[workers];
+        this.allReady = new CountDownLatch(workers);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    synchronized void ready(int worker) {
+        if(!ready[worker]) {
+            ready[worker] = true;
+            allReady.countDown();
+        }
+    }
+
+    /**
+     * @return whether every worker got ready in time
+     */
+    boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return allReady.await(timeout, unit);
+    }
+
+    /**
+     * Queues a message of a worker, blocking while the queue is full unless the run is no longer
+     * collected.
+     */
+    void offer(int worker, Object message) throws InterruptedException {
+        if(message instanceof Protocol.Done) {
+            // A worker that failed before it was ready is done all the same
+            ready(worker);
+        }
+        while(!finished && !messages.offer(message, 100, TimeUnit.MILLISECONDS)) {
+            // Wait for the collecting thread to catch up
+        }
+    }
+
+    /**
+     * Drops the messages that still come for the run, once it failed.
+     */
+    void finish() {
+        finished = true;
+        messages.clear();
+    }
+
+    /**
+     * Fails the run, a worker it was waiting for is gone.
+     */
+    void disconnected(int worker) {
+        ready(worker);
+        messages.offer(DISCONNECTED);
+    }
+
+    /**
+     * Handles the results of every worker until all of them are done.
+     *
+     * @return the errors the workers failed with, empty if the run completed everywhere
+     */
+    public List<String> collect(ResultHandler handler) throws Exception {
+        int done = 0;
+        while(done < workers) {
+            Object message = messages.take();
+            if(message == DISCONNECTED) {
+                errors.add("A worker disconnected");
+                break;
+            } else if(message instanceof Protocol.Result) {
+                handler.handle(((Protocol.Result) message).getResult());
+            } else if(message instanceof Protocol.Done) {
+                Protocol.Done workerDone = (Protocol.Done) message;
+                if(workerDone.getSchedulingLag() != null) {
+                    schedulingLag.add(workerDone.getSchedulingLag());
+                    measured = true;
+                }
+                if(workerDone.getError() != null) {
+                    errors.add(workerDone.getError());
+                }
+                done++;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Returns the scheduling lag of all the workers, or null if their schedulers do not measure it.
+     */
+    public Histogram getSchedulingLag() {
+        return measured ? schedulingLag : null;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.distributed;
+
+import com.google.demo.analytics.benchmark.Benchmark;
+import com.google.demo.analytics.util.ThreadPools;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the share of a distributed benchmark assigned to one driver process, as told by the
+ * {@link Coordinator}, and streams the results back to it.
+ */
+public class Worker {
+
+    private Logger logger = LogManager.getLogger();
+
+    private static final Serializable CLOSED = new Protocol.Stop();
+
+    private final int index;
+    private final Map<String, Benchmark<?>> benchmarks = new LinkedHashMap<>();
+    private final Map<Integer, Protocol.Go> starts = new ConcurrentHashMap<>();
+    private final Map<Integer, CountDownLatch> started = new ConcurrentHashMap<>();
+    private final BlockingQueue<Serializable> outbox = new ArrayBlockingQueue<>(10000);
+    private final ThreadFactory threads = ThreadPools.daemonThreads("worker");
+
+    /**
+     * @param benchmarks the benchmarks of the engines this worker could connect to
+     */
+    public Worker(int index, List<Benchmark> benchmarks) {
+        this.index = index;
+        for(Benchmark<?> benchmark : benchmarks) {
+            this.benchmarks.put(benchmark.getEngineName(), benchmark);
+        }
+    }
+
+    /**
+     * Connects to the coordinator and runs what it says until it stops this worker.
+     *
+     * @param token the token the coordinator was started with
+     */
+    public void run(String host, int port, String token) throws IOException, InterruptedException {
+        try(Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            ObjectInputStream in = new ProtocolInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            Thread sender = threads.newThread(() -> send(out));
+            sender.start();
+            outbox.put(new Protocol.Hello(index, new ArrayList<>(benchmarks.keySet()), token));
+            try {
+                receive(in);
+            } finally {
+                outbox.put(CLOSED);
+                sender.join();
+            }
+        }
+    }
+
+    private void receive(ObjectInputStream in) throws IOException, InterruptedException {
+        while(true) {
+            Object message;
+            try {
+                message = in.readObject();
+            } catch (EOFException e) {
+                logger.log(Level.WARN, String.format("Worker %d lost the coordinator", index));
+                return;
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+
+            if(message instanceof Protocol.Run) {
+                Protocol.Run run = (Protocol.Run) message;
+                started.put(run.getRun(), new CountDownLatch(1));
+                threads.newThread(() -> execute(run)).start();
+            } else if(message instanceof Protocol.Go) {
+                Protocol.Go go = (Protocol.Go) message;
+                starts.put(go.getRun(), go);
+                CountDownLatch latch = started.get(go.getRun());
+                if(latch != null) {
+                    latch.countDown();
+                }
+            } else if(message instanceof Protocol.Stop) {
+                for(Benchmark<?> benchmark : benchmarks.values()) {
+                    benchmark.finishWorker();
+                }
+                return;
+            }
+        }
+    }
+
+    private void execute(Protocol.Run run) {
+        Histogram schedulingLag = null;
+        String error = null;
+        try {
+            Benchmark<?> benchmark = benchmarks.get(run.getEngine());
+            if(benchmark == null) {
+                throw new IllegalArgumentException(String.format("Unknown engine %s", run.getEngine()));
+            }
+            benchmark.prepareWorker();
+            outbox.put(new Protocol.Ready(run.getRun()));
+
+            started.get(run.getRun()).await();
+            long wait = starts.remove(run.getRun()).getStartAtMillis() - System.currentTimeMillis();
+            if(wait > 0) {
+                TimeUnit.MILLISECONDS.sleep(wait);
+            }
+
+            logger.log(Level.INFO, String.format(
+                    "Worker %d running %s%s", index, run.getEngine(), run.getLabel().isEmpty() ? "" : " " + run.getLabel()));
+            schedulingLag = benchmark.runWorker(
+                    run.getLabel(),
+                    run.getQueryMode(),
+                    run.getLevel(),
+                    result -> {
+                        try {
+                            outbox.put(new Protocol.Result(run.getRun(), result));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException(e);
+                        }
+                    });
+        } catch (Throwable e) {
+            logger.log(Level.ERROR, String.format("Worker %d failed running %s", index, run.getEngine()), e);
+            error = String.format("Worker %d: %s", index, e);
+        } finally {
+            started.remove(run.getRun());
+        }
+
+        try {
+            Histogram lag = null;
+            if(schedulingLag != null) {
+                // Sent as a plain histogram, the only kind the coordinator reads
+                lag = new Histogram(schedulingLag);
+                lag.add(schedulingLag);
+            }
+            outbox.put(new Protocol.Done(run.getRun(), lag, error));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued messages, flushing whenever the queue runs empty. The stream is reset
+     * regularly, otherwise it keeps a reference to every result it has written.
+     */
+    private void send(ObjectOutputStream out) {
+        int written = 0;
+        try {
+            while(true) {
+                Serializable message = outbox.poll();
+                if(message == null) {
+                    out.flush();
+                    message = outbox.take();
+                }
+                if(message == CLOSED) {
+                    out.flush();
+                    return;
+                }
+                out.writeObject(message);
+                if(++written % 1000 == 0) {
+                    out.reset();
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.ERROR, String.format("Worker %d lost the coordinator", index), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
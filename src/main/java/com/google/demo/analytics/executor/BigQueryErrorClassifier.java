@@ -0,0 +1,55 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Also treats as transient the errors the BigQuery client deems retryable, and the errors of
+ * API calls or jobs whose reason is a rate limit or a backend error.
+ */
+public class BigQueryErrorClassifier extends ErrorClassifier {
+
+    private static final Set<String> TRANSIENT_REASONS = new HashSet<>(Arrays.asList(
+            "rateLimitExceeded",
+            "backendError",
+            "internalError",
+            "jobBackendError",
+            "jobInternalError"));
+
+    public BigQueryErrorClassifier(String transientErrors) {
+        super(transientErrors);
+    }
+
+    @Override
+    public boolean isTransient(Throwable error) {
+        if(error instanceof BigQueryException) {
+            BigQueryException e = (BigQueryException) error;
+            BigQueryError bigQueryError = e.getError();
+            if(e.isRetryable()
+                    || TRANSIENT_REASONS.contains(e.getReason())
+                    || bigQueryError != null && TRANSIENT_REASONS.contains(bigQueryError.getReason())) {
+                return true;
+            }
+        }
+        return super.isTransient(error);
+    }
+}
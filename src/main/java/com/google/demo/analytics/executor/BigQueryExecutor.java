@@ -16,67 +16,99 @@
 
 package com.google.demo.analytics.executor;
 
-import com.google.cloud.WaitForOption;
 import com.google.cloud.bigquery.*;
-import com.google.common.base.Stopwatch;
+import com.google.demo.analytics.model.BigQueryStatistics;
 import com.google.demo.analytics.model.BigQueryUnitResult;
 import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.template.QueryTemplate;
 import com.google.demo.analytics.util.StopWatch;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class BigQueryExecutor implements Callable<List<BigQueryUnitResult>> {
+public class BigQueryExecutor implements Executor<BigQueryUnitResult> {
 
     private Logger logger = LogManager.getLogger();
 
-    SimpleDateFormat sdf = new SimpleDateFormat("YYYY-MM-dd_hh-mm-ss-SSS");
-
-    private BigQuery bigquery;
+    private BigQueryJobPoller poller;
 
     private QueryUnit queryUnit;
     private boolean useStopWatch;
     private boolean useQueryCache;
-    private String projectId;
+    private QueryTemplate template;
+    private boolean prepared;
+    private int checksumDigits;
+    private long timeoutMs;
+    private QueryWatchdog watchdog;
+
+    public BigQueryExecutor(QueryUnit queryUnit, BigQueryJobPoller poller, boolean useStopWatch, boolean useQueryCache) {
+        this(queryUnit, poller, useStopWatch, useQueryCache, null, false, 0, 0, null);
+    }
 
-    public BigQueryExecutor(QueryUnit queryUnit, boolean useStopWatch, boolean useQueryCache, String projectId) {
+    /**
+     * @param template the template of the query, or null if the query is a literal
+     * @param prepared whether to run the template with query parameters or with inlined values
+     * @param checksumDigits the significant digits of the {@link ResultChecksum} of the results,
+     *                       read once the query completed, or 0 to skip checksums
+     * @param timeoutMs the time after which the watchdog cancels the job, from its submission,
+     *                  or 0 to wait forever
+     */
+    public BigQueryExecutor(QueryUnit queryUnit,
+                            BigQueryJobPoller poller,
+                            boolean useStopWatch,
+                            boolean useQueryCache,
+                            QueryTemplate template,
+                            boolean prepared,
+                            int checksumDigits,
+                            long timeoutMs,
+                            QueryWatchdog watchdog) {
         this.queryUnit = queryUnit;
+        this.poller = poller;
         this.useStopWatch = useStopWatch;
         this.useQueryCache = useQueryCache;
-        this.projectId = projectId;
-//        bigquery = new BigQueryOptions.DefaultBigqueryFactory().create(BigQueryOptions.getDefaultInstance());
+        this.template = template;
+        this.prepared = prepared;
+        this.checksumDigits = checksumDigits;
+        this.timeoutMs = timeoutMs;
+        this.watchdog = watchdog;
+    }
 
-        BigQueryOptions options = BigQueryOptions.newBuilder().setProjectId(projectId).build();
-        bigquery = new BigQueryOptions.DefaultBigqueryFactory().create(options);
+    @Override
+    public QueryUnit getQueryUnit() {
+        return queryUnit;
     }
 
     @Override
-    public List<BigQueryUnitResult> call() throws Exception {
-        List<BigQueryUnitResult> results = new ArrayList<>();
-        for(int i = 0; i < queryUnit.getCount(); i++) {
-            results.add(executeOnce(queryUnit));
-        }
-        return results;
+    public BigQueryUnitResult executeOnce() {
+        return executeAsync().join();
     }
 
-    private BigQueryUnitResult executeOnce(QueryUnit queryUnit) {
-        QueryJobConfiguration queryConfig =
-                QueryJobConfiguration.newBuilder(
-                        queryUnit.getQuery())
-                        // Use standard SQL syntax for queries.
-                        // See: https://cloud.google.com/bigquery/sql-reference/
-                        .setUseQueryCache(useQueryCache)
-                        .setUseLegacySql(false)
-                        .build();
+    /**
+     * Submits the query and returns straight away, the job is then tracked by the shared
+     * {@link BigQueryJobPoller} so no thread is blocked while it runs. The result is handed to
+     * {@code blockingExecutor}, so that the handlers of the caller do not hold up the RPC
+     * threads every job is polled from.
+     */
+    @Override
+    public CompletableFuture<BigQueryUnitResult> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        return executeAsync().thenApplyAsync(result -> result, blockingExecutor);
+    }
+
+    /**
+     * Submits the query and returns straight away, the returned future completes on an RPC
+     * thread of the poller.
+     */
+    public CompletableFuture<BigQueryUnitResult> executeAsync() {
+        Map<String, Object> parameters = template != null ? template.bind() : null;
 
         logger.log(Level.INFO, String.format(
                 "%s - ID = %s - %s",
@@ -84,63 +116,282 @@ public class BigQueryExecutor implements Callable<List<BigQueryUnitResult>> {
                 queryUnit.getId(),
                 queryUnit.getDescription()));
 
-            // Create a job ID so that we can safely retry.
-            JobId jobId = JobId.of(UUID.randomUUID().toString());
-            StopWatch stopWatch = new StopWatch();
+        // Create a job ID so that we can safely retry.
+        JobId jobId = JobId.of(UUID.randomUUID().toString());
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.connected();
 
-            long duration = 0;
+        // The job to report on timeout, once it is known
+        AtomicReference<JobId> running = new AtomicReference<>();
 
-        try {
-            Job queryJob = bigquery.create(JobInfo.newBuilder(queryConfig).setJobId(jobId).build());
-
-            // Wait for the query to complete.
-            queryJob = queryJob.waitFor(
-                    WaitForOption.checkEvery(1, TimeUnit.SECONDS),
-                    WaitForOption.timeout(Long.MAX_VALUE, TimeUnit.SECONDS));
-
-            // Check for errors
-            if (queryJob == null) {
-                error(jobId.getJob(), "Job no longer exists", stopWatch);
-            } else if (queryJob.getStatus().getError() != null) {
-                logger.log(Level.ERROR, String.format(
-                        "%s - ID = %s - %s: %s",
-                        Thread.currentThread().getName(),
-                        queryUnit.getId(),
-                        queryUnit.getDescription(),
-                        queryJob.getStatus().getError().toString()));
-
-                // You can also look at queryJob.getStatus().getExecutionErrors() for all
-                // errors, not just the latest one.
-                error(jobId.getJob(), queryJob.getStatus().getError().toString(), stopWatch);
+        CompletableFuture<JobId> submitted;
+        if (template != null && prepared) {
+            // Query parameters are only supported by the query API, which picks the job ID
+            submitted = poller.query(toQueryRequest(parameters)).thenApply(QueryResponse::getJobId);
+        } else {
+            String query = template != null ? template.toLiteralQuery(parameters, true) : queryUnit.getQuery();
+            running.set(jobId);
+            submitted = poller.create(JobInfo.newBuilder(toJobConfiguration(query)).setJobId(jobId).build())
+                    .thenApply(job -> jobId);
+        }
+
+        String parameterValues = QueryTemplate.format(parameters);
+        CompletableFuture<BigQueryUnitResult> execution = submitted
+                .thenCompose(submittedId -> {
+                    stopWatch.mark(StopWatch.Phase.SUBMIT);
+                    running.set(submittedId);
+                    return poller.waitFor(submittedId).thenApply(queryJob -> {
+                        stopWatch.mark(StopWatch.Phase.COMPLETE);
+                        return toResult(submittedId, queryJob, stopWatch);
+                    });
+                });
+        if (timeoutMs > 0 && watchdog != null) {
+            execution = withTimeout(execution, submitted, running, stopWatch);
+        }
+
+        return execution
+                .thenCompose(result -> checksumDigits > 0 && BigQueryUnitResult.Status.SUCCESS.equals(result.getStatus())
+                        ? poller.call(() -> checksum(result))
+                        : CompletableFuture.completedFuture(result))
+                .exceptionally(e -> {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    logger.log(Level.ERROR, "Error in file: " + queryUnit.getDescription(), cause);
+                    if (stopWatch.get(StopWatch.Phase.COMPLETE) == StopWatch.NOT_SET) {
+                        stopWatch.mark(StopWatch.Phase.COMPLETE);
+                    }
+                    // The query API picks the job ID, which is only known once it was submitted
+                    JobId failedId = running.get();
+                    return error(failedId != null ? failedId.getJob() : "", cause.getMessage(), cause, stopWatch);
+                })
+                .thenApply(result -> {
+                    result.setParameters(parameterValues);
+                    return result;
+                });
+    }
+
+    /**
+     * Completes with a timeout if the execution is not done within the timeout, in which case the
+     * job is cancelled, as soon as it is submitted if it was not yet. The poller then stops
+     * tracking it once BigQuery reports it done.
+     */
+    private CompletableFuture<BigQueryUnitResult> withTimeout(
+            CompletableFuture<BigQueryUnitResult> execution,
+            CompletableFuture<JobId> submitted,
+            AtomicReference<JobId> running,
+            StopWatch stopWatch) {
+        CompletableFuture<BigQueryUnitResult> timed = new CompletableFuture<>();
+        ScheduledFuture<?> deadline = watchdog.watch(timeoutMs, () -> {
+            if (timed.isDone()) {
+                return;
+            }
+            stopWatch.mark(StopWatch.Phase.COMPLETE);
+            JobId jobId = running.get();
+            if (!timed.complete(BigQueryUnitResult.createTimeout(
+                    queryUnit,
+                    jobId != null ? jobId.getJob() : "",
+                    String.format("Cancelled after %d ms", timeoutMs),
+                    stopWatch))) {
+                return;
             }
 
-            duration = stopWatch.elapsedTime();
+            logger.log(Level.ERROR, String.format(
+                    "ID = %s - %s: cancelling job %s after %d ms",
+                    queryUnit.getId(),
+                    queryUnit.getDescription(),
+                    jobId != null ? jobId.getJob() : "not yet submitted",
+                    timeoutMs));
+            submitted.thenAccept(submittedId -> poller.call(() -> poller.getBigQuery().cancel(submittedId)));
+        });
 
-            if (!useStopWatch) {
-                JobStatistics statistics = bigquery.getJob(jobId).getStatistics();
-                long startTime = statistics.getStartTime();
-                long endTime = statistics.getEndTime();
-                duration = (endTime - startTime);
+        execution.whenComplete((result, e) -> {
+            deadline.cancel(false);
+            if (e != null) {
+                timed.completeExceptionally(e);
+            } else {
+                timed.complete(result);
             }
-        } catch(Throwable e) {
-            logger.log(Level.ERROR, "Error in file: " + queryUnit.getDescription());
-            e.printStackTrace();
-            error(jobId.getJob(), e.getMessage(), stopWatch);
+        });
+        return timed;
+    }
+
+    private QueryJobConfiguration toJobConfiguration(String query) {
+        return QueryJobConfiguration.newBuilder(query)
+                // Use standard SQL syntax for queries.
+                // See: https://cloud.google.com/bigquery/sql-reference/
+                .setUseQueryCache(useQueryCache)
+                .setUseLegacySql(false)
+                .build();
+    }
+
+    private QueryRequest toQueryRequest(Map<String, Object> parameters) {
+        QueryRequest.Builder request = QueryRequest.newBuilder(template.getNamedQuery())
+                // Named parameters require standard SQL
+                .setUseQueryCache(useQueryCache)
+                .setUseLegacySql(false)
+                .setMaxWaitTime(0L);
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            request.addNamedParameter(parameter.getKey(), toParameterValue(parameter.getValue()));
+        }
+        return request.build();
+    }
+
+    private static QueryParameterValue toParameterValue(Object value) {
+        if (value instanceof Long) {
+            return QueryParameterValue.int64((Long) value);
+        } else if (value instanceof Double) {
+            return QueryParameterValue.float64((Double) value);
         }
+        return QueryParameterValue.string(String.valueOf(value));
+    }
+
+    private BigQueryUnitResult toResult(JobId jobId, Job queryJob, StopWatch stopWatch) {
+        // Check for errors
+        if (queryJob == null) {
+            return error(jobId.getJob(), "Job no longer exists", null, stopWatch);
+        } else if (queryJob.getStatus().getError() != null) {
+            logger.log(Level.ERROR, String.format(
+                    "%s - ID = %s - %s: %s",
+                    Thread.currentThread().getName(),
+                    queryUnit.getId(),
+                    queryUnit.getDescription(),
+                    queryJob.getStatus().getError().toString()));
 
-        return BigQueryUnitResult.createSuccess(
+            // You can also look at queryJob.getStatus().getExecutionErrors() for all
+            // errors, not just the latest one.
+            BigQueryError error = queryJob.getStatus().getError();
+            return error(
+                    jobId.getJob(),
+                    error.toString(),
+                    new BigQueryException(BigQueryException.UNKNOWN_CODE, error.getMessage(), error),
+                    stopWatch);
+        }
+
+        JobStatistics statistics = queryJob.getStatistics();
+        if (statistics.getCreationTime() != null && statistics.getStartTime() != null) {
+            stopWatch.set(
+                    StopWatch.Phase.QUEUED,
+                    TimeUnit.MILLISECONDS.toNanos(statistics.getStartTime() - statistics.getCreationTime()));
+        }
+        if (!useStopWatch) {
+            long startTime = statistics.getStartTime();
+            long endTime = statistics.getEndTime();
+            stopWatch.set(StopWatch.Phase.COMPLETE, TimeUnit.MILLISECONDS.toNanos(endTime - startTime));
+        }
+
+        BigQueryUnitResult result = BigQueryUnitResult.createSuccess(
                 queryUnit,
                 jobId.getJob(),
-                String.valueOf(duration),
-                sdf.format(new Date(stopWatch.getStart())).toString(),
-                sdf.format(new Date(stopWatch.getEnd())).toString());
+                stopWatch);
+        result.setStatistics(toStatistics(statistics));
+        return result;
+    }
+
+    /**
+     * Reads the results of a completed query, outside of the measured time, and records their
+     * checksum and row count.
+     */
+    private BigQueryUnitResult checksum(BigQueryUnitResult result) {
+        try {
+            ResultChecksum checksum = new ResultChecksum(checksumDigits);
+            QueryResult page = poller.getBigQuery().getQueryResults(JobId.of(result.getJobId())).getResult();
+            List<Field> fields = page.getSchema().getFields();
+            for (; page != null; page = page.getNextPage()) {
+                for (List<FieldValue> row : page.getValues()) {
+                    checksum.startRow();
+                    for (int i = 0; i < row.size(); i++) {
+                        checksum.addValue(toValue(fields.get(i).getType(), row.get(i)));
+                    }
+                    checksum.endRow();
+                }
+            }
+            result.setChecksum(checksum.getChecksum());
+            result.setFetchStatistics(checksum.getRows(), -1);
+        } catch (BigQueryException e) {
+            logger.log(Level.WARN, String.format(
+                    "%s - ID = %s - Error reading the results of job %s: %s",
+                    Thread.currentThread().getName(),
+                    queryUnit.getId(),
+                    result.getJobId(),
+                    e.getMessage()));
+        }
+        return result;
+    }
+
+    /**
+     * Converts a value returned by the API, always a string, to the type of its column so it
+     * gets the same checksum as the value read by a JDBC driver.
+     */
+    private static Object toValue(Field.Type type, FieldValue value) {
+        if (value.isNull()) {
+            return null;
+        } else if (FieldValue.Attribute.REPEATED.equals(value.getAttribute())) {
+            List<Object> values = new ArrayList<>();
+            for (FieldValue element : value.getRepeatedValue()) {
+                values.add(toValue(type, element));
+            }
+            return values;
+        } else if (FieldValue.Attribute.RECORD.equals(value.getAttribute())) {
+            List<Object> values = new ArrayList<>();
+            List<FieldValue> record = value.getRecordValue();
+            for (int i = 0; i < record.size(); i++) {
+                values.add(toValue(type.getFields().get(i).getType(), record.get(i)));
+            }
+            return values;
+        }
+
+        LegacySQLTypeName name = type.getValue();
+        if (LegacySQLTypeName.INTEGER.equals(name)) {
+            return value.getLongValue();
+        } else if (LegacySQLTypeName.FLOAT.equals(name)) {
+            return value.getDoubleValue();
+        } else if (LegacySQLTypeName.BOOLEAN.equals(name)) {
+            return value.getBooleanValue();
+        } else if (LegacySQLTypeName.BYTES.equals(name)) {
+            return value.getBytesValue();
+        }
+        return value.getStringValue();
+    }
+
+    private BigQueryStatistics toStatistics(JobStatistics statistics) {
+        long executionMs = statistics.getStartTime() != null && statistics.getEndTime() != null
+                ? statistics.getEndTime() - statistics.getStartTime()
+                : -1;
+
+        if (!(statistics instanceof JobStatistics.QueryStatistics)) {
+            return new BigQueryStatistics(null, null, null, null, executionMs);
+        }
+
+        JobStatistics.QueryStatistics queryStatistics = (JobStatistics.QueryStatistics) statistics;
+        BigQueryStatistics result = new BigQueryStatistics(
+                queryStatistics.getTotalBytesProcessed(),
+                queryStatistics.getTotalBytesBilled(),
+                queryStatistics.getCacheHit(),
+                queryStatistics.getBillingTier(),
+                executionMs);
+
+        if (queryStatistics.getQueryPlan() != null) {
+            for (QueryStage stage : queryStatistics.getQueryPlan()) {
+                result.addStage(
+                        stage.getWaitRatioAvg(),
+                        stage.getReadRatioAvg(),
+                        stage.getComputeRatioAvg(),
+                        stage.getWriteRatioAvg(),
+                        stage.getWaitRatioMax(),
+                        stage.getReadRatioMax(),
+                        stage.getComputeRatioMax(),
+                        stage.getWriteRatioMax());
+            }
+        }
+        return result;
     }
 
-    private BigQueryUnitResult error(String jobId, String errors, StopWatch stopwatch) {
-        return BigQueryUnitResult.createFail(
+    private BigQueryUnitResult error(String jobId, String errors, Throwable cause, StopWatch stopwatch) {
+        BigQueryUnitResult result = BigQueryUnitResult.createFail(
                 queryUnit,
                 jobId,
                 errors,
-                new Date(stopwatch.getStart()).toString());
+                stopwatch);
+        result.setCause(cause);
+        return result;
     }
 }
@@ -0,0 +1,232 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.bigquery.QueryRequest;
+import com.google.cloud.bigquery.QueryResponse;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Submits BigQuery jobs and tracks all the jobs in flight from a single polling thread.
+ * Each job is first polled after {@code initialIntervalMs}, then the interval grows by
+ * half on every poll up to {@code maxIntervalMs}, so short queries complete with
+ * millisecond accuracy while long ones do not flood the API. The RPCs themselves run on a
+ * small pool of {@code rpcThreads} threads.
+ *
+ * <p>A poll that fails with a transient error, e.g. a rate limit or a backend error, is retried
+ * with the same backoff: the job keeps running on BigQuery whatever happens to a poll. The job
+ * only fails after {@code maxPollErrors} transient errors in a row, or on a permanent error.
+ */
+public class BigQueryJobPoller {
+
+    private Logger logger = LogManager.getLogger();
+
+    private static final double BACKOFF = 1.5;
+
+    private final BigQuery bigquery;
+    private final long initialIntervalNanos;
+    private final long maxIntervalNanos;
+    private final ErrorClassifier classifier;
+    private final int maxPollErrors;
+
+    private final DelayQueue<PendingJob> pending = new DelayQueue<>();
+    private final ExecutorService rpcs;
+    private final Thread poller;
+    private volatile boolean running = true;
+
+    public BigQueryJobPoller(BigQuery bigquery, long initialIntervalMs, long maxIntervalMs, int rpcThreads) {
+        this(bigquery, initialIntervalMs, maxIntervalMs, rpcThreads, new BigQueryErrorClassifier(ErrorClassifier.DEFAULT_TRANSIENT_ERRORS), 5);
+    }
+
+    /**
+     * @param classifier tells the transient errors of a poll from the permanent ones
+     * @param maxPollErrors the number of transient errors in a row after which a job fails
+     */
+    public BigQueryJobPoller(BigQuery bigquery,
+                             long initialIntervalMs,
+                             long maxIntervalMs,
+                             int rpcThreads,
+                             ErrorClassifier classifier,
+                             int maxPollErrors) {
+        this.bigquery = bigquery;
+        this.initialIntervalNanos = TimeUnit.MILLISECONDS.toNanos(initialIntervalMs);
+        this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(maxIntervalMs);
+        this.classifier = classifier;
+        this.maxPollErrors = maxPollErrors;
+
+        AtomicInteger count = new AtomicInteger();
+        this.rpcs = Executors.newFixedThreadPool(rpcThreads, runnable -> {
+            Thread thread = new Thread(runnable, "bq-rpc-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        poller = new Thread(this::poll, "bq-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    public BigQuery getBigQuery() {
+        return bigquery;
+    }
+
+    /**
+     * Creates a job without blocking the caller.
+     *
+     * @return a future completed with the created job once BigQuery accepted it
+     */
+    public CompletableFuture<Job> create(JobInfo jobInfo) {
+        return CompletableFuture.supplyAsync(() -> bigquery.create(jobInfo), rpcs);
+    }
+
+    /**
+     * Starts a query through the query API, needed for query parameters, without blocking the
+     * caller. Set a max wait time of 0 on the request to get its job id back straight away and
+     * track it with {@link #waitFor(JobId)}.
+     */
+    public CompletableFuture<QueryResponse> query(QueryRequest request) {
+        return CompletableFuture.supplyAsync(() -> bigquery.query(request), rpcs);
+    }
+
+    /**
+     * Runs any other blocking call of the BigQuery client on the RPC threads.
+     */
+    public <T> CompletableFuture<T> call(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, rpcs);
+    }
+
+    /**
+     * Tracks a job until it is done.
+     *
+     * @return a future completed with the finished job, or with null if the job no longer exists
+     */
+    public CompletableFuture<Job> waitFor(JobId jobId) {
+        CompletableFuture<Job> future = new CompletableFuture<>();
+        pending.add(new PendingJob(jobId, future, initialIntervalNanos));
+        return future;
+    }
+
+    public void close() {
+        running = false;
+        poller.interrupt();
+        rpcs.shutdownNow();
+
+        PendingJob job;
+        while((job = pending.poll()) != null) {
+            job.future.cancel(false);
+        }
+    }
+
+    private void poll() {
+        while(running) {
+            PendingJob job;
+            try {
+                job = pending.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            try {
+                rpcs.execute(() -> check(job));
+            } catch (RuntimeException e) {
+                job.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void check(PendingJob job) {
+        try {
+            Job current = bigquery.getJob(job.jobId);
+            if(current == null) {
+                job.future.complete(null);
+            } else if(JobStatus.State.DONE.equals(current.getStatus().getState())) {
+                job.future.complete(current);
+            } else if(!job.future.isDone()) {
+                pending.add(job.next(nextInterval(job), 0));
+            }
+        } catch (Throwable e) {
+            if(job.future.isDone()) {
+                return;
+            } else if(job.errors + 1 < maxPollErrors && classifier.isTransient(e)) {
+                logger.log(Level.WARN, String.format(
+                        "Error polling job %s, polling it again (%d of %d errors)",
+                        job.jobId.getJob(),
+                        job.errors + 1,
+                        maxPollErrors), e);
+                pending.add(job.next(nextInterval(job), job.errors + 1));
+                return;
+            }
+            logger.log(Level.ERROR, String.format("Error polling job %s", job.jobId.getJob()), e);
+            job.future.completeExceptionally(e);
+        }
+    }
+
+    private long nextInterval(PendingJob job) {
+        return Math.min((long) (job.interval * BACKOFF), maxIntervalNanos);
+    }
+
+    private static class PendingJob implements Delayed {
+
+        private final JobId jobId;
+        private final CompletableFuture<Job> future;
+        private final long interval;
+        private final long due;
+        /** The number of polls in a row that failed with a transient error. */
+        private final int errors;
+
+        PendingJob(JobId jobId, CompletableFuture<Job> future, long interval) {
+            this(jobId, future, interval, 0);
+        }
+
+        private PendingJob(JobId jobId, CompletableFuture<Job> future, long interval, int errors) {
+            this.jobId = jobId;
+            this.future = future;
+            this.interval = interval;
+            this.due = System.nanoTime() + interval;
+            this.errors = errors;
+        }
+
+        PendingJob next(long interval, int errors) {
+            return new PendingJob(jobId, future, interval, errors);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(due, ((PendingJob) other).due);
+        }
+    }
+}
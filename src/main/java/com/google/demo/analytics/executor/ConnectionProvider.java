@@ -0,0 +1,50 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public interface ConnectionProvider {
+
+    Connection acquire() throws SQLException;
+
+    void release(Connection connection);
+
+    /**
+     * Releases a connection an execution failed on, which may have been left broken by the
+     * failure without being closed.
+     */
+    default void releaseFailed(Connection connection) {
+        release(connection);
+    }
+
+    /**
+     * Opens whatever connections the provider keeps around so the handshake cost is paid
+     * before the timed phase of a benchmark.
+     */
+    void warmUp() throws SQLException;
+
+    /**
+     * Returns the cache of prepared statements of the connections this provider keeps open,
+     * or null if connections are not reused.
+     */
+    default PreparedStatementCache getStatementCache() {
+        return null;
+    }
+
+    void close();
+}
@@ -0,0 +1,102 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Opens a fresh connection for every query and closes it afterwards, so the
+ * connection handshake is part of each execution.
+ *
+ * <p>Connections are opened with {@link Driver#connect(String, Properties)} on an instance of
+ * the named driver, without going through {@link java.sql.DriverManager}, which loads every
+ * driver of the classpath the first time it is used. The driver is only loaded when the first
+ * connection is opened.
+ */
+public class DriverConnectionProvider implements ConnectionProvider {
+
+    private Logger logger = LogManager.getLogger();
+
+    private String user;
+    private String password;
+    private String connectionUrl;
+    private String driverName;
+
+    private volatile Driver driver;
+
+    public DriverConnectionProvider(String user, String password, String connectionUrl, String driverName) {
+        this.user = user;
+        this.password = password;
+        this.connectionUrl = connectionUrl;
+        this.driverName = driverName;
+    }
+
+    @Override
+    public Connection acquire() throws SQLException {
+        Properties info = new Properties();
+        if(user != null) {
+            info.setProperty("user", user);
+        }
+        if(password != null) {
+            info.setProperty("password", password);
+        }
+
+        Connection connection = loadDriver().connect(connectionUrl, info);
+        if(connection == null) {
+            throw new SQLException(String.format("JDBC driver %s does not accept URL %s", driverName, connectionUrl));
+        }
+        return connection;
+    }
+
+    @Override
+    public void release(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.ERROR, "Error closing the JDBC connection", e);
+        }
+    }
+
+    @Override
+    public void warmUp() throws SQLException {
+        loadDriver();
+    }
+
+    @Override
+    public void close() {}
+
+    private Driver loadDriver() throws SQLException {
+        if(driver != null) {
+            return driver;
+        }
+
+        try {
+            driver = (Driver) Class.forName(driverName).getDeclaredConstructor().newInstance();
+            return driver;
+        } catch (ClassNotFoundException e) {
+            throw new SQLException(String.format("JDBC driver %s not found", driverName), e);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new SQLException(String.format("Cannot load JDBC driver %s", driverName), e);
+        }
+    }
+}
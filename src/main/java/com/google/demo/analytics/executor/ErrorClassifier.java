@@ -0,0 +1,85 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.regex.Pattern;
+
+/**
+ * Tells transient errors, which may not happen again if the query is retried, from permanent
+ * ones. An error is transient when the JDBC driver says so, with a {@link SQLTransientException}
+ * or a {@link SQLRecoverableException}, when its SQL state is a connection error (class 08) or a
+ * transaction rollback (class 40), or when the message of the error, or of one of its causes,
+ * matches the transient errors pattern.
+ */
+public class ErrorClassifier {
+
+    /**
+     * Admission control rejections of Impala, Thrift transport errors of Hive and Impala, Presto
+     * queue limits and dropped connections.
+     */
+    public static final String DEFAULT_TRANSIENT_ERRORS =
+            "(?i)admission|queue full|queued queries|TTransportException|connection reset|broken pipe|rate limit";
+
+    private final Pattern transientErrors;
+
+    /**
+     * @param transientErrors the pattern found in the messages of transient errors, or null
+     */
+    public ErrorClassifier(String transientErrors) {
+        this.transientErrors = transientErrors != null && !transientErrors.isEmpty()
+                ? Pattern.compile(transientErrors)
+                : null;
+    }
+
+    /**
+     * Returns whether a failed execution may succeed if retried. Timeouts are not, a query
+     * that ran out of time would most likely run out of time again.
+     */
+    public boolean isTransient(QueryUnitResult result) {
+        if(!QueryUnitResult.Status.FAIL.equals(result.getStatus())) {
+            return false;
+        }
+        return result.getCause() != null
+                ? isTransient(result.getCause())
+                : matches(result.getErrorMessage());
+    }
+
+    public boolean isTransient(Throwable error) {
+        for(Throwable e = error; e != null; e = e.getCause() != e ? e.getCause() : null) {
+            if(e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+                return true;
+            } else if(e instanceof SQLException && isTransientState(((SQLException) e).getSQLState())) {
+                return true;
+            } else if(matches(e.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean matches(String message) {
+        return transientErrors != null && message != null && transientErrors.matcher(message).find();
+    }
+
+    private static boolean isTransientState(String sqlState) {
+        return sqlState != null && (sqlState.startsWith("08") || sqlState.startsWith("40"));
+    }
+}
@@ -17,11 +17,46 @@
 package com.google.demo.analytics.executor;
 
 import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-
-public interface Executor<T> extends Callable<List<T>> {
-
-    List<T> execute(QueryUnit queryUnit);
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs the executions of a {@link QueryUnit}. {@link #call()} runs all of them in sequence,
+ * {@link #executeOnce()} and {@link #executeAsync(java.util.concurrent.Executor)} let the
+ * caller schedule and collect every execution on its own.
+ */
+public interface Executor<T extends QueryUnitResult> extends Callable<List<T>> {
+
+    QueryUnit getQueryUnit();
+
+    T executeOnce();
+
+    /**
+     * Returns how many of the executions started so far are tagged as warmup, see
+     * {@link WarmupExecutor}. Warmup executions come on top of the count of the query unit.
+     */
+    default int getWarmupStarted() {
+        return 0;
+    }
+
+    /**
+     * Starts one execution without waiting for it. Executors that block while the query runs
+     * do so on {@code blockingExecutor}, executors backed by an asynchronous API do not use it.
+     */
+    default CompletableFuture<T> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        return CompletableFuture.supplyAsync(this::executeOnce, blockingExecutor);
+    }
+
+    @Override
+    default List<T> call() throws Exception {
+        List<T> results = new ArrayList<>();
+        for(int i = 0; i < getQueryUnit().getCount(); i++) {
+            results.add(executeOnce());
+        }
+        return results;
+    }
 }
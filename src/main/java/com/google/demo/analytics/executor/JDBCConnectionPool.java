@@ -0,0 +1,166 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size pool of JDBC connections shared by all the executors of an engine.
+ * Connections are opened lazily up to {@code size}, or all at once by {@link #warmUp()}.
+ */
+public class JDBCConnectionPool implements ConnectionProvider {
+
+    private Logger logger = LogManager.getLogger();
+
+    private DriverConnectionProvider factory;
+    private int size;
+    private int validationTimeoutSeconds;
+
+    private BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private PreparedStatementCache statementCache = new PreparedStatementCache();
+    private AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * @param validationTimeoutSeconds how long to wait for a connection an execution failed on
+     *                                 to answer {@link Connection#isValid(int)} before discarding it
+     */
+    public JDBCConnectionPool(DriverConnectionProvider factory, int size, int validationTimeoutSeconds) {
+        if(size < 1) {
+            throw new IllegalArgumentException("Connection pool size must be at least 1");
+        }
+        this.factory = factory;
+        this.size = size;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    @Override
+    public Connection acquire() throws SQLException {
+        while(true) {
+            if(closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+
+            Connection connection = idle.poll();
+            if(connection != null) {
+                return connection;
+            }
+
+            if(opened.incrementAndGet() <= size) {
+                try {
+                    return factory.acquire();
+                } catch (SQLException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            }
+            opened.decrementAndGet();
+
+            // Poll rather than block so broken connections that get discarded free up a slot
+            try {
+                connection = idle.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a pooled connection", e);
+            }
+            if(connection != null) {
+                return connection;
+            }
+        }
+    }
+
+    @Override
+    public void release(Connection connection) {
+        boolean broken;
+        try {
+            broken = connection.isClosed();
+        } catch (SQLException e) {
+            broken = true;
+        }
+        release(connection, broken);
+    }
+
+    /**
+     * Checks that the connection still answers before pooling it again: a failure such as a
+     * reset transport usually leaves the connection broken but not closed, and the retry of the
+     * execution would fail on it again.
+     */
+    @Override
+    public void releaseFailed(Connection connection) {
+        boolean broken;
+        try {
+            broken = !connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            // Drivers that cannot tell do not get the benefit of the doubt
+            broken = true;
+        }
+        if(broken) {
+            logger.log(Level.WARN, "Discarding a pooled connection that is no longer valid");
+        }
+        release(connection, broken);
+    }
+
+    private void release(Connection connection, boolean broken) {
+        if(broken || closed) {
+            opened.decrementAndGet();
+            statementCache.evict(connection);
+            factory.release(connection);
+            return;
+        }
+
+        idle.offer(connection);
+    }
+
+    @Override
+    public void warmUp() throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for(int i = 0; i < size; i++) {
+                connections.add(acquire());
+            }
+        } finally {
+            connections.forEach(this::release);
+        }
+        logger.log(Level.INFO, String.format("Connection pool warmed up with %d connections", idle.size()));
+    }
+
+    @Override
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while((connection = idle.poll()) != null) {
+            opened.decrementAndGet();
+            statementCache.evict(connection);
+            factory.release(connection);
+        }
+    }
+}
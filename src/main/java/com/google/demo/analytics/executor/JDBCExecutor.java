@@ -17,90 +17,234 @@ package com.google.demo.analytics.executor;
 
 import com.google.demo.analytics.model.QueryUnit;
 import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.template.QueryTemplate;
 import com.google.demo.analytics.util.StopWatch;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.*;
-import java.sql.Date;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class JDBCExecutor implements Callable<List<QueryUnitResult>> {
+public class JDBCExecutor implements Executor<QueryUnitResult> {
 
     private Logger logger = LogManager.getLogger();
 
-    SimpleDateFormat sdf = new SimpleDateFormat("YYYY-MM-dd_hh-mm-ss-SSS");
-
     private QueryUnit queryUnit;
 
-    private String user;
-    private String password;
-    private String connectionUrl;
-    private String driverName;
+    private ConnectionProvider connectionProvider;
+    private boolean drain;
+    private int fetchSize;
+    private QueryTemplate template;
+    private boolean prepared;
+    private int checksumDigits;
+    private long timeoutMs;
+    private QueryWatchdog watchdog;
+
+    public JDBCExecutor(QueryUnit queryUnit, ConnectionProvider connectionProvider) {
+        this(queryUnit, connectionProvider, false, 0);
+    }
 
-    public JDBCExecutor(QueryUnit queryUnit, String user, String password, String connectionUrl, String driverName) {
+    /**
+     * @param drain whether to read the whole result set before stopping the clock
+     * @param fetchSize the JDBC fetch size hint, or 0 to keep the driver default
+     */
+    public JDBCExecutor(QueryUnit queryUnit, ConnectionProvider connectionProvider, boolean drain, int fetchSize) {
+        this(queryUnit, connectionProvider, drain, fetchSize, null, false, 0, 0, null);
+    }
+
+    /**
+     * @param template the template of the query, or null if the query is a literal
+     * @param prepared whether to run the template as a prepared statement, cached by the
+     *                 connection provider when it reuses connections, or with inlined values
+     * @param checksumDigits the significant digits of the {@link ResultChecksum} of every result
+     *                       set, which is then drained, or 0 to skip checksums
+     * @param timeoutMs the time after which the watchdog cancels the statement, from its
+     *                  submission to the end of the fetch, or 0 to wait forever
+     */
+    public JDBCExecutor(QueryUnit queryUnit,
+                        ConnectionProvider connectionProvider,
+                        boolean drain,
+                        int fetchSize,
+                        QueryTemplate template,
+                        boolean prepared,
+                        int checksumDigits,
+                        long timeoutMs,
+                        QueryWatchdog watchdog) {
         this.queryUnit = queryUnit;
-        this.user = user;
-        this.password = password;
-        this.connectionUrl = connectionUrl;
-        this.driverName = driverName;
+        this.connectionProvider = connectionProvider;
+        this.drain = drain;
+        this.fetchSize = fetchSize;
+        this.template = template;
+        this.prepared = prepared;
+        this.checksumDigits = checksumDigits;
+        this.timeoutMs = timeoutMs;
+        this.watchdog = watchdog;
     }
 
     @Override
-    public List<QueryUnitResult> call() throws Exception {
-        List<QueryUnitResult> results = new ArrayList<>();
-        for(int i = 0; i < queryUnit.getCount(); i++) {
-            results.add(executeOnce(queryUnit));
-        }
-        return results;
+    public QueryUnit getQueryUnit() {
+        return queryUnit;
     }
 
-    private QueryUnitResult executeOnce(QueryUnit queryUnit) {
+    @Override
+    public QueryUnitResult executeOnce() {
         logger.log(Level.INFO, String.format(
                 "%s - ID = %s - %s",
                 Thread.currentThread().getName(),
                 queryUnit.getId(),
                 queryUnit.getDescription()));
 
+        Map<String, Object> parameters = template != null ? template.bind() : null;
         Connection cnct = null;
-        StopWatch stopWatch = null;
+        Statement stmt = null;
+        boolean cached = false;
+        boolean failed = false;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> deadline = null;
+        StopWatch stopWatch = new StopWatch();
         try {
-            Class.forName(driverName);
-            cnct = DriverManager.getConnection(connectionUrl, user, password);
-            Statement stmt = cnct.createStatement();
-
-            stopWatch = new StopWatch();
-            ResultSet res = stmt.executeQuery(queryUnit.getQuery());
-            long duration = stopWatch.elapsedTime();
-//            while (res.next()) {
-//                logger.log(Level.INFO, res.getString(1));
-//            }
-
-            return QueryUnitResult.createSuccess(
-                    queryUnit,
-                    String.valueOf(duration),
-                    sdf.format(new java.util.Date(stopWatch.getStart())).toString(),
-                    sdf.format(new java.util.Date(stopWatch.getEnd())).toString());
-        } catch (SQLException | ClassNotFoundException e) {
+            cnct = connectionProvider.acquire();
+            stopWatch.connected();
+
+            ResultSet res;
+            if(template != null && prepared) {
+                PreparedStatementCache statementCache = connectionProvider.getStatementCache();
+                cached = statementCache != null;
+                PreparedStatement preparedStmt = cached
+                        ? statementCache.prepare(cnct, template.getPositionalQuery())
+                        : cnct.prepareStatement(template.getPositionalQuery());
+                stmt = preparedStmt;
+                if(fetchSize > 0) {
+                    preparedStmt.setFetchSize(fetchSize);
+                }
+                deadline = watch(preparedStmt, done, expired);
+
+                List<Object> values = template.getPositionalValues(parameters);
+                for(int i = 0; i < values.size(); i++) {
+                    preparedStmt.setObject(i + 1, values.get(i));
+                }
+                res = preparedStmt.executeQuery();
+            } else {
+                stmt = cnct.createStatement();
+                if(fetchSize > 0) {
+                    stmt.setFetchSize(fetchSize);
+                }
+                deadline = watch(stmt, done, expired);
+                res = stmt.executeQuery(template != null
+                        ? template.toLiteralQuery(parameters, false)
+                        : queryUnit.getQuery());
+            }
+            stopWatch.mark(StopWatch.Phase.SUBMIT);
+
+            ResultSetDrainer drainer = null;
+            ResultChecksum checksum = checksumDigits > 0 ? new ResultChecksum(checksumDigits) : null;
+            if(drain || checksum != null) {
+                drainer = new ResultSetDrainer(checksum);
+                drainer.drain(res, stopWatch);
+            }
+            stopWatch.mark(StopWatch.Phase.COMPLETE);
+            res.close();
+            if(!done.compareAndSet(false, true)) {
+                return timeout(cnct, stopWatch, parameters);
+            }
+
+            QueryUnitResult result = QueryUnitResult.createSuccess(queryUnit, stopWatch);
+            if(drainer != null) {
+                result.setFetchStatistics(drainer.getRows(), drainer.getBytes());
+            }
+            if(checksum != null) {
+                result.setChecksum(checksum.getChecksum());
+            }
+            result.setParameters(QueryTemplate.format(parameters));
+            return result;
+        } catch (SQLException e) {
+            failed = true;
+            if(expired.get()) {
+                return timeout(cnct, stopWatch, parameters);
+            }
             logger.log(Level.ERROR, String.format(
                     "%s - ID = %s - %s: %s",
                     Thread.currentThread().getName(),
                     queryUnit.getId(),
                     queryUnit.getDescription(),
                     e.getMessage()));
-            String start = stopWatch != null ? sdf.format(new java.util.Date(stopWatch.getStart())).toString() : null;
-            return QueryUnitResult.createFail(queryUnit, e.getMessage(), start);
+            stopWatch.mark(StopWatch.Phase.COMPLETE);
+            QueryUnitResult result = QueryUnitResult.createFail(queryUnit, e.getMessage(), stopWatch);
+            result.setCause(e);
+            result.setParameters(QueryTemplate.format(parameters));
+            return result;
         } finally {
+            if(deadline != null) {
+                deadline.cancel(false);
+            }
+            closeStatement(stmt, cached);
+            if(cnct != null && failed) {
+                connectionProvider.releaseFailed(cnct);
+            } else if(cnct != null) {
+                connectionProvider.release(cnct);
+            }
+        }
+    }
+
+    /**
+     * Cancels the statement if it has not completed within the timeout.
+     *
+     * @return the deadline to cancel when the statement completes, or null without timeout
+     */
+    private ScheduledFuture<?> watch(Statement stmt, AtomicBoolean done, AtomicBoolean expired) {
+        if(timeoutMs <= 0 || watchdog == null) {
+            return null;
+        }
+        return watchdog.watch(timeoutMs, () -> {
+            if(!done.compareAndSet(false, true)) {
+                return;
+            }
+            expired.set(true);
             try {
-                if(cnct != null) {
-                    cnct.close();
-                }
+                stmt.cancel();
             } catch (SQLException e) {
-                logger.log(Level.ERROR, "Error closing the JDBC connection", e);
+                logger.log(Level.WARN, String.format(
+                        "ID = %s - Error cancelling the statement: %s", queryUnit.getId(), e.getMessage()));
             }
+        });
+    }
+
+    /**
+     * Records a statement cancelled by the watchdog. The connection is closed, so that it is not
+     * reused in whatever state the cancellation left it.
+     */
+    private QueryUnitResult timeout(Connection cnct, StopWatch stopWatch, Map<String, Object> parameters) {
+        stopWatch.mark(StopWatch.Phase.COMPLETE);
+        logger.log(Level.ERROR, String.format(
+                "%s - ID = %s - %s: cancelled after %d ms",
+                Thread.currentThread().getName(),
+                queryUnit.getId(),
+                queryUnit.getDescription(),
+                timeoutMs));
+        try {
+            cnct.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARN, String.format("Error closing connection: %s", e.getMessage()));
+        }
+
+        QueryUnitResult result = QueryUnitResult.createTimeout(
+                queryUnit, String.format("Cancelled after %d ms", timeoutMs), stopWatch);
+        result.setParameters(QueryTemplate.format(parameters));
+        return result;
+    }
+
+    private void closeStatement(Statement stmt, boolean cached) {
+        if(stmt == null || cached) {
+            return;
+        }
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARN, String.format("Error closing statement: %s", e.getMessage()));
         }
     }
 }
@@ -0,0 +1,91 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.metrics.LiveMetrics;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reports the executions of a delegate to live metrics, typically those of its engine and of
+ * its package, as they start and finish.
+ */
+public class MeteredExecutor<T extends QueryUnitResult> implements Executor<T> {
+
+    private Executor<T> delegate;
+    private LiveMetrics[] metrics;
+
+    public MeteredExecutor(Executor<T> delegate, LiveMetrics... metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public QueryUnit getQueryUnit() {
+        return delegate.getQueryUnit();
+    }
+
+    @Override
+    public int getWarmupStarted() {
+        return delegate.getWarmupStarted();
+    }
+
+    @Override
+    public T executeOnce() {
+        started();
+        T result;
+        try {
+            result = delegate.executeOnce();
+        } catch (RuntimeException e) {
+            failed();
+            throw e;
+        }
+        finished(result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<T> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        started();
+        return delegate.executeAsync(blockingExecutor).whenComplete((result, e) -> {
+            if(result != null) {
+                finished(result);
+            } else {
+                failed();
+            }
+        });
+    }
+
+    private void started() {
+        for(LiveMetrics live : metrics) {
+            live.started();
+        }
+    }
+
+    private void finished(T result) {
+        for(LiveMetrics live : metrics) {
+            live.finished(result);
+        }
+    }
+
+    private void failed() {
+        for(LiveMetrics live : metrics) {
+            live.failed();
+        }
+    }
+}
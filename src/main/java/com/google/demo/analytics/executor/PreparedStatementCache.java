@@ -0,0 +1,65 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the prepared statements of long-lived connections open so each query template is
+ * only prepared once per connection. A connection is used by one thread at a time, so its
+ * statements are never shared between threads.
+ */
+public class PreparedStatementCache {
+
+    private Logger logger = LogManager.getLogger();
+
+    private final Map<Connection, Map<String, PreparedStatement>> statements = new ConcurrentHashMap<>();
+
+    public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        Map<String, PreparedStatement> cached = statements.computeIfAbsent(connection, c -> new ConcurrentHashMap<>());
+        PreparedStatement statement = cached.get(sql);
+        if(statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            cached.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Closes the statements of a connection that is about to be closed.
+     */
+    public void evict(Connection connection) {
+        Map<String, PreparedStatement> cached = statements.remove(connection);
+        if(cached == null) {
+            return;
+        }
+        for(PreparedStatement statement : cached.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARN, String.format("Error closing prepared statement: %s", e.getMessage()));
+            }
+        }
+    }
+}
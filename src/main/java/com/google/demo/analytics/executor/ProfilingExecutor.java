@@ -0,0 +1,193 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records what the executions of a delegate cost the driver itself: the CPU time and the bytes
+ * allocated by the driver thread that ran the execution, and the GC overlapping the execution.
+ * The CPU time and the allocations are only known for executions that run on a single driver
+ * thread, not for those of an asynchronous API.
+ *
+ * <p>The GC overlapping the execution is the time of the stop-the-world pauses of the JVM while
+ * it ran, whichever thread's garbage was collected. Collectors that work concurrently with the
+ * application, such as the G1 concurrent cycles or the ZGC and Shenandoah cycles, are left out:
+ * they do not stop the driver, and their time would otherwise be counted as overhead.
+ */
+public class ProfilingExecutor<T extends QueryUnitResult> implements Executor<T> {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> COLLECTORS = getPauseCollectors();
+    private static final boolean CPU_TIME = enableCpuTime();
+    private static final boolean ALLOCATIONS = enableAllocations();
+
+    private Executor<T> delegate;
+
+    public ProfilingExecutor(Executor<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public QueryUnit getQueryUnit() {
+        return delegate.getQueryUnit();
+    }
+
+    @Override
+    public int getWarmupStarted() {
+        return delegate.getWarmupStarted();
+    }
+
+    @Override
+    public T executeOnce() {
+        Sample sample = new Sample();
+        T result = delegate.executeOnce();
+        sample.apply(result);
+        return result;
+    }
+
+    /**
+     * Profiles the thread of {@code blockingExecutor} that runs the execution, if any, up to
+     * the point where the execution completes, or the calling thread when the execution
+     * completed before returning.
+     */
+    @Override
+    public CompletableFuture<T> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        Sample caller = new Sample();
+        Sample[] thread = new Sample[1];
+        CompletableFuture<T> future = delegate.executeAsync(task -> blockingExecutor.execute(() -> {
+            thread[0] = new Sample();
+            task.run();
+        }));
+        boolean completed = future.isDone();
+        return future.thenApply(result -> {
+            Sample sample = thread[0];
+            if(sample != null && sample.thread == Thread.currentThread()) {
+                sample.apply(result);
+            } else if(sample == null && completed) {
+                // Completed synchronously, the handler runs on the calling thread
+                caller.apply(result);
+            } else {
+                caller.applyGc(result);
+            }
+            return result;
+        });
+    }
+
+    private static boolean enableCpuTime() {
+        if(!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return false;
+        }
+        try {
+            if(!THREADS.isThreadCpuTimeEnabled()) {
+                THREADS.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static boolean enableAllocations() {
+        if(!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if(!threads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        try {
+            if(!threads.isThreadAllocatedMemoryEnabled()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static List<GarbageCollectorMXBean> getPauseCollectors() {
+        List<GarbageCollectorMXBean> collectors = new ArrayList<>();
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = collector.getName();
+            // The ZGC bean of Java 11 to 16 reports its concurrent cycles
+            if(!name.contains("Concurrent") && !name.contains("Cycles") && !name.equals("ZGC")) {
+                collectors.add(collector);
+            }
+        }
+        return collectors;
+    }
+
+    private static long getGcMillis() {
+        long total = 0;
+        for(GarbageCollectorMXBean collector : COLLECTORS) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * The counters of the current thread and of the collectors at the start of an execution.
+     */
+    private static class Sample {
+
+        private final Thread thread = Thread.currentThread();
+        private final long cpuNanos = CPU_TIME ? THREADS.getCurrentThreadCpuTime() : StopWatch.NOT_SET;
+        private final long allocatedBytes = ALLOCATIONS
+                ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(thread.getId())
+                : -1;
+        private final long gcMillis = getGcMillis();
+
+        /**
+         * Records the profile of an execution that ran on the thread of the sample, which must be
+         * the current one.
+         */
+        void apply(QueryUnitResult result) {
+            result.setDriverProfile(
+                    cpuNanos == StopWatch.NOT_SET ? StopWatch.NOT_SET : THREADS.getCurrentThreadCpuTime() - cpuNanos,
+                    allocatedBytes < 0
+                            ? -1
+                            : ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(thread.getId()) - allocatedBytes,
+                    getGcNanos(result));
+        }
+
+        /**
+         * Records the GC overlapping an execution whose threads are unknown.
+         */
+        void applyGc(QueryUnitResult result) {
+            result.setDriverProfile(StopWatch.NOT_SET, -1, getGcNanos(result));
+        }
+
+        private long getGcNanos(QueryUnitResult result) {
+            // A pause that began before the execution counts as a whole, so cap it at the latency
+            long gcNanos = TimeUnit.MILLISECONDS.toNanos(getGcMillis() - gcMillis);
+            if(result.getDuration() != StopWatch.NOT_SET) {
+                gcNanos = Math.min(gcNanos, result.getDuration());
+            }
+            return gcNanos;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.util.ThreadPools;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces the deadlines of the queries of a benchmark from a single timer thread. When a
+ * deadline expires its cancellation runs on a separate pool, since cancelling a query is a call
+ * to the engine that may block, and must not hold back the other deadlines.
+ */
+public class QueryWatchdog {
+
+    private Logger logger = LogManager.getLogger();
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService cancellations;
+
+    public QueryWatchdog() {
+        timer = new ScheduledThreadPoolExecutor(1, ThreadPools.daemonThreads("watchdog"));
+        timer.setRemoveOnCancelPolicy(true);
+        cancellations = ThreadPools.newBlockingExecutor("cancel");
+    }
+
+    /**
+     * Runs {@code onExpiry} once {@code timeoutMs} have elapsed, unless the returned deadline is
+     * cancelled first, typically when the query completes.
+     */
+    public ScheduledFuture<?> watch(long timeoutMs, Runnable onExpiry) {
+        return timer.schedule(() -> cancellations.execute(() -> {
+            try {
+                onExpiry.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARN, String.format("Error cancelling a query: %s", e.getMessage()), e);
+            }
+        }), timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        timer.shutdownNow();
+        cancellations.shutdown();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Order insensitive checksum of a result set, computed one row at a time: every row is hashed
+ * and the row hashes are summed, so two result sets holding the same rows in any order get
+ * the same checksum. Values are normalized first so engines agree despite different column
+ * types: numbers become plain decimals, with non-integral ones rounded to
+ * {@code significantDigits} significant digits, and booleans and binary values are spelled
+ * the same way. Temporal values are hashed as the engine formats them.
+ */
+public class ResultChecksum {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final byte NULL = 0;
+    private static final byte VALUE = 1;
+
+    private final MathContext precision;
+
+    private long sum = 0;
+    private long rows = 0;
+    private Hasher row;
+
+    public ResultChecksum(int significantDigits) {
+        this.precision = new MathContext(significantDigits);
+    }
+
+    public void startRow() {
+        row = HASH.newHasher();
+    }
+
+    public void addValue(Object value) {
+        if(value == null) {
+            row.putByte(NULL);
+            return;
+        }
+        row.putByte(VALUE);
+        row.putString(normalize(value), StandardCharsets.UTF_8);
+        // Separator so that ("ab", "c") and ("a", "bc") differ
+        row.putByte(NULL);
+    }
+
+    public void endRow() {
+        sum += row.hash().asLong();
+        rows++;
+        row = null;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the checksum as 16 hex digits, followed by the row count.
+     */
+    public String getChecksum() {
+        return String.format("%016x:%d", sum, rows);
+    }
+
+    private String normalize(Object value) {
+        if(value instanceof Byte || value instanceof Short || value instanceof Integer
+                || value instanceof Long || value instanceof BigInteger) {
+            return value.toString();
+        }
+        if(value instanceof Float || value instanceof Double) {
+            double number = ((Number) value).doubleValue();
+            if(Double.isNaN(number) || Double.isInfinite(number)) {
+                return value.toString();
+            }
+            return normalize(BigDecimal.valueOf(number));
+        }
+        if(value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            if(decimal.signum() == 0) {
+                return "0";
+            }
+            if(decimal.stripTrailingZeros().scale() > 0) {
+                decimal = decimal.round(precision);
+            }
+            return decimal.stripTrailingZeros().toPlainString();
+        }
+        if(value instanceof Boolean) {
+            return (Boolean) value ? "true" : "false";
+        }
+        if(value instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.util.StopWatch;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Iterates a whole {@link ResultSet}, reading every column without keeping the rows around,
+ * and marks the {@link StopWatch.Phase#FIRST_ROW} phase along with approximate row and byte counts.
+ * Rows can also be fed to a {@link ResultChecksum} on the way.
+ */
+public class ResultSetDrainer {
+
+    private long rows = 0;
+    private long bytes = 0;
+    private ResultChecksum checksum;
+
+    public ResultSetDrainer() {
+        this(null);
+    }
+
+    /**
+     * @param checksum the checksum to add every row to, or null
+     */
+    public ResultSetDrainer(ResultChecksum checksum) {
+        this.checksum = checksum;
+    }
+
+    public void drain(ResultSet res, StopWatch stopWatch) throws SQLException {
+        ResultSetMetaData meta = res.getMetaData();
+        int columns = meta.getColumnCount();
+        int[] widths = new int[columns];
+        for(int i = 0; i < columns; i++) {
+            widths[i] = fixedWidth(meta.getColumnType(i + 1));
+        }
+
+        while(res.next()) {
+            if(rows == 0) {
+                stopWatch.mark(StopWatch.Phase.FIRST_ROW);
+            }
+            rows++;
+
+            if(checksum != null) {
+                checksum.startRow();
+            }
+            for(int i = 0; i < columns; i++) {
+                Object value = res.getObject(i + 1);
+                if(value != null) {
+                    bytes += widths[i] > 0 ? widths[i] : variableWidth(value);
+                }
+                if(checksum != null) {
+                    checksum.addValue(value);
+                }
+            }
+            if(checksum != null) {
+                checksum.endRow();
+            }
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    private static int fixedWidth(int sqlType) {
+        switch(sqlType) {
+            case Types.BOOLEAN:
+            case Types.BIT:
+            case Types.TINYINT:
+                return 1;
+            case Types.SMALLINT:
+                return 2;
+            case Types.INTEGER:
+            case Types.REAL:
+            case Types.DATE:
+                return 4;
+            case Types.BIGINT:
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private static long variableWidth(Object value) {
+        if(value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if(value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        }
+        return value.toString().length();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries the executions of a delegate that fail with a transient error, up to
+ * {@code maxAttempts} attempts. Every retry waits for a random backoff, between 0 and a bound
+ * that starts at {@code initialBackoffMs} and doubles after each attempt up to
+ * {@code maxBackoffMs}, so that clients rejected together do not retry together.
+ *
+ * <p>The result of the last attempt is returned, with the results of the previous attempts.
+ */
+public class RetryingExecutor<T extends QueryUnitResult> implements Executor<T> {
+
+    private Logger logger = LogManager.getLogger();
+
+    private Executor<T> delegate;
+    private ErrorClassifier classifier;
+    private int maxAttempts;
+    private long initialBackoffMs;
+    private long maxBackoffMs;
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param timer runs the retries of asynchronous executions once their backoff has elapsed
+     */
+    public RetryingExecutor(Executor<T> delegate,
+                            ErrorClassifier classifier,
+                            int maxAttempts,
+                            long initialBackoffMs,
+                            long maxBackoffMs,
+                            ScheduledExecutorService timer) {
+        this.delegate = delegate;
+        this.classifier = classifier;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.timer = timer;
+    }
+
+    @Override
+    public QueryUnit getQueryUnit() {
+        return delegate.getQueryUnit();
+    }
+
+    @Override
+    public int getWarmupStarted() {
+        return delegate.getWarmupStarted();
+    }
+
+    @Override
+    public T executeOnce() {
+        List<QueryUnitResult> attempts = new ArrayList<>();
+        T result = delegate.executeOnce();
+        while(shouldRetry(result, attempts)) {
+            long backoff = backoff(result, attempts);
+            try {
+                TimeUnit.NANOSECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            attempts.add(result);
+            result = delegate.executeOnce();
+        }
+        result.setPreviousAttempts(attempts);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<T> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        return executeAsync(blockingExecutor, new ArrayList<>());
+    }
+
+    private CompletableFuture<T> executeAsync(java.util.concurrent.Executor blockingExecutor,
+                                              List<QueryUnitResult> attempts) {
+        return delegate.executeAsync(blockingExecutor).thenCompose(result -> {
+            if(!shouldRetry(result, attempts)) {
+                result.setPreviousAttempts(attempts);
+                return CompletableFuture.completedFuture(result);
+            }
+
+            long backoff = backoff(result, attempts);
+            attempts.add(result);
+            CompletableFuture<T> retry = new CompletableFuture<>();
+            timer.schedule(() -> executeAsync(blockingExecutor, attempts).whenComplete((retried, e) -> {
+                if(e != null) {
+                    retry.completeExceptionally(e);
+                } else {
+                    retry.complete(retried);
+                }
+            }), backoff, TimeUnit.NANOSECONDS);
+            return retry;
+        });
+    }
+
+    private boolean shouldRetry(T result, List<QueryUnitResult> attempts) {
+        return attempts.size() + 1 < maxAttempts && classifier.isTransient(result);
+    }
+
+    /**
+     * Draws the backoff (in ns) before the next attempt, and logs the failed one.
+     */
+    private long backoff(T result, List<QueryUnitResult> attempts) {
+        long bound = Math.min(initialBackoffMs << Math.min(attempts.size(), 30), maxBackoffMs);
+        long backoff = (long) (ThreadLocalRandom.current().nextDouble() * TimeUnit.MILLISECONDS.toNanos(bound));
+        logger.log(Level.WARN, String.format(
+                "%s - ID = %s - %s: attempt %d failed with a transient error, retrying in %d ms: %s",
+                Thread.currentThread().getName(),
+                getQueryUnit().getId(),
+                getQueryUnit().getDescription(),
+                attempts.size() + 1,
+                TimeUnit.NANOSECONDS.toMillis(backoff),
+                result.getErrorMessage()));
+        return backoff;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.simulation.LatencyDistribution;
+import com.google.demo.analytics.simulation.SimulatedEngine;
+import com.google.demo.analytics.template.QueryTemplate;
+import com.google.demo.analytics.util.StopWatch;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs query units on a {@link SimulatedEngine}, which ignores the query and takes a latency
+ * drawn from a {@link LatencyDistribution}. A {@code failureRate} fraction of the executions fail.
+ */
+public class SimulatedExecutor implements Executor<QueryUnitResult> {
+
+    private Logger logger = LogManager.getLogger();
+
+    public static final String FAILURE_MESSAGE = "Simulated failure";
+
+    private final QueryUnit queryUnit;
+    private final SimulatedEngine engine;
+    private final LatencyDistribution latency;
+    private final double failureRate;
+    private final QueryTemplate template;
+    private final long timeoutNanos;
+
+    public SimulatedExecutor(QueryUnit queryUnit,
+                             SimulatedEngine engine,
+                             LatencyDistribution latency,
+                             double failureRate,
+                             QueryTemplate template) {
+        this(queryUnit, engine, latency, failureRate, template, 0);
+    }
+
+    /**
+     * @param template the template of the query, or null if the query is a literal. Only its
+     *                 values are drawn, so that their cost is part of the measures.
+     * @param timeoutMs the executions whose latency is longer stop after this time with a TIMEOUT
+     *                  status, 0 for none
+     */
+    public SimulatedExecutor(QueryUnit queryUnit,
+                             SimulatedEngine engine,
+                             LatencyDistribution latency,
+                             double failureRate,
+                             QueryTemplate template,
+                             long timeoutMs) {
+        this.queryUnit = queryUnit;
+        this.engine = engine;
+        this.latency = latency;
+        this.failureRate = failureRate;
+        this.template = template;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    @Override
+    public QueryUnit getQueryUnit() {
+        return queryUnit;
+    }
+
+    @Override
+    public QueryUnitResult executeOnce() {
+        Map<String, Object> parameters = template != null ? template.bind() : null;
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.connected();
+        stopWatch.mark(StopWatch.Phase.SUBMIT);
+
+        long nanos = latency.nextNanos(ThreadLocalRandom.current());
+        engine.runBlocking(isTimeout(nanos) ? timeoutNanos : nanos);
+        stopWatch.mark(StopWatch.Phase.COMPLETE);
+        return toResult(parameters, stopWatch, isTimeout(nanos));
+    }
+
+    @Override
+    public CompletableFuture<QueryUnitResult> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        Map<String, Object> parameters = template != null ? template.bind() : null;
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.connected();
+        stopWatch.mark(StopWatch.Phase.SUBMIT);
+
+        long nanos = latency.nextNanos(ThreadLocalRandom.current());
+        return engine.run(isTimeout(nanos) ? timeoutNanos : nanos).thenApply(done -> {
+            stopWatch.mark(StopWatch.Phase.COMPLETE);
+            return toResult(parameters, stopWatch, isTimeout(nanos));
+        });
+    }
+
+    private boolean isTimeout(long nanos) {
+        return timeoutNanos > 0 && nanos > timeoutNanos;
+    }
+
+    private QueryUnitResult toResult(Map<String, Object> parameters, StopWatch stopWatch, boolean timeout) {
+        QueryUnitResult result;
+        if(timeout) {
+            result = QueryUnitResult.createTimeout(
+                    queryUnit,
+                    String.format("Cancelled after %d ms", TimeUnit.NANOSECONDS.toMillis(timeoutNanos)),
+                    stopWatch);
+        } else if(ThreadLocalRandom.current().nextDouble() < failureRate) {
+            // Debug only, simulated runs go well beyond the rate the logs can keep up with
+            logger.log(Level.DEBUG, String.format(
+                    "%s - ID = %s - %s: %s",
+                    Thread.currentThread().getName(),
+                    queryUnit.getId(),
+                    queryUnit.getDescription(),
+                    FAILURE_MESSAGE));
+            result = QueryUnitResult.createFail(queryUnit, FAILURE_MESSAGE, stopWatch);
+        } else {
+            result = QueryUnitResult.createSuccess(queryUnit, stopWatch);
+        }
+        result.setParameters(QueryTemplate.format(parameters));
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tags the first executions of a query unit as warmup, either a fixed number of them or
+ * until the engine reaches a steady state: the coefficient of variation of the latencies
+ * of the last {@code window} successful executions drops below {@code cvThreshold}.
+ * Warmup results are still returned so cold and warm latencies can both be reported.
+ * Warmup executions come on top of the count of the query unit, whatever the scheduler.
+ *
+ * <p>Executions are tagged when they start. A fixed warmup tags exactly the first
+ * {@code iterations} executions to start, however many run at the same time. A steady state
+ * warmup can only tell once executions complete, so with several executions in flight, as in
+ * open loop or async mode, the executions started before the steady state was reached are
+ * tagged too, up to {@code maxIterations} in all.
+ */
+public class WarmupExecutor<T extends QueryUnitResult> implements Executor<T> {
+
+    private Executor<T> delegate;
+    private int iterations;
+    private double cvThreshold;
+    private int window;
+    private int maxIterations;
+
+    private int executed = 0;
+    private AtomicInteger started = new AtomicInteger();
+    private AtomicInteger warmupStarted = new AtomicInteger();
+    private boolean warm;
+    private Deque<Long> latencies = new ArrayDeque<>();
+
+    /**
+     * Warms up for a fixed number of executions.
+     */
+    public static <T extends QueryUnitResult> WarmupExecutor<T> fixed(Executor<T> delegate, int iterations) {
+        return new WarmupExecutor<>(delegate, iterations, 0, 0, iterations);
+    }
+
+    /**
+     * Warms up until the latencies are steady, or for at most {@code maxIterations} executions.
+     */
+    public static <T extends QueryUnitResult> WarmupExecutor<T> steadyState(
+            Executor<T> delegate, double cvThreshold, int window, int maxIterations) {
+        return new WarmupExecutor<>(delegate, 0, cvThreshold, window, maxIterations);
+    }
+
+    private WarmupExecutor(Executor<T> delegate, int iterations, double cvThreshold, int window, int maxIterations) {
+        this.delegate = delegate;
+        this.iterations = iterations;
+        this.cvThreshold = cvThreshold;
+        this.window = window;
+        this.maxIterations = maxIterations;
+        this.warm = maxIterations <= 0;
+    }
+
+    @Override
+    public QueryUnit getQueryUnit() {
+        return delegate.getQueryUnit();
+    }
+
+    @Override
+    public T executeOnce() {
+        boolean warmup = startWarmup();
+        T result = delegate.executeOnce();
+        result.setWarmup(warmup);
+        if(warmup) {
+            record(result);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<T> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+        boolean warmup = startWarmup();
+        return delegate.executeAsync(blockingExecutor).thenApply(result -> {
+            result.setWarmup(warmup);
+            if(warmup) {
+                record(result);
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public int getWarmupStarted() {
+        return warmupStarted.get();
+    }
+
+    /**
+     * Returns whether the execution that starts is a warmup execution.
+     */
+    private boolean startWarmup() {
+        boolean warmup = iterations > 0
+                ? started.getAndIncrement() < iterations
+                : !isWarm() && started.getAndIncrement() < maxIterations;
+        if(warmup) {
+            warmupStarted.incrementAndGet();
+        }
+        return warmup;
+    }
+
+    public synchronized boolean isWarm() {
+        return warm;
+    }
+
+    private synchronized void record(T result) {
+        executed++;
+
+        long latency = result.getDuration();
+        if(QueryUnitResult.Status.SUCCESS.equals(result.getStatus()) && latency != StopWatch.NOT_SET) {
+            latencies.addLast(latency);
+            if(latencies.size() > window) {
+                latencies.removeFirst();
+            }
+        }
+
+        if(executed >= maxIterations) {
+            warm = true;
+        } else if(iterations == 0 && latencies.size() >= window && coefficientOfVariation() <= cvThreshold) {
+            warm = true;
+        }
+    }
+
+    private double coefficientOfVariation() {
+        double mean = 0;
+        for(long latency : latencies) {
+            mean += latency;
+        }
+        mean /= latencies.size();
+        if(mean == 0) {
+            return 0;
+        }
+
+        double variance = 0;
+        for(long latency : latencies) {
+            variance += (latency - mean) * (latency - mean);
+        }
+        variance /= latencies.size();
+        return Math.sqrt(variance) / mean;
+    }
+}
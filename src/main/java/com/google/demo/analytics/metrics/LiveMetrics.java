@@ -0,0 +1,195 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.metrics;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters and latencies of an engine, or of one of its packages, while a benchmark runs.
+ * Executor threads only touch {@link LongAdder}s and a wait-free {@link Recorder}; the
+ * percentiles and throughput cover a window of the last {@code intervals} intervals and are
+ * computed by {@link #roll()}, which the {@link MetricsRegistry} calls at the end of every
+ * interval from its own thread. The count and the sum of the latencies cover the whole run.
+ */
+public class LiveMetrics implements LiveMetricsMXBean {
+
+    private final String engine;
+    private final String description;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Recorder recorder = new Recorder(3);
+    private final LongAdder latencyCount = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+
+    private final int intervals;
+    private final Deque<Histogram> window = new ArrayDeque<>();
+    private final Deque<long[]> marks = new ArrayDeque<>();
+
+    private volatile double throughput;
+    private volatile long p50 = StopWatch.NOT_SET;
+    private volatile long p90 = StopWatch.NOT_SET;
+    private volatile long p99 = StopWatch.NOT_SET;
+    private volatile long max = StopWatch.NOT_SET;
+
+    /**
+     * @param description the package description, or null for the metrics of the whole engine
+     * @param intervals the number of intervals in the window percentiles and throughput cover
+     */
+    public LiveMetrics(String engine, String description, int intervals) {
+        this.engine = engine;
+        this.description = description;
+        this.intervals = Math.max(intervals, 1);
+        this.marks.add(new long[] {System.nanoTime(), 0});
+    }
+
+    public void started() {
+        started.increment();
+    }
+
+    public void finished(QueryUnitResult result) {
+        if(!QueryUnitResult.Status.SUCCESS.equals(result.getStatus())) {
+            failed();
+            return;
+        }
+
+        completed.increment();
+        if(!result.isWarmup() && result.getDuration() != StopWatch.NOT_SET) {
+            long latency = Math.max(result.getDuration(), 0);
+            recorder.recordValue(latency);
+            latencyCount.increment();
+            latencySum.add(latency);
+        }
+    }
+
+    /**
+     * Counts an execution that failed without a result.
+     */
+    public void failed() {
+        failed.increment();
+    }
+
+    /**
+     * Closes the current interval: percentiles and throughput now describe the executions
+     * that finished during the last {@code intervals} intervals.
+     */
+    synchronized void roll() {
+        long now = System.nanoTime();
+        long finished = completed.sum() + failed.sum();
+
+        window.addLast(recorder.getIntervalHistogram());
+        if(window.size() > intervals) {
+            window.removeFirst();
+        }
+        marks.addLast(new long[] {now, finished});
+        if(marks.size() > intervals + 1) {
+            marks.removeFirst();
+        }
+
+        long[] first = marks.getFirst();
+        long elapsed = now - first[0];
+        throughput = elapsed <= 0 ? 0 : (finished - first[1]) / (elapsed / 1_000_000_000.0);
+
+        Histogram merged = new Histogram(3);
+        for(Histogram interval : window) {
+            merged.add(interval);
+        }
+        boolean empty = merged.getTotalCount() == 0;
+        p50 = empty ? StopWatch.NOT_SET : merged.getValueAtPercentile(50);
+        p90 = empty ? StopWatch.NOT_SET : merged.getValueAtPercentile(90);
+        p99 = empty ? StopWatch.NOT_SET : merged.getValueAtPercentile(99);
+        max = empty ? StopWatch.NOT_SET : merged.getMaxValue();
+    }
+
+    @Override
+    public String getEngine() {
+        return engine;
+    }
+
+    @Override
+    public String getPackage() {
+        return description;
+    }
+
+    @Override
+    public long getStarted() {
+        return started.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        // Read the finished counts first so a concurrent completion never makes it negative
+        long finished = completed.sum() + failed.sum();
+        return Math.max(started.sum() - finished, 0);
+    }
+
+    @Override
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public double getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public double getLatencyP50Ms() {
+        return toMillis(p50);
+    }
+
+    @Override
+    public double getLatencyP90Ms() {
+        return toMillis(p90);
+    }
+
+    @Override
+    public double getLatencyP99Ms() {
+        return toMillis(p99);
+    }
+
+    @Override
+    public double getLatencyMaxMs() {
+        return toMillis(max);
+    }
+
+    @Override
+    public long getLatencyCount() {
+        return latencyCount.sum();
+    }
+
+    @Override
+    public double getLatencySumMs() {
+        return latencySum.sum() / 1_000_000.0;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos == StopWatch.NOT_SET ? Double.NaN : nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.metrics;
+
+/**
+ * JMX view of the {@link LiveMetrics} of an engine or of one of its packages. Rates and
+ * percentiles cover the rolling window of the {@link MetricsRegistry}, the latency count and
+ * sum the whole run.
+ */
+public interface LiveMetricsMXBean {
+
+    String getEngine();
+
+    String getPackage();
+
+    long getStarted();
+
+    long getInFlight();
+
+    long getCompleted();
+
+    long getFailed();
+
+    double getThroughput();
+
+    double getLatencyP50Ms();
+
+    double getLatencyP90Ms();
+
+    double getLatencyP99Ms();
+
+    double getLatencyMaxMs();
+
+    long getLatencyCount();
+
+    double getLatencySumMs();
+}
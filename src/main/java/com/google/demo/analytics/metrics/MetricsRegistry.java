@@ -0,0 +1,136 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.metrics;
+
+import com.google.demo.analytics.util.ThreadPools;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the {@link LiveMetrics} of every engine and package of a run, registers them as MBeans
+ * under {@value #DOMAIN} when JMX is enabled, and rolls them every {@code intervalMs} from a
+ * single background thread, over a window of {@code intervals} intervals.
+ */
+public class MetricsRegistry {
+
+    private Logger logger = LogManager.getLogger();
+
+    public static final String DOMAIN = "com.google.demo.analytics";
+
+    private final ConcurrentMap<List<String>, LiveMetrics> metrics = new ConcurrentHashMap<>();
+    private final int intervals;
+    private final boolean jmx;
+    private final ScheduledExecutorService roller;
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    public MetricsRegistry(long intervalMs, int intervals, boolean jmx) {
+        this.intervals = intervals;
+        this.jmx = jmx;
+        this.roller = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreads("metrics"));
+        roller.scheduleAtFixedRate(this::roll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the metrics of all the packages of an engine.
+     */
+    public LiveMetrics getEngineMetrics(String engine) {
+        return get(engine, null);
+    }
+
+    public LiveMetrics getPackageMetrics(String engine, String description) {
+        return get(engine, description);
+    }
+
+    /**
+     * Returns every metrics, engines first then their packages, in name order.
+     */
+    public List<LiveMetrics> getAll() {
+        List<LiveMetrics> all = new ArrayList<>(metrics.values());
+        all.sort(Comparator
+                .comparing(LiveMetrics::getEngine)
+                .thenComparing(m -> m.getPackage() == null ? "" : m.getPackage()));
+        return all;
+    }
+
+    public void close() {
+        roller.shutdownNow();
+        if(jmx) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (registered) {
+                for(ObjectName name : registered) {
+                    try {
+                        server.unregisterMBean(name);
+                    } catch (JMException e) {
+                        logger.log(Level.WARN, String.format("Error unregistering %s: %s", name, e.getMessage()));
+                    }
+                }
+                registered.clear();
+            }
+        }
+    }
+
+    private LiveMetrics get(String engine, String description) {
+        List<String> key = new ArrayList<>(2);
+        key.add(engine);
+        key.add(description);
+        return metrics.computeIfAbsent(key, k -> register(new LiveMetrics(engine, description, intervals)));
+    }
+
+    private LiveMetrics register(LiveMetrics live) {
+        if(!jmx) {
+            return live;
+        }
+
+        try {
+            String name = DOMAIN + ":type=LiveMetrics,engine=" + ObjectName.quote(live.getEngine());
+            if(live.getPackage() != null) {
+                name += ",package=" + ObjectName.quote(live.getPackage());
+            }
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(live, objectName);
+            synchronized (registered) {
+                registered.add(objectName);
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARN, String.format(
+                    "Error registering the metrics of %s %s: %s",
+                    live.getEngine(),
+                    live.getPackage(),
+                    e.getMessage()));
+        }
+        return live;
+    }
+
+    private void roll() {
+        for(LiveMetrics live : metrics.values()) {
+            live.roll();
+        }
+    }
+}
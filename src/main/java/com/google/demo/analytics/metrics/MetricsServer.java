@@ -0,0 +1,142 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.metrics;
+
+import com.google.demo.analytics.util.ThreadPools;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics of a {@link MetricsRegistry} at {@code /metrics} in the Prometheus text
+ * format, from a single daemon thread.
+ */
+public class MetricsServer {
+
+    private Logger logger = LogManager.getLogger();
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public MetricsServer(MetricsRegistry registry, String host, int port) throws IOException {
+        this.registry = registry;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = Executors.newSingleThreadExecutor(ThreadPools.daemonThreads("metrics-http"));
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        logger.log(Level.INFO, String.format("Serving metrics on http://%s:%d/metrics", host, getPort()));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = format(registry.getAll()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static String format(List<LiveMetrics> all) {
+        StringBuilder out = new StringBuilder();
+
+        header(out, "analytics_queries_started_total", "counter", "Executions started");
+        for(LiveMetrics live : all) {
+            sample(out, "analytics_queries_started_total", live, null, live.getStarted());
+        }
+        header(out, "analytics_queries_in_flight", "gauge", "Executions currently running");
+        for(LiveMetrics live : all) {
+            sample(out, "analytics_queries_in_flight", live, null, live.getInFlight());
+        }
+        header(out, "analytics_queries_completed_total", "counter", "Executions that succeeded");
+        for(LiveMetrics live : all) {
+            sample(out, "analytics_queries_completed_total", live, null, live.getCompleted());
+        }
+        header(out, "analytics_queries_failed_total", "counter", "Executions that failed");
+        for(LiveMetrics live : all) {
+            sample(out, "analytics_queries_failed_total", live, null, live.getFailed());
+        }
+        header(out, "analytics_queries_per_second", "gauge", "Executions finished per second over the rolling window");
+        for(LiveMetrics live : all) {
+            sample(out, "analytics_queries_per_second", live, null, live.getThroughput());
+        }
+        // The quantiles cover the rolling window, the sum and the count the whole run
+        header(out, "analytics_query_latency_seconds", "summary", "Latency of the successful executions");
+        for(LiveMetrics live : all) {
+            sample(out, "analytics_query_latency_seconds", live, "0.5", live.getLatencyP50Ms() / 1000);
+            sample(out, "analytics_query_latency_seconds", live, "0.9", live.getLatencyP90Ms() / 1000);
+            sample(out, "analytics_query_latency_seconds", live, "0.99", live.getLatencyP99Ms() / 1000);
+            sample(out, "analytics_query_latency_seconds", live, "1", live.getLatencyMaxMs() / 1000);
+            sample(out, "analytics_query_latency_seconds_sum", live, null, live.getLatencySumMs() / 1000);
+            sample(out, "analytics_query_latency_seconds_count", live, null, live.getLatencyCount());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, LiveMetrics live, String quantile, double value) {
+        out.append(name).append("{engine=\"").append(escape(live.getEngine())).append('"');
+        if(live.getPackage() != null) {
+            out.append(",package=\"").append(escape(live.getPackage())).append('"');
+        }
+        if(quantile != null) {
+            out.append(",quantile=\"").append(quantile).append('"');
+        }
+        out.append("} ");
+        if(Double.isNaN(value)) {
+            out.append("NaN");
+        } else if(value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.model;
+
+import java.io.Serializable;
+
+/**
+ * Cost and execution statistics reported by BigQuery for a finished query job. Stage
+ * ratios are averaged over the stages of the query plan (for the {@code Avg} values) or
+ * the highest of any stage (for the {@code Max} values).
+ */
+public class BigQueryStatistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long totalBytesProcessed;
+    private Long totalBytesBilled;
+    private Boolean cacheHit;
+    private Integer billingTier;
+    private long executionMs = -1;
+
+    private int stages = 0;
+    private double waitRatioAvg;
+    private double readRatioAvg;
+    private double computeRatioAvg;
+    private double writeRatioAvg;
+    private double waitRatioMax;
+    private double readRatioMax;
+    private double computeRatioMax;
+    private double writeRatioMax;
+
+    public BigQueryStatistics(
+            Long totalBytesProcessed,
+            Long totalBytesBilled,
+            Boolean cacheHit,
+            Integer billingTier,
+            long executionMs) {
+        this.totalBytesProcessed = totalBytesProcessed;
+        this.totalBytesBilled = totalBytesBilled;
+        this.cacheHit = cacheHit;
+        this.billingTier = billingTier;
+        this.executionMs = executionMs;
+    }
+
+    /**
+     * Adds a stage of the query plan, ratios are relative to the slowest stage of the query.
+     */
+    public void addStage(double waitRatioAvg, double readRatioAvg, double computeRatioAvg, double writeRatioAvg,
+                         double waitRatioMax, double readRatioMax, double computeRatioMax, double writeRatioMax) {
+        stages++;
+        this.waitRatioAvg += (waitRatioAvg - this.waitRatioAvg) / stages;
+        this.readRatioAvg += (readRatioAvg - this.readRatioAvg) / stages;
+        this.computeRatioAvg += (computeRatioAvg - this.computeRatioAvg) / stages;
+        this.writeRatioAvg += (writeRatioAvg - this.writeRatioAvg) / stages;
+        this.waitRatioMax = Math.max(this.waitRatioMax, waitRatioMax);
+        this.readRatioMax = Math.max(this.readRatioMax, readRatioMax);
+        this.computeRatioMax = Math.max(this.computeRatioMax, computeRatioMax);
+        this.writeRatioMax = Math.max(this.writeRatioMax, writeRatioMax);
+    }
+
+    public Long getTotalBytesProcessed() {
+        return totalBytesProcessed;
+    }
+
+    public Long getTotalBytesBilled() {
+        return totalBytesBilled;
+    }
+
+    public Boolean getCacheHit() {
+        return cacheHit;
+    }
+
+    public Integer getBillingTier() {
+        return billingTier;
+    }
+
+    /**
+     * Returns the time (in ms) between the start and the end of the job, or -1 if unknown.
+     */
+    public long getExecutionMs() {
+        return executionMs;
+    }
+
+    public int getStages() {
+        return stages;
+    }
+
+    public double getWaitRatioAvg() {
+        return waitRatioAvg;
+    }
+
+    public double getReadRatioAvg() {
+        return readRatioAvg;
+    }
+
+    public double getComputeRatioAvg() {
+        return computeRatioAvg;
+    }
+
+    public double getWriteRatioAvg() {
+        return writeRatioAvg;
+    }
+
+    public double getWaitRatioMax() {
+        return waitRatioMax;
+    }
+
+    public double getReadRatioMax() {
+        return readRatioMax;
+    }
+
+    public double getComputeRatioMax() {
+        return computeRatioMax;
+    }
+
+    public double getWriteRatioMax() {
+        return writeRatioMax;
+    }
+}
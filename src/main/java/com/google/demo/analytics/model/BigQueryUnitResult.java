@@ -16,40 +16,60 @@
 
 package com.google.demo.analytics.model;
 
+import com.google.demo.analytics.util.StopWatch;
+
 public class BigQueryUnitResult extends QueryUnitResult {
 
+    private static final long serialVersionUID = 1L;
+
     private String jobId;
+    private BigQueryStatistics statistics;
 
     public BigQueryUnitResult(
             QueryUnit queryUnit,
             Status status,
-            String duration,
             String errorMessage,
             String jobId,
-            String start,
-            String end) {
-        super(queryUnit, status, duration, errorMessage, start, end);
+            StopWatch stopWatch) {
+        super(queryUnit, status, errorMessage, stopWatch);
         this.jobId = jobId;
     }
 
     public static BigQueryUnitResult createSuccess(
             QueryUnit queryUnit,
             String jobId,
-            String duration,
-            String start,
-            String end) {
-        return new BigQueryUnitResult(queryUnit, Status.SUCCESS, duration, null, jobId, start, end);
+            StopWatch stopWatch) {
+        return new BigQueryUnitResult(queryUnit, Status.SUCCESS, null, jobId, stopWatch);
     }
 
     public static BigQueryUnitResult createFail(
             QueryUnit queryUnit,
             String jobId,
             String errorMessage,
-            String start) {
-        return new BigQueryUnitResult(queryUnit, Status.FAIL, null, errorMessage, jobId, start, null);
+            StopWatch stopWatch) {
+        return new BigQueryUnitResult(queryUnit, Status.FAIL, errorMessage, jobId, stopWatch);
+    }
+
+    public static BigQueryUnitResult createTimeout(
+            QueryUnit queryUnit,
+            String jobId,
+            String errorMessage,
+            StopWatch stopWatch) {
+        return new BigQueryUnitResult(queryUnit, Status.TIMEOUT, errorMessage, jobId, stopWatch);
+    }
+
+    public void setStatistics(BigQueryStatistics statistics) {
+        this.statistics = statistics;
     }
 
     public String getJobId() {
         return jobId;
     }
+
+    /**
+     * Returns the statistics reported by BigQuery, or null if the job did not complete.
+     */
+    public BigQueryStatistics getStatistics() {
+        return statistics;
+    }
 }
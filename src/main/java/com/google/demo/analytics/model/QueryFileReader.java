@@ -0,0 +1,174 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.model;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the query units of a query file, one line at a time. Lines are
+ * {@code id|query|count|value...}, lines starting with {@code #} are comments and the line
+ * whose first column is {@code id} holds the names of the extra value columns. The file is
+ * closed once the last unit has been read.
+ */
+public class QueryFileReader implements Iterator<QueryUnit>, Closeable {
+
+    public static final char DELIMITER = '|';
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String platform;
+    private final String description;
+    private BufferedReader reader;
+    private QueryUnit next;
+
+    public QueryFileReader(Path file, String platform, String description) throws IOException {
+        this.platform = platform;
+        this.description = description;
+        this.reader = new BufferedReader(
+                Files.newBufferedReader(file, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the names of the extra value columns of a query file, or null if it has no header.
+     */
+    public static List<String> readHeader(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("#")) {
+                    continue;
+                }
+
+                List<String> columns = split(line);
+                if(columns.size() >= 3 && "id".equals(columns.get(0))) {
+                    return new ArrayList<>(columns.subList(3, columns.size()));
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next == null && reader != null) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public QueryUnit next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        QueryUnit queryUnit = next;
+        next = null;
+        return queryUnit;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private QueryUnit readNext() throws IOException {
+        String line;
+        while((line = reader.readLine()) != null) {
+            //Skip comments
+            if(line.startsWith("#")) {
+                continue;
+            }
+
+            List<String> columns = split(line);
+            // Skip incomplete lines and the headers line
+            if(columns.size() < 3 || "id".equals(columns.get(0))) {
+                continue;
+            }
+
+            return new QueryUnit(
+                    columns.get(0),
+                    platform,
+                    description,
+                    columns.get(1),
+                    parseCount(columns.get(2)),
+                    new ArrayList<>(columns.subList(3, columns.size())));
+        }
+
+        close();
+        return null;
+    }
+
+    /**
+     * Splits a line on {@link #DELIMITER}, dropping trailing empty columns like {@link String#split(String)}.
+     */
+    static List<String> split(String line) {
+        List<String> columns = new ArrayList<>();
+        int start = 0;
+        int end;
+        while((end = line.indexOf(DELIMITER, start)) >= 0) {
+            columns.add(line.substring(start, end));
+            start = end + 1;
+        }
+        columns.add(line.substring(start));
+
+        int size = columns.size();
+        while(size > 0 && columns.get(size - 1).isEmpty()) {
+            columns.remove(--size);
+        }
+        return columns;
+    }
+
+    /**
+     * Parses the repetition count of a query, defaulting to 1 when it is not an integer.
+     */
+    static int parseCount(String value) {
+        int length = value.length();
+        int i = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        if(i == length) {
+            return 1;
+        }
+
+        long count = 0;
+        for(; i < length; i++) {
+            char c = value.charAt(i);
+            if(c < '0' || c > '9') {
+                return 1;
+            }
+            count = count * 10 + (c - '0');
+            if(count > Integer.MAX_VALUE) {
+                return 1;
+            }
+        }
+        return value.charAt(0) == '-' ? (int) -count : (int) count;
+    }
+}
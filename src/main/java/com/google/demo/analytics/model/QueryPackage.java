@@ -15,6 +15,8 @@
 */
 package com.google.demo.analytics.model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,7 +25,8 @@ public class QueryPackage {
 
     private String engine;
     private String description;
-    private List<QueryUnit> queryUnits = new ArrayList<>();
+    private Iterable<QueryUnit> queryUnits = new ArrayList<>();
+    private Path file;
 
     public QueryPackage(String engine, String description, List<QueryUnit> queryUnits) {
         this.engine = engine;
@@ -31,6 +34,23 @@ public class QueryPackage {
         this.queryUnits = queryUnits;
     }
 
+    /**
+     * Creates a package whose query units are streamed from {@code file} every time they are
+     * iterated, so the queries of large workloads are never all held in memory.
+     */
+    public QueryPackage(String engine, String description, Path file) {
+        this.engine = engine;
+        this.description = description;
+        this.file = file;
+        this.queryUnits = () -> {
+            try {
+                return new QueryFileReader(file, engine, description);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
     public String getEngine() {
         return engine;
     }
@@ -39,7 +59,14 @@ public class QueryPackage {
         return description;
     }
 
-    public List<QueryUnit> getQueryUnits() {
+    public Iterable<QueryUnit> getQueryUnits() {
         return queryUnits;
     }
+
+    /**
+     * Returns the file the query units are read from, or null if they are held in memory.
+     */
+    public Path getFile() {
+        return file;
+    }
 }
@@ -16,10 +16,13 @@
 
 package com.google.demo.analytics.model;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-public class QueryUnit {
+public class QueryUnit implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String id;
     private String platform;
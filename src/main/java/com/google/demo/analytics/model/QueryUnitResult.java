@@ -15,36 +15,147 @@
 */
 package com.google.demo.analytics.model;
 
-public class QueryUnitResult {
+import com.google.demo.analytics.util.StopWatch;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class QueryUnitResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public enum Status {
         SUCCESS,
-        FAIL
+        FAIL,
+        /** Cancelled by the benchmark after the timeout of the query. */
+        TIMEOUT
     }
 
     private QueryUnit queryUnit;
     private Status status;
-    private String duration;
     private String errorMessage;
-    private String start;
-    private String end;
+    // Only needed where the execution ran, to decide whether to retry it
+    private transient Throwable cause;
+    private long start = StopWatch.NOT_SET;
+    private long startNanos = StopWatch.NOT_SET;
+    private long[] phases;
+
+    private long intendedStartNanos = StopWatch.NOT_SET;
+    private boolean warmup = false;
+
+    private long rowCount = -1;
+    private long byteCount = -1;
 
-    public QueryUnitResult(
-            QueryUnit queryUnit, Status status, String duration, String errorMessage, String start, String end) {
+    private String parameters;
+    private String checksum;
+
+    private List<QueryUnitResult> previousAttempts = Collections.emptyList();
+
+    private long driverCpuNanos = StopWatch.NOT_SET;
+    private long driverAllocatedBytes = -1;
+    private long driverGcNanos = StopWatch.NOT_SET;
+
+    public QueryUnitResult(QueryUnit queryUnit, Status status, String errorMessage, StopWatch stopWatch) {
         this.queryUnit = queryUnit;
         this.status = status;
-        this.duration = duration;
         this.errorMessage = errorMessage;
-        this.start = start;
-        this.end = end;
+        if(stopWatch != null) {
+            this.start = stopWatch.getStart();
+            this.startNanos = stopWatch.getStartNanos();
+            this.phases = stopWatch.getPhases();
+        } else {
+            this.phases = new long[StopWatch.Phase.values().length];
+            Arrays.fill(this.phases, StopWatch.NOT_SET);
+        }
     }
 
-    public static QueryUnitResult createSuccess(QueryUnit queryUnit, String duration, String start, String end) {
-        return new QueryUnitResult(queryUnit, Status.SUCCESS, duration, null, start, end);
+    public static QueryUnitResult createSuccess(QueryUnit queryUnit, StopWatch stopWatch) {
+        return new QueryUnitResult(queryUnit, Status.SUCCESS, null, stopWatch);
     }
 
-    public static QueryUnitResult createFail(QueryUnit queryUnit, String errorMessage, String start) {
-        return new QueryUnitResult(queryUnit, Status.FAIL, null, errorMessage, start, null);
+    public static QueryUnitResult createFail(QueryUnit queryUnit, String errorMessage, StopWatch stopWatch) {
+        return new QueryUnitResult(queryUnit, Status.FAIL, errorMessage, stopWatch);
+    }
+
+    public static QueryUnitResult createTimeout(QueryUnit queryUnit, String errorMessage, StopWatch stopWatch) {
+        return new QueryUnitResult(queryUnit, Status.TIMEOUT, errorMessage, stopWatch);
+    }
+
+    /**
+     * Records the size of a drained result set. Counts are -1 when the result set was not drained.
+     */
+    public void setFetchStatistics(long rowCount, long byteCount) {
+        this.rowCount = rowCount;
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * Records the monotonic time (in ns) at which an open loop schedule meant to start this execution.
+     */
+    public void setIntendedStart(long intendedStartNanos) {
+        this.intendedStartNanos = intendedStartNanos;
+    }
+
+    /**
+     * Records the parameter values the query template was bound with for this execution.
+     */
+    public void setParameters(String parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Records the order insensitive checksum of the rows returned by the execution.
+     */
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * Records the exception the execution failed with, to tell transient errors from permanent ones.
+     */
+    public void setCause(Throwable cause) {
+        this.cause = cause;
+    }
+
+    /**
+     * Records the failed attempts that were retried before this one, in order.
+     */
+    public void setPreviousAttempts(List<QueryUnitResult> previousAttempts) {
+        this.previousAttempts = previousAttempts;
+    }
+
+    /**
+     * Records what the execution cost the driver: the CPU time (in ns) and the bytes allocated by
+     * the thread that ran it, {@link StopWatch#NOT_SET} and -1 when unknown, and the GC
+     * overlapping the execution, the time (in ns) the JVM was paused for garbage collection.
+     */
+    public void setDriverProfile(long cpuNanos, long allocatedBytes, long gcNanos) {
+        this.driverCpuNanos = cpuNanos;
+        this.driverAllocatedBytes = allocatedBytes;
+        this.driverGcNanos = gcNanos;
+    }
+
+    /**
+     * Moves the monotonic times of the execution, and of its previous attempts, by
+     * {@code offsetNanos}, to compare them with those of another JVM.
+     */
+    public void shiftNanos(long offsetNanos) {
+        if(startNanos != StopWatch.NOT_SET) {
+            startNanos += offsetNanos;
+        }
+        if(intendedStartNanos != StopWatch.NOT_SET) {
+            intendedStartNanos += offsetNanos;
+        }
+        for(QueryUnitResult attempt : previousAttempts) {
+            attempt.shiftNanos(offsetNanos);
+        }
+    }
+
+    public void setWarmup(boolean warmup) {
+        this.warmup = warmup;
     }
 
     public QueryUnit getQueryUnit() {
@@ -55,19 +166,158 @@ public class QueryUnitResult {
         return status;
     }
 
-    public String getDuration() {
-        return duration;
+    /**
+     * Returns the latency (in ns) of the query, or {@link StopWatch#NOT_SET} if it did not complete.
+     */
+    public long getDuration() {
+        return getPhase(StopWatch.Phase.COMPLETE);
+    }
+
+    public long getPhase(StopWatch.Phase phase) {
+        return phases[phase.ordinal()];
     }
 
     public String getErrorMessage() {
         return errorMessage;
     }
 
-    public String getStart() {
+    /**
+     * Returns the exception the execution failed with, or null if it succeeded or failed without one.
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+    public List<QueryUnitResult> getPreviousAttempts() {
+        return previousAttempts;
+    }
+
+    /**
+     * Returns the number of attempts of the execution, 1 unless it was retried.
+     */
+    public int getAttempts() {
+        return previousAttempts.size() + 1;
+    }
+
+    /**
+     * Returns the latency (in ns) from the submission of the first attempt to the completion of
+     * this one, backoffs included, or {@link StopWatch#NOT_SET} if it did not complete.
+     */
+    public long getDurationWithRetries() {
+        long firstStartNanos = getFirstStartNanos();
+        if(firstStartNanos == StopWatch.NOT_SET || startNanos == StopWatch.NOT_SET
+                || getDuration() == StopWatch.NOT_SET) {
+            return StopWatch.NOT_SET;
+        }
+        return startNanos + getDuration() - firstStartNanos;
+    }
+
+    /**
+     * Returns the wall clock time (in ms) at which the query was submitted.
+     */
+    public long getStart() {
         return start;
     }
 
-    public String getEnd() {
-        return end;
+    /**
+     * Returns the monotonic time (in ns) at which the query was submitted.
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * Returns the wall clock time (in ms) at which the query completed.
+     */
+    public long getEnd() {
+        if(start == StopWatch.NOT_SET || getDuration() == StopWatch.NOT_SET) {
+            return StopWatch.NOT_SET;
+        }
+        return start + TimeUnit.NANOSECONDS.toMillis(getDuration());
+    }
+
+    /**
+     * Returns whether this execution ran while the engine was still warming up.
+     */
+    public boolean isWarmup() {
+        return warmup;
+    }
+
+    public long getIntendedStartNanos() {
+        return intendedStartNanos;
+    }
+
+    /**
+     * Returns the latency (in ns) measured from the intended start of the execution, or
+     * {@link StopWatch#NOT_SET} if the execution was not scheduled or did not complete.
+     */
+    public long getDurationFromIntendedStart() {
+        if(intendedStartNanos == StopWatch.NOT_SET || startNanos == StopWatch.NOT_SET
+                || getDuration() == StopWatch.NOT_SET) {
+            return StopWatch.NOT_SET;
+        }
+        return startNanos + getDuration() - intendedStartNanos;
+    }
+
+    /**
+     * Returns the time (in ns) between the intended start of the execution and the submission
+     * of its first attempt, or {@link StopWatch#NOT_SET} if the execution was not scheduled.
+     */
+    public long getScheduleDelay() {
+        long firstStartNanos = getFirstStartNanos();
+        if(intendedStartNanos == StopWatch.NOT_SET || firstStartNanos == StopWatch.NOT_SET) {
+            return StopWatch.NOT_SET;
+        }
+        return firstStartNanos - intendedStartNanos;
+    }
+
+    private long getFirstStartNanos() {
+        return previousAttempts.isEmpty() ? startNanos : previousAttempts.get(0).getStartNanos();
+    }
+
+    /**
+     * Returns the parameter values of the execution, or null if the query is not a template.
+     */
+    public String getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the checksum of the rows returned by the execution, or null if it was not computed.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public long getDriverCpuNanos() {
+        return driverCpuNanos;
+    }
+
+    public long getDriverAllocatedBytes() {
+        return driverAllocatedBytes;
+    }
+
+    public long getDriverGcNanos() {
+        return driverGcNanos;
+    }
+
+    /**
+     * Returns the time (in ns) the driver spent on the execution rather than waiting for the
+     * engine, its CPU time plus the GC overlapping the execution, or {@link StopWatch#NOT_SET} if the
+     * execution was not profiled.
+     */
+    public long getDriverOverhead() {
+        if(driverCpuNanos == StopWatch.NOT_SET && driverGcNanos == StopWatch.NOT_SET) {
+            return StopWatch.NOT_SET;
+        }
+        return Math.max(0, driverCpuNanos) + Math.max(0, driverGcNanos);
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
     }
 }
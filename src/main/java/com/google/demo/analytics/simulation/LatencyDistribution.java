@@ -0,0 +1,81 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.simulation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws the latencies of the queries of the simulated engine. Implementations must be thread
+ * safe, they are given the random generator of the calling thread.
+ */
+public interface LatencyDistribution {
+
+    double DEFAULT_SIGMA = 0.25;
+
+    /**
+     * @return the next latency, in ns
+     */
+    long nextNanos(Random random);
+
+    /**
+     * Creates a distribution from its specification, all times in ms:
+     * <ul>
+     *     <li>{@code fixed:ms} always takes the same time</li>
+     *     <li>{@code lognormal:median,sigma} follows a lognormal distribution of the given median
+     *     and shape, sigma defaults to 0.25</li>
+     *     <li>{@code bimodal:fast,slow,fraction,sigma} mixes two lognormal distributions of medians
+     *     fast and slow, a fraction of the queries being slow, sigma defaults to 0.25</li>
+     * </ul>
+     */
+    static LatencyDistribution fromSpec(String spec) {
+        int colon = spec.indexOf(':');
+        if(colon < 0) {
+            throw new IllegalArgumentException(String.format("Invalid latency distribution %s", spec));
+        }
+
+        String type = spec.substring(0, colon).trim();
+        String[] arguments = spec.substring(colon + 1).split(",");
+        try {
+            if("fixed".equals(type) && arguments.length == 1) {
+                long nanos = toNanos(arguments[0]);
+                return random -> nanos;
+            } else if("lognormal".equals(type) && arguments.length <= 2) {
+                return lognormal(
+                        toNanos(arguments[0]),
+                        arguments.length > 1 ? Double.parseDouble(arguments[1]) : DEFAULT_SIGMA);
+            } else if("bimodal".equals(type) && (arguments.length == 3 || arguments.length == 4)) {
+                double sigma = arguments.length > 3 ? Double.parseDouble(arguments[3]) : DEFAULT_SIGMA;
+                LatencyDistribution fast = lognormal(toNanos(arguments[0]), sigma);
+                LatencyDistribution slow = lognormal(toNanos(arguments[1]), sigma);
+                double fraction = Double.parseDouble(arguments[2]);
+                return random -> random.nextDouble() < fraction ? slow.nextNanos(random) : fast.nextNanos(random);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid latency distribution %s", spec), e);
+        }
+        throw new IllegalArgumentException(String.format("Unknown latency distribution %s", spec));
+    }
+
+    static LatencyDistribution lognormal(long medianNanos, double sigma) {
+        double mu = Math.log(medianNanos);
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    static long toNanos(String millis) {
+        return (long) (Double.parseDouble(millis.trim()) * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.simulation;
+
+import com.google.api.services.bigquery.model.ErrorProto;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobConfiguration;
+import com.google.api.services.bigquery.model.JobConfigurationQuery;
+import com.google.api.services.bigquery.model.JobReference;
+import com.google.api.services.bigquery.model.JobStatistics;
+import com.google.api.services.bigquery.model.JobStatistics2;
+import com.google.api.services.bigquery.model.JobStatus;
+import com.google.api.services.bigquery.model.QueryRequest;
+import com.google.api.services.bigquery.model.QueryResponse;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.RetryParams;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.spi.BigQueryRpc;
+import com.google.cloud.bigquery.spi.BigQueryRpcFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process BigQuery job API, so that the {@code BigQueryExecutor} and the job poller can
+ * be load tested without a project. Jobs ignore their query and are done once a latency drawn
+ * from a {@link LatencyDistribution} has elapsed, a {@code failureRate} fraction of them with a
+ * backend error. Every API call blocks the calling thread for a latency drawn from
+ * {@code rpcLatency}, like a round trip to the API would.
+ *
+ * <p>The simulation sits behind the {@link BigQueryRpc} of a regular BigQuery client, so the
+ * client builds the jobs and responses from the API resources as it would against the service.
+ * Only the calls made by the executor to run and track jobs are supported: creating jobs,
+ * running queries, getting and cancelling jobs. Query results are not simulated, so checksums
+ * cannot be computed. A job is forgotten once it has been reported done.
+ */
+public class SimulatedBigQuery {
+
+    public static final String PROJECT_ID = "simulated";
+    public static final String FAILURE_REASON = "backendError";
+    public static final String FAILURE_MESSAGE = "Simulated failure";
+    public static final String CANCELLED_REASON = "stopped";
+
+    private final LatencyDistribution latency;
+    private final LatencyDistribution rpcLatency;
+    private final double failureRate;
+    private final Map<String, SimulatedJob> jobs = new ConcurrentHashMap<>();
+    private final BigQuery bigquery;
+
+    public SimulatedBigQuery(LatencyDistribution latency, LatencyDistribution rpcLatency, double failureRate) {
+        this.latency = latency;
+        this.rpcLatency = rpcLatency;
+        this.failureRate = failureRate;
+
+        BigQueryRpc rpc = (BigQueryRpc) Proxy.newProxyInstance(
+                SimulatedBigQuery.class.getClassLoader(),
+                new Class<?>[] {BigQueryRpc.class},
+                (self, method, args) -> {
+                    switch(method.getName()) {
+                        case "create":
+                            if(args[0] instanceof Job) {
+                                rpc();
+                                Job job = (Job) args[0];
+                                return submit(job.getJobReference(), toQuery(job.getConfiguration())).toJob(false);
+                            }
+                            break;
+                        case "query":
+                            rpc();
+                            return new QueryResponse()
+                                    .setJobReference(submit(null, ((QueryRequest) args[0]).getQuery()).jobReference)
+                                    .setJobComplete(false);
+                        case "getJob":
+                            rpc();
+                            return getJob((String) args[1]);
+                        case "cancel":
+                            rpc();
+                            return cancel((String) args[1]);
+                        case "getQueryResults":
+                            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Query results are not simulated");
+                        case "toString":
+                            return "SimulatedBigQuery";
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        case "equals":
+                            return self == args[0];
+                        default:
+                            break;
+                    }
+                    throw new UnsupportedOperationException(String.format("%s is not simulated", method.getName()));
+                });
+
+        // Simulated failures are reported to the executor, which has its own retries
+        BigQueryRpcFactory rpcFactory = options -> rpc;
+        this.bigquery = BigQueryOptions.newBuilder()
+                .setProjectId(PROJECT_ID)
+                .setCredentials(NoCredentials.getInstance())
+                .setRetryParams(RetryParams.noRetries())
+                .setServiceRpcFactory(rpcFactory)
+                .build()
+                .getService();
+    }
+
+    public BigQuery getBigQuery() {
+        return bigquery;
+    }
+
+    /**
+     * Returns the number of jobs that were not reported done yet.
+     */
+    public int getPending() {
+        return jobs.size();
+    }
+
+    private SimulatedJob submit(JobReference jobReference, String query) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        SimulatedJob job = new SimulatedJob(
+                jobReference != null && jobReference.getJobId() != null
+                        ? jobReference
+                        : new JobReference().setProjectId(PROJECT_ID).setJobId(UUID.randomUUID().toString()),
+                query,
+                latency.nextNanos(random),
+                random.nextDouble() < failureRate ? FAILURE_MESSAGE : null);
+        jobs.put(job.jobReference.getJobId(), job);
+        return job;
+    }
+
+    private Job getJob(String jobId) {
+        SimulatedJob job = jobs.get(jobId);
+        if(job == null) {
+            return null;
+        }
+
+        boolean done = job.isDone();
+        if(done) {
+            jobs.remove(jobId);
+        }
+        return job.toJob(done);
+    }
+
+    private boolean cancel(String jobId) {
+        SimulatedJob job = jobs.get(jobId);
+        if(job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    private void rpc() {
+        long nanos = rpcLatency.nextNanos(ThreadLocalRandom.current());
+        long deadline = System.nanoTime() + nanos;
+        for(long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static String toQuery(JobConfiguration configuration) {
+        return configuration != null && configuration.getQuery() != null
+                ? configuration.getQuery().getQuery()
+                : "";
+    }
+
+    private static class SimulatedJob {
+
+        private final JobReference jobReference;
+        private final String query;
+        private final long creationMillis = System.currentTimeMillis();
+        private final long createdNanos = System.nanoTime();
+        private long latencyNanos;
+        private String errorReason;
+        private String error;
+
+        SimulatedJob(JobReference jobReference, String query, long latencyNanos, String error) {
+            this.jobReference = jobReference;
+            this.query = query;
+            this.latencyNanos = latencyNanos;
+            this.errorReason = error != null ? FAILURE_REASON : null;
+            this.error = error;
+        }
+
+        synchronized boolean isDone() {
+            return System.nanoTime() - createdNanos >= latencyNanos;
+        }
+
+        synchronized void cancel() {
+            long elapsed = System.nanoTime() - createdNanos;
+            if(elapsed < latencyNanos) {
+                errorReason = CANCELLED_REASON;
+                error = "Job cancelled";
+                latencyNanos = elapsed;
+            }
+        }
+
+        /**
+         * Returns the job resource the API would, with its end time and error once done.
+         */
+        synchronized Job toJob(boolean done) {
+            JobStatus status = new JobStatus().setState(done ? "DONE" : "RUNNING");
+            if(done && errorReason != null) {
+                status.setErrorResult(new ErrorProto().setReason(errorReason).setMessage(error));
+            }
+
+            JobStatistics statistics = new JobStatistics()
+                    .setCreationTime(creationMillis)
+                    .setStartTime(creationMillis)
+                    .setQuery(new JobStatistics2()
+                            .setCacheHit(false)
+                            .setTotalBytesProcessed(0L)
+                            .setTotalBytesBilled(0L)
+                            .setBillingTier(1));
+            if(done) {
+                statistics.setEndTime(creationMillis + TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            }
+
+            return new Job()
+                    .setJobReference(jobReference)
+                    .setConfiguration(new JobConfiguration().setQuery(new JobConfigurationQuery().setQuery(query)))
+                    .setStatus(status)
+                    .setStatistics(statistics);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.simulation;
+
+import com.google.demo.analytics.util.ThreadPools;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process engine whose queries do nothing but take time. Asynchronous queries complete
+ * from a few timer threads, like jobs of an engine tracked by a poller, so no thread is held
+ * while they run. Blocking queries park the calling thread.
+ */
+public class SimulatedEngine {
+
+    private final ScheduledThreadPoolExecutor timers;
+
+    public SimulatedEngine(int timerThreads) {
+        timers = new ScheduledThreadPoolExecutor(timerThreads, ThreadPools.daemonThreads("simulated"));
+        timers.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return a future completed once {@code nanos} have elapsed
+     */
+    public CompletableFuture<Void> run(long nanos) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        timers.schedule(() -> future.complete(null), nanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    /**
+     * Blocks the calling thread for {@code nanos}.
+     */
+    public void runBlocking(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for(long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    public void close() {
+        timers.shutdownNow();
+    }
+}
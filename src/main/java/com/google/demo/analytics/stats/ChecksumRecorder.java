@@ -0,0 +1,97 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the distinct result checksums of every query of an engine. Executions of a query
+ * template are told apart by their parameter values, since different values legitimately
+ * return different rows. Engines draw the same values when they share the template seed.
+ */
+public class ChecksumRecorder {
+
+    private final String engine;
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> checksums = new ConcurrentHashMap<>();
+
+    public ChecksumRecorder(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Records the checksum of a successful execution, if it was computed.
+     */
+    public void record(QueryUnitResult result) {
+        if(result.getChecksum() == null || !QueryUnitResult.Status.SUCCESS.equals(result.getStatus())) {
+            return;
+        }
+
+        checksums.computeIfAbsent(getKey(result), key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(result.getChecksum(), checksum -> new LongAdder())
+                .increment();
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public List<String> getKeys() {
+        List<String> keys = new ArrayList<>(checksums.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Returns how many executions of a query returned each checksum, empty if none was recorded.
+     */
+    public Map<String, Long> getChecksums(String key) {
+        Map<String, Long> counts = new TreeMap<>();
+        Map<String, LongAdder> recorded = checksums.get(key);
+        if(recorded != null) {
+            for(Map.Entry<String, LongAdder> entry : recorded.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().sum());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the queries whose repetitions did not all return the same rows.
+     */
+    public List<String> getInconsistentKeys() {
+        List<String> keys = new ArrayList<>();
+        for(String key : getKeys()) {
+            if(checksums.get(key).size() > 1) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static String getKey(QueryUnitResult result) {
+        String id = result.getQueryUnit().getId();
+        return result.getParameters() == null ? id : id + "[" + result.getParameters() + "]";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.write.Writer;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Cross-checks the result checksums of several engines: one row per query with the
+ * checksums of every engine and a status, {@code OK}, {@code REPETITIONS_DIFFER} when an
+ * engine returned different rows across executions, or {@code ENGINES_DIFFER} when engines
+ * returned different rows. Every mismatch is also logged.
+ */
+public class ChecksumReport {
+
+    public static final String OK = "OK";
+    public static final String REPETITIONS_DIFFER = "REPETITIONS_DIFFER";
+    public static final String ENGINES_DIFFER = "ENGINES_DIFFER";
+
+    private Logger logger = LogManager.getLogger();
+
+    private final List<ChecksumRecorder> engines;
+
+    public ChecksumReport(List<ChecksumRecorder> engines) {
+        this.engines = engines;
+    }
+
+    /**
+     * Writes the report and returns the number of queries that did not check out.
+     */
+    public int write(Writer writer, String delimiter) throws IOException {
+        List<String> headers = new ArrayList<>(Arrays.asList("id"));
+        for(ChecksumRecorder engine : engines) {
+            headers.add(engine.getEngine() + "_checksum");
+        }
+        headers.add("status");
+        writer.writeHeader(String.join(delimiter, headers));
+
+        Set<String> keys = new TreeSet<>();
+        for(ChecksumRecorder engine : engines) {
+            keys.addAll(engine.getKeys());
+        }
+
+        int mismatches = 0;
+        for(String key : keys) {
+            List<String> values = new ArrayList<>(Arrays.asList(key));
+            Set<String> distinct = new HashSet<>();
+            List<String> statuses = new ArrayList<>();
+            for(ChecksumRecorder engine : engines) {
+                Map<String, Long> checksums = engine.getChecksums(key);
+                values.add(format(checksums));
+                distinct.addAll(checksums.keySet());
+                if(checksums.size() > 1 && !statuses.contains(REPETITIONS_DIFFER)) {
+                    statuses.add(REPETITIONS_DIFFER);
+                }
+            }
+            if(statuses.isEmpty() && distinct.size() > 1) {
+                statuses.add(ENGINES_DIFFER);
+            }
+
+            String status = statuses.isEmpty() ? OK : String.join(";", statuses);
+            if(!statuses.isEmpty()) {
+                mismatches++;
+                logger.log(Level.WARN, String.format("Results of %s do not match: %s %s", key, status, values.subList(1, values.size())));
+            }
+            values.add(status);
+            writer.write(Arrays.asList(String.join(delimiter, values)));
+        }
+
+        writer.close();
+        return mismatches;
+    }
+
+    /**
+     * Formats the checksums of an engine, with the number of executions that returned each
+     * when there are several.
+     */
+    private static String format(Map<String, Long> checksums) {
+        if(checksums.size() == 1) {
+            return checksums.keySet().iterator().next();
+        }
+        List<String> formatted = new ArrayList<>();
+        for(Map.Entry<String, Long> entry : checksums.entrySet()) {
+            formatted.add(entry.getKey() + "(" + entry.getValue() + ")");
+        }
+        return String.join(";", formatted);
+    }
+}
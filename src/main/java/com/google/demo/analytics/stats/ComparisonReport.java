@@ -0,0 +1,130 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.util.StopWatch;
+import com.google.demo.analytics.write.Writer;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Pivot of the summaries of the runs of several engines: one row per query id, with the median
+ * and p95 latency of every run, and the speedup of every run over a baseline run, i.e. the ratio
+ * of the baseline median to the run median. The last row compares all the queries. Every run of
+ * a sweep or of a query mode comparison is a column group of its own, so levels and query modes
+ * are never mixed up.
+ */
+public class ComparisonReport {
+
+    private final List<SummaryRecorder> engines;
+    private final SummaryRecorder baseline;
+
+    /**
+     * @param engines the summaries of the runs to compare
+     * @param baseline the name of the baseline run, or the engine of which the first run is the
+     *                 baseline; the first run by default
+     */
+    public ComparisonReport(List<SummaryRecorder> engines, String baseline) {
+        if(engines.isEmpty()) {
+            throw new IllegalArgumentException("No engine to compare");
+        }
+        this.engines = engines;
+        this.baseline = engines.stream()
+                .filter(engine -> engine.getName().equals(baseline))
+                .findFirst()
+                .orElse(engines.stream()
+                        .filter(engine -> engine.getEngine().equals(baseline))
+                        .findFirst()
+                        .orElse(engines.get(0)));
+    }
+
+    public void write(Writer writer, String delimiter) throws IOException {
+        List<String> headers = new ArrayList<>(Arrays.asList("id"));
+        for(SummaryRecorder engine : engines) {
+            headers.add(engine.getName() + "_count");
+            headers.add(engine.getName() + "_errors");
+            headers.add(engine.getName() + "_p50_ms");
+            headers.add(engine.getName() + "_p95_ms");
+        }
+        for(SummaryRecorder engine : engines) {
+            if(engine != baseline) {
+                headers.add(engine.getName() + "_speedup_vs_" + baseline.getName());
+            }
+        }
+        writer.writeHeader(String.join(delimiter, headers));
+
+        TreeSet<String> ids = new TreeSet<>();
+        for(SummaryRecorder engine : engines) {
+            ids.addAll(engine.getQueryIds());
+        }
+
+        for(String id : ids) {
+            List<Summary> summaries = new ArrayList<>();
+            for(SummaryRecorder engine : engines) {
+                summaries.add(engine.getQuery(id));
+            }
+            writer.write(Arrays.asList(String.join(delimiter, getValues(id, summaries, baseline.getQuery(id)))));
+        }
+
+        List<Summary> totals = new ArrayList<>();
+        for(SummaryRecorder engine : engines) {
+            totals.add(engine.getTotal());
+        }
+        writer.write(Arrays.asList(String.join(delimiter, getValues(LatencyRecorder.ALL, totals, baseline.getTotal()))));
+        writer.close();
+    }
+
+    private List<String> getValues(String id, List<Summary> summaries, Summary baselineSummary) {
+        List<String> values = new ArrayList<>(Arrays.asList(id));
+        for(Summary summary : summaries) {
+            if(summary == null) {
+                values.addAll(Arrays.asList("", "", "", ""));
+                continue;
+            }
+            Histogram latencies = summary.getLatencies();
+            boolean empty = latencies.getTotalCount() == 0;
+            values.add(String.valueOf(latencies.getTotalCount()));
+            values.add(String.valueOf(summary.getFailures()));
+            values.add(empty ? "" : StopWatch.toMillis(latencies.getValueAtPercentile(50)));
+            values.add(empty ? "" : StopWatch.toMillis(latencies.getValueAtPercentile(95)));
+        }
+
+        long baselineMedian = median(baselineSummary);
+        for(int i = 0; i < engines.size(); i++) {
+            if(engines.get(i) == baseline) {
+                continue;
+            }
+            long median = median(summaries.get(i));
+            values.add(baselineMedian > 0 && median > 0
+                    ? String.format("%.3f", (double) baselineMedian / median)
+                    : "");
+        }
+        return values;
+    }
+
+    private static long median(Summary summary) {
+        if(summary == null) {
+            return 0;
+        }
+        Histogram latencies = summary.getLatencies();
+        return latencies.getTotalCount() == 0 ? 0 : latencies.getValueAtPercentile(50);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The time the driver spent on the measured executions of a run, see
+ * {@link QueryUnitResult#getDriverOverhead()}. Executions whose overhead is more than
+ * {@code maxFraction} of their latency are counted as driver-bound: their latency says as much
+ * about the driver as about the engine.
+ */
+public class DriverOverhead {
+
+    private final double maxFraction;
+    private final Histogram overheads = new ConcurrentHistogram(3);
+    private final LongAdder executions = new LongAdder();
+    private final Map<String, LongAdder> driverBound = new ConcurrentHashMap<>();
+    private double maxObserved;
+
+    public DriverOverhead(double maxFraction) {
+        this.maxFraction = maxFraction;
+    }
+
+    public void record(QueryUnitResult result) {
+        long overhead = result.getDriverOverhead();
+        long duration = result.getDuration();
+        if(result.isWarmup() || overhead == StopWatch.NOT_SET || duration == StopWatch.NOT_SET || duration <= 0) {
+            return;
+        }
+
+        executions.increment();
+        overheads.recordValue(overhead);
+        double fraction = (double) overhead / duration;
+        synchronized (this) {
+            maxObserved = Math.max(maxObserved, fraction);
+        }
+        if(fraction > maxFraction) {
+            driverBound.computeIfAbsent(result.getQueryUnit().getId(), id -> new LongAdder()).increment();
+        }
+    }
+
+    public double getMaxFraction() {
+        return maxFraction;
+    }
+
+    /**
+     * Returns the number of measured executions that were profiled.
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * Returns the number of driver-bound executions per query id.
+     */
+    public SortedMap<String, Long> getDriverBound() {
+        SortedMap<String, Long> counts = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : driverBound.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the highest fraction of its latency that an execution spent in the driver.
+     */
+    public synchronized double getMaxObserved() {
+        return maxObserved;
+    }
+
+    /**
+     * Returns the overheads (in ns) of the profiled executions.
+     */
+    public Histogram getHistogram() {
+        return overheads;
+    }
+}
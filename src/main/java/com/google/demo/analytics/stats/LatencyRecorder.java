@@ -0,0 +1,143 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency histograms (in ns) of every phase, per query id. Recording is safe from any
+ * number of threads and recorders can be merged, e.g. to aggregate several runs.
+ *
+ * <p>Executions scheduled in open loop are also recorded from their intended start, see
+ * {@link QueryUnitResult#getDurationFromIntendedStart()}, and every execution from the submission
+ * of its first attempt, see {@link QueryUnitResult#getDurationWithRetries()}.
+ */
+public class LatencyRecorder {
+
+    public static final String ALL = "ALL";
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final int FROM_INTENDED_START = StopWatch.Phase.values().length;
+    private static final int WITH_RETRIES = FROM_INTENDED_START + 1;
+
+    private final String engine;
+    private final ConcurrentMap<String, Histogram[]> histograms = new ConcurrentHashMap<>();
+
+    public LatencyRecorder(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Records the phases of a successful execution, failed executions are not recorded.
+     */
+    public void record(QueryUnitResult result) {
+        if(!QueryUnitResult.Status.SUCCESS.equals(result.getStatus())) {
+            return;
+        }
+
+        Histogram[] phases = histograms.computeIfAbsent(result.getQueryUnit().getId(), id -> newHistograms());
+        for(StopWatch.Phase phase : StopWatch.Phase.values()) {
+            long value = result.getPhase(phase);
+            if(value != StopWatch.NOT_SET) {
+                phases[phase.ordinal()].recordValue(Math.max(value, 0));
+            }
+        }
+
+        long fromIntendedStart = result.getDurationFromIntendedStart();
+        if(fromIntendedStart != StopWatch.NOT_SET) {
+            phases[FROM_INTENDED_START].recordValue(Math.max(fromIntendedStart, 0));
+        }
+
+        long withRetries = result.getDurationWithRetries();
+        if(withRetries != StopWatch.NOT_SET) {
+            phases[WITH_RETRIES].recordValue(Math.max(withRetries, 0));
+        }
+    }
+
+    public void merge(LatencyRecorder other) {
+        for(Map.Entry<String, Histogram[]> entry : other.histograms.entrySet()) {
+            Histogram[] phases = histograms.computeIfAbsent(entry.getKey(), id -> newHistograms());
+            for(int i = 0; i < phases.length; i++) {
+                phases[i].add(entry.getValue()[i]);
+            }
+        }
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public List<String> getQueryIds() {
+        List<String> ids = new ArrayList<>(histograms.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Returns the histogram of a phase for a query id, or for all the queries of the engine
+     * when {@code queryId} is {@link #ALL}.
+     */
+    public Histogram getHistogram(String queryId, StopWatch.Phase phase) {
+        return getHistogram(queryId, phase.ordinal());
+    }
+
+    /**
+     * Returns the histogram of the latencies measured from the intended start of open loop
+     * executions, for a query id or for {@link #ALL} the queries of the engine.
+     */
+    public Histogram getHistogramFromIntendedStart(String queryId) {
+        return getHistogram(queryId, FROM_INTENDED_START);
+    }
+
+    /**
+     * Returns the histogram of the latencies of executions including their failed attempts and
+     * backoffs, while the {@link StopWatch.Phase#COMPLETE} histogram only has the successful attempts.
+     */
+    public Histogram getHistogramWithRetries(String queryId) {
+        return getHistogram(queryId, WITH_RETRIES);
+    }
+
+    private Histogram getHistogram(String queryId, int index) {
+        if(ALL.equals(queryId)) {
+            Histogram merged = new Histogram(SIGNIFICANT_DIGITS);
+            for(Histogram[] phases : histograms.values()) {
+                merged.add(phases[index]);
+            }
+            return merged;
+        }
+
+        Histogram[] phases = histograms.get(queryId);
+        return phases == null ? new Histogram(SIGNIFICANT_DIGITS) : phases[index].copy();
+    }
+
+    private static Histogram[] newHistograms() {
+        Histogram[] phases = new Histogram[WITH_RETRIES + 1];
+        for(int i = 0; i < phases.length; i++) {
+            phases[i] = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        }
+        return phases;
+    }
+}
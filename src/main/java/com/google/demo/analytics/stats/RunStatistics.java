@@ -0,0 +1,82 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Throughput, error rate and end to end latency of a single run of a benchmark, read from the
+ * {@link Summary} of the whole run so that results are only recorded once. The throughput is
+ * over the wall time of the run rather than the span of its executions, warmup executions are
+ * left out.
+ */
+public class RunStatistics {
+
+    private final Summary summary;
+
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * @param summary the summary the measured executions of the run are recorded into
+     */
+    public RunStatistics(Summary summary) {
+        this.summary = summary;
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    public void stop() {
+        endNanos = System.nanoTime();
+    }
+
+    public long getExecutions() {
+        return summary.getExecutions();
+    }
+
+    public long getFailures() {
+        return summary.getFailures();
+    }
+
+    public double getErrorRate() {
+        return summary.getErrorRate();
+    }
+
+    /**
+     * Returns the wall time (in ns) of the run.
+     */
+    public long getElapsed() {
+        return endNanos - startNanos;
+    }
+
+    /**
+     * Returns the number of executions completed per second.
+     */
+    public double getThroughput() {
+        long elapsed = getElapsed();
+        return elapsed <= 0 ? 0 : getExecutions() / (elapsed / 1_000_000_000.0);
+    }
+
+    /**
+     * Returns the latencies (in ns) of the successful executions, measured from their
+     * intended start in open loop.
+     */
+    public Histogram getLatencies() {
+        return summary.getLatencies();
+    }
+}
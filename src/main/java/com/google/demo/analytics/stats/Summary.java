@@ -0,0 +1,98 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running statistics of a group of executions: latency distribution (in ns) of the successful
+ * ones, measured from their intended start in open loop, error count, and throughput over the
+ * time span the executions covered. Recording is safe from any number of threads.
+ */
+public class Summary {
+
+    private final Histogram latencies = new ConcurrentHistogram(3);
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong firstStartNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastEndNanos = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(QueryUnitResult result) {
+        executions.increment();
+        if(result.getStartNanos() != StopWatch.NOT_SET) {
+            firstStartNanos.accumulateAndGet(result.getStartNanos(), Math::min);
+        }
+
+        if(!QueryUnitResult.Status.SUCCESS.equals(result.getStatus())) {
+            failures.increment();
+            return;
+        }
+
+        long duration = result.getDuration();
+        if(duration == StopWatch.NOT_SET) {
+            return;
+        }
+        long latency = result.getDurationFromIntendedStart();
+        latencies.recordValue(Math.max(latency == StopWatch.NOT_SET ? duration : latency, 0));
+        if(result.getStartNanos() != StopWatch.NOT_SET) {
+            lastEndNanos.accumulateAndGet(result.getStartNanos() + duration, Math::max);
+        }
+    }
+
+    public void merge(Summary other) {
+        latencies.add(other.latencies);
+        executions.add(other.executions.sum());
+        failures.add(other.failures.sum());
+        firstStartNanos.accumulateAndGet(other.firstStartNanos.get(), Math::min);
+        lastEndNanos.accumulateAndGet(other.lastEndNanos.get(), Math::max);
+    }
+
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public double getErrorRate() {
+        long total = getExecutions();
+        return total == 0 ? 0 : (double) getFailures() / total;
+    }
+
+    /**
+     * Returns the number of executions per second between the first start and the last
+     * completion of the group.
+     */
+    public double getThroughput() {
+        long span = lastEndNanos.get() - firstStartNanos.get();
+        return span <= 0 ? 0 : getExecutions() / (span / 1_000_000_000.0);
+    }
+
+    /**
+     * Returns the latencies (in ns) of the successful executions, from their intended start
+     * when they had one.
+     */
+    public Histogram getLatencies() {
+        return latencies.copy();
+    }
+}
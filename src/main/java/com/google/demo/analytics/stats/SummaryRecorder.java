@@ -0,0 +1,121 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.stats;
+
+import com.google.demo.analytics.model.QueryUnitResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds the {@link Summary} of an engine, or of one of its runs, per query id, per package and
+ * overall as results stream in, so the report is ready as soon as the run ends. Warmup
+ * executions are left out.
+ */
+public class SummaryRecorder {
+
+    private final String engine;
+    private final String run;
+    private final ConcurrentMap<String, Summary> queries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Summary> packages = new ConcurrentHashMap<>();
+    private final Summary total = new Summary();
+
+    public SummaryRecorder(String engine) {
+        this(engine, "");
+    }
+
+    /**
+     * @param run the name of the run of the engine the results belong to, e.g. its concurrency
+     *            level and query mode, or an empty string for all the runs of the engine
+     */
+    public SummaryRecorder(String engine, String run) {
+        this.engine = engine;
+        this.run = run;
+    }
+
+    public void record(QueryUnitResult result) {
+        if(result.isWarmup()) {
+            return;
+        }
+
+        queries.computeIfAbsent(result.getQueryUnit().getId(), id -> new Summary()).record(result);
+        packages.computeIfAbsent(result.getQueryUnit().getDescription(), description -> new Summary()).record(result);
+        total.record(result);
+    }
+
+    public void merge(SummaryRecorder other) {
+        merge(queries, other.queries);
+        merge(packages, other.packages);
+        total.merge(other.total);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public String getRun() {
+        return run;
+    }
+
+    /**
+     * Returns the engine and the run the summary is of, e.g. {@code bigquery-c8-prepared}.
+     */
+    public String getName() {
+        return run.isEmpty() ? engine : engine + "-" + run;
+    }
+
+    public List<String> getQueryIds() {
+        return sorted(queries);
+    }
+
+    public List<String> getPackages() {
+        return sorted(packages);
+    }
+
+    /**
+     * Returns the summary of a query id, or null if it did not run.
+     */
+    public Summary getQuery(String queryId) {
+        return queries.get(queryId);
+    }
+
+    /**
+     * Returns the summary of a package, or null if it did not run.
+     */
+    public Summary getPackage(String description) {
+        return packages.get(description);
+    }
+
+    public Summary getTotal() {
+        return total;
+    }
+
+    private static void merge(ConcurrentMap<String, Summary> into, ConcurrentMap<String, Summary> from) {
+        for(Map.Entry<String, Summary> entry : from.entrySet()) {
+            into.computeIfAbsent(entry.getKey(), key -> new Summary()).merge(entry.getValue());
+        }
+    }
+
+    private static List<String> sorted(ConcurrentMap<String, Summary> summaries) {
+        List<String> keys = new ArrayList<>(summaries.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+}
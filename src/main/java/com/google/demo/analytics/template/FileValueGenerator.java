@@ -0,0 +1,54 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.template;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Draws a random line of a file, e.g. a list of customer ids extracted from the data set.
+ * Empty lines and lines starting with {@code #} are skipped. Lines are drawn from a seeded
+ * sequence, like the numbers of a {@link RangeGenerator}.
+ */
+public class FileValueGenerator implements ParameterGenerator {
+
+    private final Object[] values;
+    private final SplittableRandom random;
+
+    public FileValueGenerator(Path file, long seed) throws IOException {
+        List<Object> values = new ArrayList<>();
+        for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if(!line.trim().isEmpty() && !line.startsWith("#")) {
+                values.add(ParameterGenerator.parseValue(line));
+            }
+        }
+        if(values.isEmpty()) {
+            throw new IllegalArgumentException(String.format("No parameter values in %s", file));
+        }
+        this.values = values.toArray();
+        this.random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public synchronized Object next() {
+        return values[random.nextInt(values.length)];
+    }
+}
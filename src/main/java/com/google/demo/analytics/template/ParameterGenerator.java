@@ -0,0 +1,81 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.template;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Produces the values of a placeholder of a {@link QueryTemplate}. Values are {@link Long},
+ * {@link Double} or {@link String}, see {@link #parseValue(String)}. Generators are shared by
+ * every thread running the template so implementations must be thread safe.
+ */
+public interface ParameterGenerator {
+
+    Object next();
+
+    /**
+     * Creates a generator from its specification:
+     * <ul>
+     *     <li>{@code list:v1,v2,...} cycles through the values in order</li>
+     *     <li>{@code range:min..max} draws uniformly between min and max, both included</li>
+     *     <li>{@code file:path} draws a random line of the file, relative paths are resolved
+     *     against {@code baseDirectory}</li>
+     * </ul>
+     * Random generators with the same seed draw the same sequence of values.
+     */
+    static ParameterGenerator fromSpec(String spec, Path baseDirectory, long seed) throws IOException {
+        int colon = spec.indexOf(':');
+        if(colon < 0) {
+            throw new IllegalArgumentException(String.format("Invalid parameter generator %s", spec));
+        }
+
+        String type = spec.substring(0, colon).trim();
+        String argument = spec.substring(colon + 1).trim();
+        if("list".equals(type)) {
+            return new ValueListGenerator(argument.split(","));
+        } else if("range".equals(type)) {
+            String[] bounds = argument.split("\\.\\.");
+            if(bounds.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid parameter range %s", argument));
+            }
+            return new RangeGenerator(parseValue(bounds[0]), parseValue(bounds[1]), seed);
+        } else if("file".equals(type)) {
+            Path file = Paths.get(argument);
+            return new FileValueGenerator(file.isAbsolute() ? file : baseDirectory.resolve(file), seed);
+        }
+        throw new IllegalArgumentException(String.format("Unknown parameter generator %s", type));
+    }
+
+    /**
+     * Parses a value as a {@link Long} or a {@link Double} when it is numeric, as a trimmed
+     * {@link String} otherwise.
+     */
+    static Object parseValue(String value) {
+        String trimmed = value.trim();
+        try {
+            return Long.parseLong(trimmed);
+        } catch (NumberFormatException e) {
+            // Not an integer
+        }
+        try {
+            return Double.parseDouble(trimmed);
+        } catch (NumberFormatException e) {
+            return trimmed;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.template;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query with {@code ${name}} placeholders, each filled by a {@link ParameterGenerator}.
+ * Every execution binds a new set of values with {@link #bind()}, which can then be run as
+ * a prepared statement ({@link #getPositionalQuery()}), with named parameters
+ * ({@link #getNamedQuery()}) or as a literal query ({@link #toLiteralQuery(Map, boolean)}).
+ * A placeholder used several times gets the same value everywhere in the query.
+ */
+public class QueryTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z_][A-Za-z0-9_]*)\\}");
+
+    private final String query;
+    private final Map<String, ParameterGenerator> generators;
+    private final List<String> placeholders = new ArrayList<>();
+    private final String positionalQuery;
+    private final String namedQuery;
+
+    public QueryTemplate(String query, Map<String, ParameterGenerator> generators) {
+        this.query = query;
+        this.generators = new LinkedHashMap<>();
+
+        Matcher matcher = PLACEHOLDER.matcher(query);
+        while(matcher.find()) {
+            String name = matcher.group(1);
+            ParameterGenerator generator = generators.get(name);
+            if(generator == null) {
+                throw new IllegalArgumentException(String.format("No generator for parameter %s of %s", name, query));
+            }
+            placeholders.add(name);
+            this.generators.put(name, generator);
+        }
+
+        this.positionalQuery = matcher.replaceAll("?");
+        this.namedQuery = matcher.replaceAll("@$1");
+    }
+
+    /**
+     * Returns the names of the placeholders of a query, in order of first use.
+     */
+    public static List<String> getPlaceholders(String query) {
+        List<String> names = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(query);
+        while(matcher.find()) {
+            if(!names.contains(matcher.group(1))) {
+                names.add(matcher.group(1));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Draws one value for every placeholder.
+     */
+    public Map<String, Object> bind() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for(Map.Entry<String, ParameterGenerator> entry : generators.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().next());
+        }
+        return values;
+    }
+
+    /**
+     * Returns the query with a {@code ?} for every placeholder occurrence.
+     */
+    public String getPositionalQuery() {
+        return positionalQuery;
+    }
+
+    /**
+     * Returns the values of the {@code ?} of {@link #getPositionalQuery()}, in order.
+     */
+    public List<Object> getPositionalValues(Map<String, Object> values) {
+        List<Object> positional = new ArrayList<>(placeholders.size());
+        for(String name : placeholders) {
+            positional.add(values.get(name));
+        }
+        return positional;
+    }
+
+    /**
+     * Returns the query with an {@code @name} named parameter for every placeholder.
+     */
+    public String getNamedQuery() {
+        return namedQuery;
+    }
+
+    /**
+     * Returns the query with the values inlined. Strings are quoted, with quotes escaped by a
+     * backslash or by doubling them depending on the SQL dialect.
+     */
+    public String toLiteralQuery(Map<String, Object> values, boolean backslashEscapes) {
+        StringBuffer literal = new StringBuffer(query.length() + 16 * placeholders.size());
+        Matcher matcher = PLACEHOLDER.matcher(query);
+        while(matcher.find()) {
+            Object value = values.get(matcher.group(1));
+            matcher.appendReplacement(literal, Matcher.quoteReplacement(toLiteral(value, backslashEscapes)));
+        }
+        matcher.appendTail(literal);
+        return literal.toString();
+    }
+
+    /**
+     * Formats bound values for the output, e.g. {@code region=EU;day=12}, or returns null if
+     * there are none.
+     */
+    public static String format(Map<String, Object> values) {
+        if(values == null) {
+            return null;
+        }
+        StringBuilder formatted = new StringBuilder();
+        for(Map.Entry<String, Object> entry : values.entrySet()) {
+            if(formatted.length() > 0) {
+                formatted.append(';');
+            }
+            formatted.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return formatted.toString();
+    }
+
+    private static String toLiteral(Object value, boolean backslashEscapes) {
+        if(value instanceof Number) {
+            return value.toString();
+        }
+        String escaped = backslashEscapes
+                ? String.valueOf(value).replace("\\", "\\\\").replace("'", "\\'")
+                : String.valueOf(value).replace("'", "''");
+        return "'" + escaped + "'";
+    }
+
+    public String getQuery() {
+        return query;
+    }
+}
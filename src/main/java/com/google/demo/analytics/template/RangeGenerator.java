@@ -0,0 +1,56 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.template;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws numbers uniformly between two bounds. The range is integral, with both bounds
+ * included, when both bounds are integers, otherwise it is a range of doubles. The numbers are
+ * drawn from a seeded sequence, so that two generators with the same seed produce the same
+ * numbers whichever threads draw them.
+ */
+public class RangeGenerator implements ParameterGenerator {
+
+    private final Number min;
+    private final Number max;
+    private final boolean integral;
+    private final SplittableRandom random;
+
+    public RangeGenerator(Object min, Object max, long seed) {
+        if(!(min instanceof Number) || !(max instanceof Number)) {
+            throw new IllegalArgumentException(String.format("Invalid parameter range %s..%s", min, max));
+        }
+        this.min = (Number) min;
+        this.max = (Number) max;
+        this.integral = min instanceof Long && max instanceof Long;
+        this.random = new SplittableRandom(seed);
+        if(this.min.doubleValue() > this.max.doubleValue()) {
+            throw new IllegalArgumentException(String.format("Invalid parameter range %s..%s", min, max));
+        }
+    }
+
+    @Override
+    public synchronized Object next() {
+        if(integral) {
+            return random.nextLong(min.longValue(), max.longValue() + 1);
+        }
+        if(min.doubleValue() == max.doubleValue()) {
+            return min.doubleValue();
+        }
+        return random.nextDouble(min.doubleValue(), max.doubleValue());
+    }
+}
@@ -0,0 +1,42 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.template;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cycles through a fixed list of values.
+ */
+public class ValueListGenerator implements ParameterGenerator {
+
+    private final Object[] values;
+    private final AtomicLong position = new AtomicLong();
+
+    public ValueListGenerator(String[] values) {
+        if(values.length == 0) {
+            throw new IllegalArgumentException("Parameter value list is empty");
+        }
+        this.values = new Object[values.length];
+        for(int i = 0; i < values.length; i++) {
+            this.values[i] = ParameterGenerator.parseValue(values[i]);
+        }
+    }
+
+    @Override
+    public Object next() {
+        return values[(int) (position.getAndIncrement() % values.length)];
+    }
+}
@@ -0,0 +1,81 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Shuffles a stream of elements with a bounded buffer: each element returned is picked at
+ * random among the next {@code window} elements of the source. Sources that fit in the
+ * window are fully shuffled, larger ones are shuffled locally without being held in memory.
+ * Iterators given the same random generator, seeded alike, shuffle the same source the same way.
+ */
+public class ShuffleIterator<E> implements Iterator<E> {
+
+    private final Iterator<E> source;
+    private final int window;
+    private final List<E> buffer;
+    private final Random random;
+
+    public ShuffleIterator(Iterator<E> source, int window) {
+        this(source, window, null);
+    }
+
+    /**
+     * @param random the generator the elements are picked with, or null for the one of the
+     *               calling thread
+     */
+    public ShuffleIterator(Iterator<E> source, int window, Random random) {
+        if(window < 1) {
+            throw new IllegalArgumentException("Shuffle window must be at least 1");
+        }
+        this.source = source;
+        this.window = window;
+        this.buffer = new ArrayList<>(Math.min(window, 1024));
+        this.random = random;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public E next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        int last = buffer.size() - 1;
+        int index = (random != null ? random : ThreadLocalRandom.current()).nextInt(buffer.size());
+        E element = buffer.get(index);
+        buffer.set(index, buffer.get(last));
+        buffer.remove(last);
+        return element;
+    }
+
+    private void fill() {
+        while(buffer.size() < window && source.hasNext()) {
+            buffer.add(source.next());
+        }
+    }
+}
@@ -16,31 +16,102 @@
 
 package com.google.demo.analytics.util;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monotonic nanosecond timer that records the phases of a single query execution.
+ *
+ * <p>The {@link Phase#CONNECT} phase is measured from the creation of the stopwatch until
+ * {@link #connected()} is called. Every other phase is measured from that point, the
+ * submission of the query. The wall clock is only read once to anchor the start and end
+ * times reported in the output.
+ */
 public class StopWatch {
 
-    private long start;
-    private long end;
+    public enum Phase {
+        /** Time spent acquiring a connection or client before the query is submitted. */
+        CONNECT,
+        /** Time until the engine accepted the query. */
+        SUBMIT,
+        /** Time the query waited in the engine before it started executing. */
+        QUEUED,
+        /** Time until the first row was available. */
+        FIRST_ROW,
+        /** Time until the query completed, including the fetch when the results are drained. */
+        COMPLETE
+    }
+
+    public static final long NOT_SET = -1;
+
+    private final long startMillis;
+    private final long startNanos;
+    private long submitNanos;
+    private final long[] phases = new long[Phase.values().length];
 
     public StopWatch() {
-        start = System.currentTimeMillis();
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        submitNanos = startNanos;
+        Arrays.fill(phases, NOT_SET);
     }
 
+    /**
+     * Records the {@link Phase#CONNECT} phase and measures the following phases from now.
+     */
+    public void connected() {
+        long now = System.nanoTime();
+        phases[Phase.CONNECT.ordinal()] = now - startNanos;
+        submitNanos = now;
+    }
 
     /**
-     * Returns the elapsed CPU time (in ms) since the stopwatch was created.
+     * Records the time elapsed (in ns) since the query was submitted as the given phase.
      *
-     * @return elapsed CPU time (in ms) since the stopwatch was created
+     * @return elapsed time (in ns) since the query was submitted
+     */
+    public long mark(Phase phase) {
+        long elapsed = System.nanoTime() - submitNanos;
+        phases[phase.ordinal()] = elapsed;
+        return elapsed;
+    }
+
+    /**
+     * Records a phase measured elsewhere, e.g. from the statistics reported by the engine.
      */
-    public long elapsedTime() {
-        end = System.currentTimeMillis();
-        return end - start;
+    public void set(Phase phase, long nanos) {
+        phases[phase.ordinal()] = nanos;
     }
 
+    public long get(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    public long[] getPhases() {
+        return phases.clone();
+    }
+
+    /**
+     * Returns the wall clock time (in ms) at which the query was submitted.
+     */
     public long getStart() {
-        return start;
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(submitNanos - startNanos);
     }
 
-    public long getEnd() {
-        return end;
+    /**
+     * Returns the monotonic time (in ns) at which the query was submitted.
+     */
+    public long getStartNanos() {
+        return submitNanos;
+    }
+
+    /**
+     * Formats a duration in ns as fractional milliseconds, or an empty string if it was not set.
+     */
+    public static String toMillis(long nanos) {
+        if(nanos == NOT_SET) {
+            return "";
+        }
+        return String.format("%.3f", nanos / 1_000_000.0);
     }
 }
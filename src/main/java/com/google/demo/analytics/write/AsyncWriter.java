@@ -0,0 +1,169 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.write;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Streams items to a {@link Writer} from a single background thread. Items go through a
+ * bounded queue and are only formatted on the writer thread, which flushes the underlying
+ * writer every {@code flushSize} lines or {@code flushIntervalMs}, whichever comes first.
+ *
+ * <p>When the queue is full {@link #submit(Object)} blocks until the writer catches up, so
+ * callers should submit outside of their timed sections.
+ */
+public class AsyncWriter<T> {
+
+    private Logger logger = LogManager.getLogger();
+
+    private static final Object POISON = new Object();
+
+    private final Writer writer;
+    private final Function<T, ? extends CharSequence> formatter;
+    private final BlockingQueue<Object> queue;
+    private final int flushSize;
+    private final long flushIntervalMs;
+
+    private final Thread thread;
+    private final AtomicLong stalls = new AtomicLong();
+    private volatile IOException failure;
+
+    public AsyncWriter(
+            Writer writer,
+            Function<T, ? extends CharSequence> formatter,
+            int capacity,
+            int flushSize,
+            long flushIntervalMs) {
+        this.writer = writer;
+        this.formatter = formatter;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flushSize = flushSize;
+        this.flushIntervalMs = flushIntervalMs;
+
+        thread = new Thread(this::run, "async-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void submit(T item) throws IOException {
+        checkFailure();
+        if(queue.offer(item)) {
+            return;
+        }
+
+        stalls.incrementAndGet();
+        try {
+            while(!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing output", e);
+        }
+    }
+
+    /**
+     * Writes everything that was submitted, then closes the underlying writer.
+     */
+    public void close() throws IOException {
+        try {
+            while(thread.isAlive() && !queue.offer(POISON, 100, TimeUnit.MILLISECONDS)) {
+                // Wait for the writer thread to make room
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing output", e);
+        }
+
+        if(stalls.get() > 0) {
+            logger.log(Level.WARN, String.format(
+                    "Output queue was full %d times, consider raising its capacity", stalls.get()));
+        }
+        checkFailure();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        List<Object> batch = new ArrayList<>(flushSize);
+        int pending = 0;
+        long lastFlush = System.nanoTime();
+        boolean done = false;
+
+        try {
+            while(!done) {
+                Object first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if(first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, flushSize - 1);
+                }
+
+                for(Object item : batch) {
+                    if(item == POISON) {
+                        done = true;
+                        break;
+                    }
+                    writer.write(Collections.singletonList(formatter.apply((T) item)));
+                    pending++;
+                }
+                batch.clear();
+
+                long now = System.nanoTime();
+                if(pending > 0 && (done
+                        || pending >= flushSize
+                        || TimeUnit.NANOSECONDS.toMillis(now - lastFlush) >= flushIntervalMs)) {
+                    writer.flush();
+                    pending = 0;
+                    lastFlush = now;
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error writing output", e);
+            failure = e;
+            queue.clear();
+        } catch (RuntimeException e) {
+            logger.log(Level.ERROR, "Error formatting or writing output", e);
+            failure = new IOException("Error formatting or writing output", e);
+            queue.clear();
+        } catch (InterruptedException e) {
+            failure = new IOException("Output writer interrupted", e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.log(Level.ERROR, "Error closing output", e);
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if(failure != null) {
+            throw failure;
+        }
+    }
+}
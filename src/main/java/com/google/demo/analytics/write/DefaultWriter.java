@@ -17,6 +17,7 @@ package com.google.demo.analytics.write;
 
 import org.apache.commons.io.FilenameUtils;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -31,6 +32,7 @@ import static java.nio.file.StandardOpenOption.CREATE;
 public class DefaultWriter implements Writer {
 
     private Path output;
+    private BufferedWriter out;
 
     public DefaultWriter(String fileName) {
         String baseDirectory = DefaultWriter.class.getClassLoader().getResource("").getPath();
@@ -39,9 +41,28 @@ public class DefaultWriter implements Writer {
 
     @Override
     public void write(Iterable<? extends CharSequence> line) throws IOException {
-        Files.write(output, line, UTF_8, APPEND, CREATE);
+        if(out == null) {
+            out = Files.newBufferedWriter(output, UTF_8, APPEND, CREATE);
+        }
+
+        for(CharSequence l : line) {
+            out.append(l);
+            out.newLine();
+        }
     }
 
     @Override
-    public void close() {}
+    public void flush() throws IOException {
+        if(out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(out != null) {
+            out.close();
+            out = null;
+        }
+    }
 }
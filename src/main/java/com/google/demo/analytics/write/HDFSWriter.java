@@ -23,45 +23,189 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Writes lines to a file system supported by Hadoop (HDFS, or the local file system in tests).
+ * Lines are buffered and reach the file system in large batches, {@link #flush()} pushes them
+ * to the stream and makes them visible to readers with {@code hflush} at most once every
+ * {@code hflushIntervalMs}.
+ *
+ * <p>The file is rolled once {@code rollBytes} bytes were written to it or it has been open
+ * for {@code rollIntervalMs}, 0 disables either limit. Rolled files are named
+ * {@code <name>-part-00000.<extension>} and so on, and the headers passed to
+ * {@link #writeHeader(CharSequence)} are repeated at the top of each of them.
+ *
+ * <p>Writes block on the file system, so use it behind an {@link AsyncWriter} to keep it off
+ * the executor threads.
+ */
 public class HDFSWriter implements Writer {
 
     private Logger logger = LogManager.getLogger();
 
-//    private FileSystem hdfs;
-//    private BufferedWriter br;
-    private FSDataOutputStream out;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private final FileSystem fileSystem;
+    private final Path path;
+    private final long rollBytes;
+    private final long rollIntervalMs;
+    private final long hflushIntervalMs;
+
+    private FSDataOutputStream stream;
+    private OutputStream out;
+    private int part = 0;
+    private long written;
+    private long openedAt;
+    private long lastHflush;
+    private byte[] header;
 
     public HDFSWriter(String hdfsHost, String hdfsPath) throws URISyntaxException, IOException {
-        logger.log(Level.INFO, String.format("Creating writer for %s", hdfsPath));
-        Configuration configuration = new Configuration();
-        configuration.set("fs.default.name", hdfsHost);
-        System.out.println("Connecting to -- "+configuration.get("fs.defaultFS"));
+        this(hdfsHost, hdfsPath, 0, 0, 0);
+    }
 
-        FileSystem fileSystem = FileSystem.get(configuration);
-        out = fileSystem.create(new Path(hdfsPath));
+    public HDFSWriter(String hdfsHost, String hdfsPath, long rollBytes, long rollIntervalMs, long hflushIntervalMs)
+            throws URISyntaxException, IOException {
+        this(FileSystem.get(new URI(hdfsHost), new Configuration()),
+                new Path(hdfsPath),
+                rollBytes,
+                rollIntervalMs,
+                hflushIntervalMs);
+    }
 
+    public HDFSWriter(Configuration configuration, Path path, long rollBytes, long rollIntervalMs, long hflushIntervalMs)
+            throws IOException {
+        this(path.getFileSystem(configuration), path, rollBytes, rollIntervalMs, hflushIntervalMs);
+    }
 
-//        hdfs = FileSystem.get(new URI(hdfsHost), configuration);
-//        Path file = new Path(hdfsPath);
-//        OutputStream os = hdfs.create(file);
-//        br = new BufferedWriter(new OutputStreamWriter(os, "UTF-8") );
+    /**
+     * @param fileSystem the file system to write to, it is left open by {@link #close()}
+     * @param path the file to write, or the name the rolled files are derived from
+     */
+    public HDFSWriter(FileSystem fileSystem, Path path, long rollBytes, long rollIntervalMs, long hflushIntervalMs) {
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.rollBytes = rollBytes;
+        this.rollIntervalMs = rollIntervalMs;
+        this.hflushIntervalMs = hflushIntervalMs;
     }
 
     @Override
     public void write(Iterable<? extends CharSequence> line) throws IOException {
-        out.writeUTF(line.toString());
+        for(CharSequence l : line) {
+            if(shouldRoll()) {
+                roll();
+            }
+            if(out == null) {
+                open();
+            }
+            writeLine(l.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void writeHeader(CharSequence header) throws IOException {
+        this.header = header.toString().getBytes(StandardCharsets.UTF_8);
+        if(out == null) {
+            open();
+        } else {
+            writeLine(this.header);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(out == null) {
+            return;
+        }
+
+        out.flush();
+        long now = System.currentTimeMillis();
+        if(now - lastHflush >= hflushIntervalMs) {
+            stream.hflush();
+            lastHflush = now;
+        }
+
+        if(shouldRoll()) {
+            roll();
+        }
     }
 
     @Override
     public void close() throws IOException {
+        if(out == null) {
+            return;
+        }
+
+        out.flush();
+        stream.hflush();
         out.close();
-//        hdfs.close();
+        out = null;
+        stream = null;
+    }
+
+    /**
+     * Returns the file currently written to.
+     */
+    public Path getCurrentPath() {
+        if(!isRolling()) {
+            return path;
+        }
+
+        String name = path.getName();
+        int dot = name.lastIndexOf('.');
+        String partName = String.format("%s-part-%05d%s",
+                dot < 0 ? name : name.substring(0, dot),
+                part,
+                dot < 0 ? "" : name.substring(dot));
+        return new Path(path.getParent(), partName);
+    }
+
+    private boolean isRolling() {
+        return rollBytes > 0 || rollIntervalMs > 0;
+    }
+
+    private boolean shouldRoll() {
+        if(out == null || !isRolling() || written <= headerSize()) {
+            return false;
+        }
+        return (rollBytes > 0 && written >= rollBytes)
+                || (rollIntervalMs > 0 && System.currentTimeMillis() - openedAt >= rollIntervalMs);
+    }
+
+    private void open() throws IOException {
+        Path current = getCurrentPath();
+        logger.log(Level.INFO, String.format("Creating writer for %s", current));
+        stream = fileSystem.create(current);
+        out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        written = 0;
+        openedAt = System.currentTimeMillis();
+        lastHflush = openedAt;
+
+        // Every rolled file starts with the headers
+        if(header != null) {
+            writeLine(header);
+        }
+    }
+
+    private void roll() throws IOException {
+        close();
+        part++;
+        open();
+    }
+
+    private void writeLine(byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.write(NEW_LINE);
+        written += bytes.length + NEW_LINE.length;
+    }
+
+    private long headerSize() {
+        return header == null ? 0 : header.length + NEW_LINE.length;
     }
 }
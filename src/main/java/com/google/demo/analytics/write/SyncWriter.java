@@ -0,0 +1,63 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.write;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Appends lines to a local file, {@link #flush()} only returns once they reached the disk.
+ * Flushing is as slow as the disk, so use it behind an {@link AsyncWriter}, which batches
+ * the lines of many flushes into one.
+ */
+public class SyncWriter implements Writer {
+
+    private final FileChannel channel;
+    private final BufferedWriter out;
+
+    public SyncWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, WRITE, APPEND, CREATE);
+        out = new BufferedWriter(Channels.newWriter(channel, UTF_8.newEncoder(), -1));
+    }
+
+    @Override
+    public void write(Iterable<? extends CharSequence> line) throws IOException {
+        for(CharSequence l : line) {
+            out.append(l);
+            out.newLine();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
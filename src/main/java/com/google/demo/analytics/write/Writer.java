@@ -16,10 +16,24 @@
 package com.google.demo.analytics.write;
 
 import java.io.IOException;
+import java.util.Collections;
 
 public interface Writer {
 
     void write(Iterable<? extends CharSequence> line) throws IOException;
 
+    /**
+     * Writes the CSV headers, which writers that split their output across files repeat at the
+     * top of each of them.
+     */
+    default void writeHeader(CharSequence header) throws IOException {
+        write(Collections.singletonList(header));
+    }
+
+    /**
+     * Makes the lines written so far durable, or at least visible to readers of the output.
+     */
+    void flush() throws IOException;
+
     void close() throws IOException;
 }
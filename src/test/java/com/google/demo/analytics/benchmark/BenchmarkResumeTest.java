@@ -0,0 +1,176 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.checkpoint.Checkpoint;
+import com.google.demo.analytics.model.QueryPackage;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.write.Writer;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BenchmarkResumeTest extends TestCase {
+
+    private static final String ENGINE = SimulatedBenchmark.ENGINE_NAME;
+    private static final List<QueryUnit> QUERY_UNITS = Arrays.asList(
+            new QueryUnit("1", ENGINE, "pkg", "SELECT 1", 6),
+            new QueryUnit("2", ENGINE, "pkg", "SELECT 2", 4));
+
+    private Path journal;
+
+    @Override
+    protected void setUp() throws IOException {
+        journal = File.createTempFile("checkpoint", ".journal").toPath();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(journal);
+    }
+
+    public void testOpenLoopRunWithWarmupCompletesOnResume() throws Exception {
+        // An interrupted run, with 4 executions of the first query and 1 of the second journaled
+        Files.write(journal, Arrays.asList(
+                "seed|42",
+                line("1", 1, "SUCCESS"),
+                line("1", 2, "SUCCESS"),
+                line("1", 3, "FAIL"),
+                line("1", 4, "SUCCESS"),
+                line("1", 5, "SUCCESS"),
+                line("2", 1, "SUCCESS")), StandardCharsets.UTF_8);
+
+        ResumedBenchmark resumed = resume();
+        // The warmup executions come on top of those that remain, and are not journaled
+        assertEquals(2 + 3, resumed.measured());
+        assertEquals(2 * 2, resumed.warmup());
+
+        Checkpoint checkpoint = new Checkpoint(journal, true, 1, 10);
+        checkpoint.close();
+        assertEquals(6, checkpoint.getCompleted(ENGINE, "", "pkg", "1"));
+        assertEquals(4, checkpoint.getCompleted(ENGINE, "", "pkg", "2"));
+
+        // Once complete, resuming runs nothing more
+        ResumedBenchmark again = resume();
+        assertEquals(0, again.measured());
+        assertEquals(0, again.warmup());
+    }
+
+    private ResumedBenchmark resume() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(journal, true, 1, 10);
+        ResumedBenchmark benchmark = new ResumedBenchmark();
+        benchmark.setCheckpoint(checkpoint);
+        try {
+            benchmark.runQueries();
+        } finally {
+            checkpoint.close();
+        }
+        return benchmark;
+    }
+
+    private static String line(String id, int iteration, String status) {
+        return String.join(Checkpoint.DELIMITER, ENGINE, "", "pkg", id, String.valueOf(iteration), status);
+    }
+
+    /**
+     * Runs the simulated engine in open loop with a fixed warmup, and keeps its output in memory.
+     */
+    private static class ResumedBenchmark extends SimulatedBenchmark {
+
+        private final Map<String, String> properties = new HashMap<>();
+        private final Map<String, ListWriter> outputs = new HashMap<>();
+
+        ResumedBenchmark() {
+            super(Collections.emptyList(), Collections.singletonList(new QueryPackage(ENGINE, "pkg", QUERY_UNITS)));
+            properties.put("load.mode", LOAD_MODE_OPEN);
+            properties.put("load.rate", "1000");
+            properties.put("warmup.mode", "fixed");
+            properties.put("warmup.iterations", "2");
+        }
+
+        @Override
+        protected String getEngineProperty(String key, String defaultValue) {
+            return properties.containsKey(key) ? properties.get(key) : super.getEngineProperty(key, defaultValue);
+        }
+
+        @Override
+        public synchronized Writer createWriter(String fileName) {
+            return outputs.computeIfAbsent(fileName, name -> new ListWriter());
+        }
+
+        /**
+         * Returns the number of measured executions in the output of the run, if any.
+         */
+        int measured() {
+            return count(false);
+        }
+
+        int warmup() {
+            return count(true);
+        }
+
+        private synchronized int count(boolean warmup) {
+            int column = getHeaders().indexOf("warmup");
+            int count = 0;
+            for(Map.Entry<String, ListWriter> output : outputs.entrySet()) {
+                if(!output.getKey().matches(ENGINE + "-[0-9_-]+\\.csv")) {
+                    continue;
+                }
+                for(String line : output.getValue().lines) {
+                    String[] fields = line.split("\\|", -1);
+                    if(Boolean.parseBoolean(fields[column]) == warmup) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    private static class ListWriter implements Writer {
+
+        private final List<String> lines = new ArrayList<>();
+
+        @Override
+        public void writeHeader(CharSequence header) {
+        }
+
+        @Override
+        public synchronized void write(Iterable<? extends CharSequence> line) {
+            for(CharSequence value : line) {
+                lines.add(value.toString());
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.benchmark;
+
+import com.google.demo.analytics.executor.Executor;
+import com.google.demo.analytics.executor.WarmupExecutor;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class OpenLoopSchedulerTest extends TestCase {
+
+    public void testWarmupExecutionsComeOnTopOfTheCount() throws Exception {
+        List<Executor<QueryUnitResult>> executors = Arrays.asList(
+                WarmupExecutor.fixed(new InstantExecutor(new QueryUnit("1", "test", "pkg", "SELECT 1", 5)), 3),
+                WarmupExecutor.fixed(new InstantExecutor(new QueryUnit("2", "test", "pkg", "SELECT 2", 2)), 1),
+                new InstantExecutor(new QueryUnit("3", "test", "pkg", "SELECT 3", 4)));
+        List<QueryUnitResult> results = new ArrayList<>();
+        new OpenLoopScheduler<>(100000, OpenLoopScheduler.Arrival.CONSTANT, 10, 4, new Random(0))
+                .run(executors.iterator(), result -> {
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                });
+
+        int[] measured = new int[executors.size()];
+        int[] warmup = new int[executors.size()];
+        for(QueryUnitResult result : results) {
+            int index = Integer.parseInt(result.getQueryUnit().getId()) - 1;
+            if(result.isWarmup()) {
+                warmup[index]++;
+            } else {
+                measured[index]++;
+            }
+        }
+        assertEquals(Arrays.toString(new int[] {5, 2, 4}), Arrays.toString(measured));
+        assertEquals(Arrays.toString(new int[] {3, 1, 0}), Arrays.toString(warmup));
+    }
+
+    private static class InstantExecutor implements Executor<QueryUnitResult> {
+
+        private final QueryUnit queryUnit;
+
+        InstantExecutor(QueryUnit queryUnit) {
+            this.queryUnit = queryUnit;
+        }
+
+        @Override
+        public QueryUnit getQueryUnit() {
+            return queryUnit;
+        }
+
+        @Override
+        public QueryUnitResult executeOnce() {
+            StopWatch stopWatch = new StopWatch();
+            stopWatch.mark(StopWatch.Phase.COMPLETE);
+            return QueryUnitResult.createSuccess(queryUnit, stopWatch);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.distributed;
+
+import com.google.demo.analytics.benchmark.Benchmark;
+import com.google.demo.analytics.benchmark.Scheduler;
+import com.google.demo.analytics.benchmark.SimulatedBenchmark;
+import com.google.demo.analytics.model.QueryPackage;
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import junit.framework.TestCase;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+public class CoordinatorTest extends TestCase {
+
+    private static final String TOKEN = "secret";
+    private static final int WORKERS = 3;
+    private static final List<QueryUnit> QUERY_UNITS = Arrays.asList(
+            new QueryUnit("1", SimulatedBenchmark.ENGINE_NAME, "pkg", "SELECT 1", 10),
+            new QueryUnit("2", SimulatedBenchmark.ENGINE_NAME, "pkg", "SELECT 2", 7),
+            new QueryUnit("3", SimulatedBenchmark.ENGINE_NAME, "pkg", "SELECT 3", 2),
+            new QueryUnit("4", SimulatedBenchmark.ENGINE_NAME, "pkg", "SELECT 4", 1));
+
+    private Coordinator coordinator;
+    private List<CountingBenchmark> benchmarks = new ArrayList<>();
+    private List<Thread> workers = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws IOException {
+        coordinator = new Coordinator(true, 0, TOKEN, 30, 100);
+        for(int i = 0; i < WORKERS; i++) {
+            CountingBenchmark benchmark = new CountingBenchmark();
+            benchmark.setWorker(i, WORKERS);
+            benchmarks.add(benchmark);
+            workers.add(startWorker(new Worker(i, Collections.singletonList(benchmark)), coordinator.getPort(), TOKEN));
+        }
+        coordinator.accept(WORKERS);
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        coordinator.close();
+        for(Thread worker : workers) {
+            worker.join(10000);
+        }
+    }
+
+    public void testResultsAreMergedFromEveryWorker() throws Exception {
+        Histogram latencies = new Histogram(3);
+        int[] executions = new int[QUERY_UNITS.size()];
+        RemoteRun run = coordinator.start(SimulatedBenchmark.ENGINE_NAME, "", Benchmark.QUERY_MODE_PREPARED, 0);
+        List<String> errors;
+        try {
+            errors = run.collect(result -> {
+                latencies.recordValue(result.getDuration());
+                executions[QUERY_UNITS.indexOf(findQueryUnit(result))]++;
+            });
+        } finally {
+            coordinator.finish(run);
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        int total = QUERY_UNITS.stream().mapToInt(QueryUnit::getCount).sum();
+        assertEquals(total, latencies.getTotalCount());
+        for(int i = 0; i < QUERY_UNITS.size(); i++) {
+            assertEquals(QUERY_UNITS.get(i).getCount(), executions[i]);
+        }
+
+        Histogram workerLatencies = new Histogram(3);
+        Histogram workerLags = new Histogram(3);
+        for(int worker = 0; worker < WORKERS; worker++) {
+            CountingBenchmark benchmark = benchmarks.get(worker);
+            assertEquals(expectedShare(worker), benchmark.executions);
+            workerLatencies.add(benchmark.latencies);
+            workerLags.add(benchmark.schedulingLag);
+        }
+        assertEquals(workerLatencies, latencies);
+        assertEquals(workerLags, run.getSchedulingLag());
+    }
+
+    public void testWorkerWithTheWrongTokenIsRejected() throws Exception {
+        Coordinator other = new Coordinator(true, 0, TOKEN, 2, 100);
+        try {
+            startWorker(new Worker(0, Collections.singletonList(new CountingBenchmark())), other.getPort(), "wrong");
+            other.accept(1);
+            fail("A worker with the wrong token connected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Only 0 of 1 workers connected"));
+        } finally {
+            other.close();
+        }
+    }
+
+    private static Thread startWorker(Worker worker, int port, String token) {
+        Thread thread = new Thread(() -> {
+            try {
+                worker.run(InetAddress.getLoopbackAddress().getHostAddress(), port, token);
+            } catch (IOException | InterruptedException e) {
+                // The coordinator closed the connection
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static QueryUnit findQueryUnit(QueryUnitResult result) {
+        for(QueryUnit queryUnit : QUERY_UNITS) {
+            if(queryUnit.getId().equals(result.getQueryUnit().getId())) {
+                return queryUnit;
+            }
+        }
+        throw new AssertionError("Unknown query unit " + result.getQueryUnit().getId());
+    }
+
+    /**
+     * Returns the executions a worker should run: those of every query unit are dealt round
+     * robin, starting from the next worker for every query unit.
+     */
+    private static int expectedShare(int worker) {
+        int executions = 0;
+        for(int i = 0; i < QUERY_UNITS.size(); i++) {
+            int first = i % WORKERS;
+            for(int execution = 0; execution < QUERY_UNITS.get(i).getCount(); execution++) {
+                if((first + execution) % WORKERS == worker) {
+                    executions++;
+                }
+            }
+        }
+        return executions;
+    }
+
+    /**
+     * Runs the simulated engine and keeps what the worker it belongs to ran.
+     */
+    private static class CountingBenchmark extends SimulatedBenchmark {
+
+        private int executions;
+        private final Histogram latencies = new Histogram(3);
+        private Histogram schedulingLag;
+
+        CountingBenchmark() {
+            super(Collections.emptyList(), Collections.singletonList(
+                    new QueryPackage(SimulatedBenchmark.ENGINE_NAME, "pkg", QUERY_UNITS)));
+        }
+
+        @Override
+        public Histogram runWorker(String label, String queryMode, int level, Scheduler.ResultHandler<QueryUnitResult> handler)
+                throws IOException, InterruptedException, ExecutionException {
+            schedulingLag = super.runWorker(label, queryMode, level, result -> {
+                synchronized (this) {
+                    executions++;
+                    latencies.recordValue(result.getDuration());
+                }
+                handler.handle(result);
+            });
+            return schedulingLag;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.JobId;
+import junit.framework.TestCase;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BigQueryJobPollerTest extends TestCase {
+
+    private static final BigQueryException TRANSIENT = new BigQueryException(
+            503, "Backend error", new BigQueryError("backendError", "", "Backend error"));
+    private static final BigQueryException PERMANENT = new BigQueryException(
+            404, "Not found", new BigQueryError("notFound", "", "Not found"));
+
+    private final AtomicInteger polls = new AtomicInteger();
+
+    public void testTransientErrorsArePolledAgain() throws Exception {
+        // The job no longer exists once the errors are over, which completes it with null
+        BigQueryJobPoller poller = poller(3, null, 5);
+        try {
+            assertNull(poller.waitFor(JobId.of("job")).get(10, TimeUnit.SECONDS));
+            assertEquals(4, polls.get());
+        } finally {
+            poller.close();
+        }
+    }
+
+    public void testPermanentErrorFailsTheJob() throws Exception {
+        BigQueryJobPoller poller = poller(0, PERMANENT, 5);
+        try {
+            poller.waitFor(JobId.of("job")).get(10, TimeUnit.SECONDS);
+            fail("A permanent error did not fail the job");
+        } catch (ExecutionException e) {
+            assertSame(PERMANENT, e.getCause());
+            assertEquals(1, polls.get());
+        } finally {
+            poller.close();
+        }
+    }
+
+    public void testTooManyTransientErrorsFailTheJob() throws Exception {
+        BigQueryJobPoller poller = poller(10, null, 3);
+        try {
+            poller.waitFor(JobId.of("job")).get(10, TimeUnit.SECONDS);
+            fail("Transient errors did not fail the job");
+        } catch (ExecutionException e) {
+            assertSame(TRANSIENT, e.getCause());
+            assertEquals(3, polls.get());
+        } finally {
+            poller.close();
+        }
+    }
+
+    /**
+     * Returns a poller whose polls fail with a transient error {@code transientErrors} times, then
+     * with {@code error}, or find no job when it is null.
+     */
+    private BigQueryJobPoller poller(int transientErrors, BigQueryException error, int maxPollErrors) {
+        BigQuery bigquery = (BigQuery) Proxy.newProxyInstance(
+                BigQueryJobPollerTest.class.getClassLoader(),
+                new Class<?>[] {BigQuery.class},
+                (self, method, args) -> {
+                    if(!method.getName().equals("getJob")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    if(polls.incrementAndGet() <= transientErrors) {
+                        throw TRANSIENT;
+                    } else if(error != null) {
+                        throw error;
+                    }
+                    return null;
+                });
+        return new BigQueryJobPoller(bigquery, 1, 10, 1,
+                new BigQueryErrorClassifier(ErrorClassifier.DEFAULT_TRANSIENT_ERRORS), maxPollErrors);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.executor;
+
+import com.google.demo.analytics.model.QueryUnit;
+import com.google.demo.analytics.model.QueryUnitResult;
+import com.google.demo.analytics.util.StopWatch;
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+public class ProfilingExecutorTest extends TestCase {
+
+    private static final QueryUnit QUERY_UNIT = new QueryUnit("1", "test", "pkg", "SELECT 1", 1);
+
+    public void testExecutionCompletedBeforeReturningIsProfiledOnTheCallingThread() throws Exception {
+        if(!ManagementFactory.getThreadMXBean().isCurrentThreadCpuTimeSupported()) {
+            return;
+        }
+        Executor<QueryUnitResult> completed = new Executor<QueryUnitResult>() {
+            @Override
+            public QueryUnit getQueryUnit() {
+                return QUERY_UNIT;
+            }
+
+            @Override
+            public QueryUnitResult executeOnce() {
+                StopWatch stopWatch = new StopWatch();
+                stopWatch.mark(StopWatch.Phase.COMPLETE);
+                return QueryUnitResult.createSuccess(QUERY_UNIT, stopWatch);
+            }
+
+            @Override
+            public CompletableFuture<QueryUnitResult> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+                return CompletableFuture.completedFuture(executeOnce());
+            }
+        };
+
+        QueryUnitResult result = new ProfilingExecutor<>(completed)
+                .executeAsync(task -> {
+                    throw new AssertionError("Nothing to run");
+                })
+                .get();
+        assertTrue(result.getDriverCpuNanos() != StopWatch.NOT_SET);
+        assertTrue(result.getDriverGcNanos() >= 0);
+    }
+
+    public void testExecutionCompletedElsewhereOnlyRecordsTheGc() throws Exception {
+        CompletableFuture<QueryUnitResult> pending = new CompletableFuture<>();
+        Executor<QueryUnitResult> async = new Executor<QueryUnitResult>() {
+            @Override
+            public QueryUnit getQueryUnit() {
+                return QUERY_UNIT;
+            }
+
+            @Override
+            public QueryUnitResult executeOnce() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<QueryUnitResult> executeAsync(java.util.concurrent.Executor blockingExecutor) {
+                return pending;
+            }
+        };
+
+        CompletableFuture<QueryUnitResult> future = new ProfilingExecutor<>(async).executeAsync(Runnable::run);
+        Thread completer = new Thread(() -> {
+            StopWatch stopWatch = new StopWatch();
+            stopWatch.mark(StopWatch.Phase.COMPLETE);
+            pending.complete(QueryUnitResult.createSuccess(QUERY_UNIT, stopWatch));
+        });
+        completer.start();
+        completer.join();
+
+        QueryUnitResult result = future.get();
+        assertEquals(StopWatch.NOT_SET, result.getDriverCpuNanos());
+        assertEquals(-1, result.getDriverAllocatedBytes());
+        assertTrue(result.getDriverGcNanos() >= 0);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.write;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AsyncWriterTest extends TestCase {
+
+    public void testFormatterFailureFailsTheWriter() throws InterruptedException {
+        ListWriter lines = new ListWriter();
+        AsyncWriter<Integer> writer = new AsyncWriter<>(lines, item -> {
+            if(item == 3) {
+                throw new IllegalStateException("Cannot format " + item);
+            }
+            return String.valueOf(item);
+        }, 2, 1, 10);
+
+        try {
+            // More items than the queue holds, so a dead writer thread would block forever
+            for(int i = 0; i < 100; i++) {
+                writer.submit(i);
+                Thread.sleep(1);
+            }
+            fail("Submitted to a failed writer");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        try {
+            writer.close();
+            fail("Closed a failed writer without error");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(lines.closed);
+    }
+
+    public void testItemsAreWrittenInOrder() throws IOException {
+        ListWriter lines = new ListWriter();
+        AsyncWriter<Integer> writer = new AsyncWriter<>(lines, String::valueOf, 2, 3, 10);
+        List<String> expected = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            writer.submit(i);
+            expected.add(String.valueOf(i));
+        }
+        writer.close();
+        assertEquals(expected, lines.lines);
+        assertTrue(lines.closed);
+    }
+
+    private static class ListWriter implements Writer {
+
+        private final List<String> lines = new ArrayList<>();
+        private volatile boolean closed;
+
+        @Override
+        public void write(Iterable<? extends CharSequence> line) {
+            for(CharSequence value : line) {
+                lines.add(value.toString());
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+    Copyright 2017, Google, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.google.demo.analytics.write;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HDFSWriterTest extends TestCase {
+
+    private static final String HEADER = "id|value";
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("hdfs-writer").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testRolledFilesStartWithTheHeader() throws IOException {
+        HDFSWriter writer = createWriter(100);
+        writer.writeHeader(HEADER);
+        List<String> lines = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            String line = i + "|" + HEADER;
+            lines.add(line);
+            writer.write(Arrays.asList(line));
+            writer.flush();
+        }
+        writer.close();
+
+        List<String> read = new ArrayList<>();
+        int parts = 0;
+        File part;
+        while((part = new File(directory, String.format("results-part-%05d.csv", parts))).exists()) {
+            List<String> partLines = Files.readAllLines(part.toPath(), StandardCharsets.UTF_8);
+            assertEquals(HEADER, partLines.get(0));
+            assertTrue(partLines.size() > 1);
+            read.addAll(partLines.subList(1, partLines.size()));
+            parts++;
+        }
+        assertTrue(parts > 1);
+        assertEquals(lines, read);
+    }
+
+    public void testFirstLineIsNotTakenForTheHeader() throws IOException {
+        HDFSWriter writer = createWriter(15);
+        writer.write(Arrays.asList("0|first", "1|second", "2|third"));
+        writer.close();
+
+        assertEquals(Arrays.asList("0|first", "1|second"), read("results-part-00000.csv"));
+        assertEquals(Arrays.asList("2|third"), read("results-part-00001.csv"));
+    }
+
+    public void testHeaderIsWrittenOnceWithoutRolling() throws IOException {
+        HDFSWriter writer = createWriter(0);
+        writer.writeHeader(HEADER);
+        writer.write(Arrays.asList("0|first", "1|second"));
+        writer.close();
+
+        assertEquals(Arrays.asList(HEADER, "0|first", "1|second"), read("results.csv"));
+    }
+
+    private HDFSWriter createWriter(long rollBytes) throws IOException {
+        return new HDFSWriter(
+                new Configuration(),
+                new Path(directory.toURI().toString(), "results.csv"),
+                rollBytes,
+                0,
+                0);
+    }
+
+    private List<String> read(String name) throws IOException {
+        return Files.readAllLines(new File(directory, name).toPath(), StandardCharsets.UTF_8);
+    }
+}